@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import minisqlite.bench.ReadPath;
+
+// Implements the benchmarks' view of the engine from the unnamed package, where the engine classes are visible
+public class ReadPathBridge implements ReadPath {
+    private Database database;
+    private String databasePath;
+    private PageSource pageSource;
+    private SchemaCatalog.TableInfo table;
+    private Record row;
+    private int[] leafPages;
+    private Predicate<Record> filter;
+    private PreparedQuery prepared;
+
+    @Override
+    public long readVarInts(ByteBuffer buffer, int count) {
+        long sum = 0;
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            sum += VarInt.read(buffer, offset);
+            offset += VarInt.getLength(buffer, offset);
+        }
+        return sum;
+    }
+
+    @Override
+    public void open(Path database, String tableName) throws IOException {
+        this.database = new Database();
+        this.databasePath = database.toString();
+        this.database.openSession(databasePath);
+        pageSource = this.database.getPageSource();
+        table = SchemaCatalog.load(pageSource).getTable(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Table " + tableName + " does not exist");
+        }
+        row = new Record(table.rowidColumn, table.columns.length);
+        List<Integer> pages = new ArrayList<>();
+        collectLeafPages(table.rootPage, pages);
+        leafPages = pages.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void collectLeafPages(int pageNumber, List<Integer> pages) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte pageType = BTreePage.getPageType(page, headerOffset);
+        if (!BTreePage.isInterior(pageType)) {
+            pages.add(pageNumber);
+            return;
+        }
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        for (int cellPointer : BTreePage.getCellPointers(page, headerOffset, pageType, numberOfCells)) {
+            collectLeafPages(page.getInt(cellPointer), pages);
+        }
+        collectLeafPages(BTreePage.getRightMostPointer(page, headerOffset), pages);
+    }
+
+    @Override
+    public int[] getLeafPages() {
+        return leafPages;
+    }
+
+    @Override
+    public long decodePageHeader(int pageNumber) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte pageType = BTreePage.getPageType(page, headerOffset);
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        long checksum = pageType + numberOfCells;
+        for (int i = 0; i < numberOfCells; i++) {
+            checksum += BTreePage.getCellPointer(page, headerOffset, pageType, i);
+        }
+        return checksum;
+    }
+
+    @Override
+    public long decodeRecords(int pageNumber) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte pageType = BTreePage.getPageType(page, headerOffset);
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        long checksum = 0;
+        for (int i = 0; i < numberOfCells; i++) {
+            resetRow(page, BTreePage.getCellPointer(page, headerOffset, pageType, i));
+            checksum += sumColumns();
+        }
+        return checksum;
+    }
+
+    @Override
+    public long scanTable() throws IOException {
+        BTreeCursor cursor = new BTreeCursor(pageSource, table.rootPage, null);
+        long checksum = 0;
+        while (cursor.next()) {
+            row.reset(cursor);
+            checksum += sumColumns();
+        }
+        return checksum;
+    }
+
+    // Integers and floats by value, TEXT and BLOB by length, so no value is copied off the page
+    private long sumColumns() {
+        long checksum = 0;
+        for (int column = 0; column < table.columns.length; column++) {
+            if (row.isInteger(column)) {
+                checksum += row.getLong(column);
+            } else if (row.isFloat(column)) {
+                checksum += (long) row.getDouble(column);
+            } else if (!row.isNull(column)) {
+                checksum += SerialType.getSize(row.getSerialType(column));
+            }
+        }
+        return checksum;
+    }
+
+    @Override
+    public void compileWhereClause(String whereClause) {
+        filter = new WhereFilter().compile(whereClause, table.columns, table.columnTypes);
+    }
+
+    @Override
+    public int filterRecords(int pageNumber) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte pageType = BTreePage.getPageType(page, headerOffset);
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        int matches = 0;
+        for (int i = 0; i < numberOfCells; i++) {
+            resetRow(page, BTreePage.getCellPointer(page, headerOffset, pageType, i));
+            if (filter.test(row)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    // Table leaf cell: payload size varint, rowid varint, then the record; the generated rows never overflow
+    private void resetRow(ByteBuffer page, int cellOffset) {
+        int rowidOffset = cellOffset + VarInt.getLength(page, cellOffset);
+        row.reset(page, rowidOffset + VarInt.getLength(page, rowidOffset), VarInt.read(page, rowidOffset));
+    }
+
+    @Override
+    public void executeQuery(String sql) {
+        database.executeQuery(databasePath, sql);
+    }
+
+    @Override
+    public void prepare(String sql) {
+        prepared = database.prepare(sql);
+    }
+
+    @Override
+    public void executePrepared(Object... parameters) {
+        database.execute(databasePath, prepared, parameters);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (database != null) {
+            database.close();
+        }
+    }
+}
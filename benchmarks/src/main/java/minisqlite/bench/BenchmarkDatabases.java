@@ -0,0 +1,92 @@
+package minisqlite.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+// Deterministic benchmark databases: the same size always holds the same rows, so results stay comparable between
+// runs and machines. Each file is generated once under bench.data.dir and reused afterwards.
+public final class BenchmarkDatabases {
+    public static final String TABLE = "companies";
+    private static final long SEED = 20240501L;
+    // Rows of the generated schema that fill about one MB of file, index included
+    private static final int ROWS_PER_MB = 10_400;
+    private static final int BATCH_SIZE = 10_000;
+    private static final String[] INDUSTRIES = {"software", "retail", "banking", "mining", "media", "logistics",
+            "energy", "health care", "education", "telecom", "farming", "insurance"};
+    private static final String[] COUNTRIES = {"france", "peru", "japan", "chad", "eritrea", "kenya", "brazil",
+            "canada", "india", "norway", "vietnam", "mexico", "egypt", "spain", "chile", "ghana"};
+
+    private BenchmarkDatabases() {
+    }
+
+    public static Path get(int sizeMb) throws IOException {
+        Path directory = Paths.get(System.getProperty("bench.data.dir", "target/bench-data"));
+        Path database = directory.resolve(TABLE + "-" + sizeMb + "mb.db");
+        if (Files.exists(database)) {
+            return database;
+        }
+        Files.createDirectories(directory);
+        // Generated under a temp name so an interrupted run never leaves a partial database behind
+        Path partial = Files.createTempFile(directory, TABLE + "-" + sizeMb + "mb", ".partial");
+        try {
+            Files.delete(partial);
+            generate(partial, getRows(sizeMb));
+            Files.move(partial, database, StandardCopyOption.ATOMIC_MOVE);
+        } catch (SQLException e) {
+            throw new IOException("Could not generate " + database, e);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        return database;
+    }
+
+    // Rows in the database of the given size, with ids 1 to getRows
+    public static long getRows(int sizeMb) {
+        return (long) sizeMb * ROWS_PER_MB;
+    }
+
+    private static void generate(Path database, long rows) throws SQLException {
+        Random random = new Random(SEED);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA page_size = 4096");
+                statement.execute("PRAGMA journal_mode = OFF");
+                statement.execute("PRAGMA synchronous = OFF");
+                statement.execute("CREATE TABLE " + TABLE + " (id integer primary key, name text, domain text, "
+                        + "year_founded integer, industry text, country text, employees integer, revenue real)");
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (long id = 1; id <= rows; id++) {
+                    String name = "company-" + Long.toString(random.nextLong() >>> 1, 36);
+                    insert.setLong(1, id);
+                    insert.setString(2, name);
+                    insert.setString(3, name + ".com");
+                    insert.setInt(4, 1850 + random.nextInt(175));
+                    insert.setString(5, INDUSTRIES[random.nextInt(INDUSTRIES.length)]);
+                    insert.setString(6, COUNTRIES[random.nextInt(COUNTRIES.length)]);
+                    insert.setInt(7, random.nextInt(100_000));
+                    insert.setDouble(8, random.nextInt(100_000_000) / 100.0);
+                    insert.addBatch();
+                    if (id % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX idx_" + TABLE + "_country ON " + TABLE + " (country)");
+            }
+            connection.commit();
+        }
+    }
+}
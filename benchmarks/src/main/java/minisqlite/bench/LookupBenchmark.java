@@ -0,0 +1,76 @@
+package minisqlite.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Primary key lookups on an open session, output discarded, cycling through every id. literalSql writes the key
+// into the SQL text, so each call misses the plan cache and is parsed again; prepared binds it to one statement.
+// All threads share one open handle and each walks the ids on its own, so running with -t N measures how lookups
+// scale when N threads query the same Database.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LookupBenchmark {
+    private static final String SQL = "SELECT name, country FROM companies WHERE id = ";
+
+    @Param({"1", "64"})
+    public int sizeMb;
+
+    private ReadPath readPath;
+    private long rows;
+    private PrintStream originalOut;
+
+    @State(Scope.Thread)
+    public static class NextId {
+        private long id;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        readPath = ReadPath.create();
+        readPath.open(BenchmarkDatabases.get(sizeMb), BenchmarkDatabases.TABLE);
+        readPath.prepare(SQL + "?");
+        rows = BenchmarkDatabases.getRows(sizeMb);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        readPath.close();
+    }
+
+    @Benchmark
+    public void literalSql(NextId next) {
+        readPath.executeQuery(SQL + nextId(next));
+    }
+
+    @Benchmark
+    public void prepared(NextId next) {
+        readPath.executePrepared(nextId(next));
+    }
+
+    private long nextId(NextId next) {
+        next.id = next.id % rows + 1;
+        return next.id;
+    }
+}
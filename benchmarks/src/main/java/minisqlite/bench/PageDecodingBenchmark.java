@@ -0,0 +1,72 @@
+package minisqlite.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Page header and record decoding, one table leaf page per operation, and a cursor scan of the whole table. The
+// database fits in the page cache, so the scores are decoding cost alone; with -prof gc, gc.alloc.rate.norm is the
+// bytes allocated per page or per scan, which stays a small constant for the cursor however many rows it reads.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageDecodingBenchmark {
+    @Param({"1"})
+    public int sizeMb;
+
+    private ReadPath readPath;
+    private int[] leafPages;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        readPath = ReadPath.create();
+        readPath.open(BenchmarkDatabases.get(sizeMb), BenchmarkDatabases.TABLE);
+        leafPages = readPath.getLeafPages();
+        // Loads every page into the cache before measuring
+        for (int page : leafPages) {
+            readPath.decodeRecords(page);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        readPath.close();
+    }
+
+    private int nextPage() {
+        int page = leafPages[next];
+        next = next + 1 == leafPages.length ? 0 : next + 1;
+        return page;
+    }
+
+    @Benchmark
+    public long pageHeader() throws IOException {
+        return readPath.decodePageHeader(nextPage());
+    }
+
+    @Benchmark
+    public long records() throws IOException {
+        return readPath.decodeRecords(nextPage());
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        return readPath.scanTable();
+    }
+}
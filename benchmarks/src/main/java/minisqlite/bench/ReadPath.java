@@ -0,0 +1,52 @@
+package minisqlite.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+// The parts of the engine the benchmarks drive. The engine lives in the unnamed package, which a named package
+// cannot refer to and JMH does not allow benchmarks in, so ReadPathBridge implements this interface from the
+// unnamed package and is loaded by name.
+public interface ReadPath extends AutoCloseable {
+    static ReadPath create() {
+        try {
+            return (ReadPath) Class.forName("ReadPathBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ReadPathBridge is not on the class path", e);
+        }
+    }
+
+    // Sum of count consecutive varints starting at offset 0
+    long readVarInts(ByteBuffer buffer, int count);
+
+    // Opens a session on the database and lists the leaf pages of the table
+    void open(Path database, String table) throws IOException;
+
+    int[] getLeafPages();
+
+    // Decodes the page header and cell pointer array; returns a checksum of what was read
+    long decodePageHeader(int pageNumber) throws IOException;
+
+    // Decodes every column of every row on a table leaf page; returns a checksum of the values
+    long decodeRecords(int pageNumber) throws IOException;
+
+    // Walks the whole table with a B-tree cursor, decoding every row like decodeRecords; returns the checksum
+    long scanTable() throws IOException;
+
+    void compileWhereClause(String whereClause);
+
+    // Rows on a table leaf page that pass the compiled WHERE clause
+    int filterRecords(int pageNumber) throws IOException;
+
+    // Runs the query against the open session, printing to System.out like the CLI
+    void executeQuery(String sql);
+
+    // Prepares the statement that executePrepared runs
+    void prepare(String sql);
+
+    // Runs the prepared statement against the open session with a value for each ? placeholder
+    void executePrepared(Object... parameters);
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,108 @@
+package minisqlite.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end Database.executeQuery on an open session, output discarded. Besides queries per second each query
+// reports its output rows as a "rows" rate; bytes allocated per row are gc.alloc.rate.norm (from -prof gc)
+// divided by rows per query. The larger sizes take a while to generate the first time; pick sizes with -p sizeMb=...
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScanBenchmark {
+    @Param({"1", "64", "1024", "4096"})
+    public int sizeMb;
+
+    @Param({"fullScan", "filteredScan", "indexSeek", "count"})
+    public String query;
+
+    private ReadPath readPath;
+    private String sql;
+    private PrintStream originalOut;
+    private final LineCounter output = new LineCounter();
+
+    @Setup
+    public void setUp() throws IOException {
+        sql = switch (query) {
+            case "fullScan" -> "SELECT id, name, country FROM companies";
+            case "filteredScan" -> "SELECT name, revenue FROM companies WHERE employees > 90000";
+            case "indexSeek" -> "SELECT id, name FROM companies WHERE country = 'france'";
+            case "count" -> "SELECT COUNT(*) FROM companies WHERE industry = 'software'";
+            default -> throw new IllegalArgumentException("Unknown query " + query);
+        };
+        readPath = ReadPath.create();
+        readPath.open(BenchmarkDatabases.get(sizeMb), BenchmarkDatabases.TABLE);
+        originalOut = System.out;
+        System.setOut(new PrintStream(output));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        readPath.close();
+    }
+
+    @Benchmark
+    public void executeQuery(Rows rows) {
+        readPath.executeQuery(sql);
+        rows.rows += output.takeLines();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rows {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    // Discards the query output, counting its lines
+    private static class LineCounter extends OutputStream {
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (bytes[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+
+        long takeLines() {
+            long taken = lines;
+            lines = 0;
+            return taken;
+        }
+    }
+}
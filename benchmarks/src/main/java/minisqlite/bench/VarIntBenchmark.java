@@ -0,0 +1,69 @@
+package minisqlite.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// VarInt.read and VarInt.getLength over a page worth of varints of one encoded length; scores are per varint
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VarIntBenchmark {
+    private static final int VARINTS = 1024;
+
+    @Param({"1", "2", "4", "9"})
+    public int bytesPerVarInt;
+
+    private ReadPath readPath;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        readPath = ReadPath.create();
+        buffer = ByteBuffer.allocate(VARINTS * 9);
+        Random random = new Random(bytesPerVarInt);
+        for (int i = 0; i < VARINTS; i++) {
+            writeVarInt(buffer, random.nextLong(), bytesPerVarInt);
+        }
+        buffer.flip();
+    }
+
+    // Writes the low bits of value as a varint of exactly length bytes: 7 bits per byte, 8 in the ninth
+    private static void writeVarInt(ByteBuffer buffer, long value, int length) {
+        if (length == 9) {
+            for (int shift = 57; shift >= 8; shift -= 7) {
+                buffer.put((byte) (0x80 | (value >>> shift) & 0x7F));
+            }
+            buffer.put((byte) value);
+            return;
+        }
+        // The first byte carries at least one set bit so the encoding cannot be shorter
+        value = (value & ((1L << (7 * length - 1)) - 1)) | (1L << (7 * length - 1));
+        for (int shift = 7 * (length - 1); shift > 0; shift -= 7) {
+            buffer.put((byte) (0x80 | (value >>> shift) & 0x7F));
+        }
+        buffer.put((byte) (value & 0x7F));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VARINTS)
+    public long readVarInt() {
+        return readPath.readVarInts(buffer, VARINTS);
+    }
+}
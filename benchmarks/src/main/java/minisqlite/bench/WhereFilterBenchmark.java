@@ -0,0 +1,60 @@
+package minisqlite.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Compiled WHERE clause evaluation over every row of one cached table leaf page per operation
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhereFilterBenchmark {
+    @Param({"employees > 50000", "country = 'france'", "revenue <= 1000.5", "name >= 'company-m'",
+            "year_founded >= 1950 AND industry = 'software'", "country = 'peru' OR employees < 1000"})
+    public String whereClause;
+
+    @Param({"1"})
+    public int sizeMb;
+
+    private ReadPath readPath;
+    private int[] leafPages;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        readPath = ReadPath.create();
+        readPath.open(BenchmarkDatabases.get(sizeMb), BenchmarkDatabases.TABLE);
+        readPath.compileWhereClause(whereClause);
+        leafPages = readPath.getLeafPages();
+        for (int page : leafPages) {
+            readPath.filterRecords(page);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        readPath.close();
+    }
+
+    @Benchmark
+    public int filter() throws IOException {
+        int page = leafPages[next];
+        next = next + 1 == leafPages.length ? 0 : next + 1;
+        return readPath.filterRecords(page);
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// One aggregate call from the select list, such as SUM(price) or COUNT(*)
+public class AggregateFunction {
+    private static final Pattern AGGREGATE_PATTERN = Pattern.compile("(?i)^(COUNT|SUM|AVG|MIN|MAX)\\s*\\(\\s*(\\*|[a-zA-Z0-9_]+)\\s*\\)$");
+
+    enum Kind {COUNT, SUM, AVG, MIN, MAX}
+
+    final Kind kind;
+    // Column name of the argument, or "*"
+    final String argument;
+    // Position of the argument in the table, resolved by the caller; -1 for COUNT(*)
+    int column = -1;
+
+    AggregateFunction(Kind kind, String argument) {
+        this.kind = kind;
+        this.argument = argument;
+    }
+
+    // Returns null when the select list item is not an aggregate call
+    static AggregateFunction parse(String selectItem) {
+        Matcher matcher = AGGREGATE_PATTERN.matcher(selectItem.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        Kind kind = Kind.valueOf(matcher.group(1).toUpperCase());
+        String argument = matcher.group(2);
+        if (argument.equals("*") && kind != Kind.COUNT) {
+            return null;  // Only COUNT takes *
+        }
+        return new AggregateFunction(kind, argument);
+    }
+
+    boolean hasArgument() {
+        return !argument.equals("*");
+    }
+}
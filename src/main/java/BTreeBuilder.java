@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Builds a table or index B-tree bottom-up from cells that arrive in key order
+public class BTreeBuilder {
+    private static final int LEAF_HEADER_SIZE = 8;
+    private static final int INTERIOR_HEADER_SIZE = 12;
+
+    private final DatabaseWriter writer;
+    private final boolean table;
+    private final int usableSize;
+    // Bytes of a page, header and cell pointers included, that may be filled before the next page is started
+    private final int fillLimit;
+    private final byte[] page;
+    private final byte[] overflowPage;
+    private byte[] cell = new byte[256];
+    private int cellCount;
+    // Cells are placed from the end of the page down; contentStart is the offset of the lowest one
+    private int contentStart;
+    private long lastRowid;
+    private boolean hasRows;
+    // separators.get(i) sits between children.get(i) and children.get(i + 1)
+    private final List<Integer> children = new ArrayList<>();
+    private final List<byte[]> separators = new ArrayList<>();
+    // Index entry that did not fit on the current leaf, which becomes the separator before the next one
+    private byte[] pendingSeparator;
+
+    // fillFactor is the fraction of each page to fill, from above 0 to 1
+    public BTreeBuilder(DatabaseWriter writer, boolean table, double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be above 0 and at most 1");
+        }
+        this.writer = writer;
+        this.table = table;
+        this.usableSize = writer.getUsableSize();
+        this.fillLimit = (int) (usableSize * fillFactor);
+        this.page = new byte[writer.getPageSize()];
+        this.overflowPage = new byte[writer.getPageSize()];
+        this.contentStart = usableSize;
+    }
+
+    // Adds a table row; rowids must increase from one row to the next
+    public void addRow(long rowid, byte[] record, int length) throws IOException {
+        if (hasRows && rowid <= lastRowid) {
+            throw new IllegalArgumentException("Rows must be sorted by rowid, but " + rowid + " follows " + lastRowid);
+        }
+        int cellSize = encodeCell(rowid, record, length);
+        if (!fitsOnLeaf(cellSize)) {
+            flushLeaf();
+            separators.add(encodeSeparator(lastRowid));
+        }
+        putCell(cell, cellSize);
+        lastRowid = rowid;
+        hasRows = true;
+    }
+
+    // Adds an index entry: a record of the key columns followed by the rowid, in index order
+    public void addEntry(byte[] record, int length) throws IOException {
+        int cellSize = encodeCell(0, record, length);
+        if (pendingSeparator != null) {
+            flushLeaf();
+            separators.add(pendingSeparator);
+            pendingSeparator = null;
+        } else if (!fitsOnLeaf(cellSize)) {
+            pendingSeparator = Arrays.copyOf(cell, cellSize);
+            return;
+        }
+        putCell(cell, cellSize);
+    }
+
+    // Writes the remaining pages and returns the root page number
+    public int finish() throws IOException {
+        if (pendingSeparator != null) {
+            if (LEAF_HEADER_SIZE + 2 * (cellCount + 1) + usableSize - contentStart + pendingSeparator.length <= usableSize) {
+                putCell(pendingSeparator, pendingSeparator.length);
+            } else {
+                // The last entry gets a leaf of its own, and the current leaf gives up its last entry as the separator
+                byte[] separator = removeLastCell();
+                flushLeaf();
+                separators.add(separator);
+                putCell(pendingSeparator, pendingSeparator.length);
+            }
+            pendingSeparator = null;
+        }
+        flushLeaf();
+        while (children.size() > 1) {
+            buildInteriorLevel();
+        }
+        return children.getFirst();
+    }
+
+    // Overflow pages of the record are written right away
+    private int encodeCell(long rowid, byte[] record, int length) throws IOException {
+        byte leafType = table ? BTreePage.LEAF_TABLE : BTreePage.LEAF_INDEX;
+        int localSize = BTreePage.getLocalPayloadSize(length, usableSize, leafType);
+        int maxCellSize = 18 + localSize + 4;
+        if (cell.length < maxCellSize) {
+            cell = new byte[Math.max(cell.length * 2, maxCellSize)];
+        }
+        int offset = VarInt.write(cell, 0, length);
+        if (table) {
+            offset += VarInt.write(cell, offset, rowid);
+        }
+        System.arraycopy(record, 0, cell, offset, localSize);
+        offset += localSize;
+        if (localSize < length) {
+            writeBigEndianInt(cell, offset, writeOverflowPages(record, localSize, length));
+            offset += 4;
+        }
+        return offset;
+    }
+
+    // Overflow pages are written one after the other, so each one points at the next page number
+    private int writeOverflowPages(byte[] record, int start, int length) throws IOException {
+        int firstPage = writer.getNextPageNumber();
+        int chunkSize = usableSize - 4;
+        for (int offset = start; offset < length; offset += chunkSize) {
+            int chunk = Math.min(chunkSize, length - offset);
+            Arrays.fill(overflowPage, (byte) 0);
+            writeBigEndianInt(overflowPage, 0, offset + chunk < length ? writer.getNextPageNumber() + 1 : 0);
+            System.arraycopy(record, offset, overflowPage, 4, chunk);
+            writer.writePage(overflowPage);
+        }
+        return firstPage;
+    }
+
+    private byte[] encodeSeparator(long rowid) {
+        byte[] separator = new byte[VarInt.getSize(rowid)];
+        VarInt.write(separator, 0, rowid);
+        return separator;
+    }
+
+    // A leaf always takes at least one cell
+    private boolean fitsOnLeaf(int cellSize) {
+        return cellCount == 0 || LEAF_HEADER_SIZE + 2 * (cellCount + 1) + usableSize - contentStart + cellSize <= fillLimit;
+    }
+
+    private void putCell(byte[] source, int cellSize) {
+        contentStart -= cellSize;
+        System.arraycopy(source, 0, page, contentStart, cellSize);
+        writeBigEndianShort(page, LEAF_HEADER_SIZE + 2 * cellCount, contentStart);
+        cellCount++;
+    }
+
+    // The last cell put on the page is the lowest one
+    private byte[] removeLastCell() {
+        int end = cellCount == 1 ? usableSize : readBigEndianShort(page, LEAF_HEADER_SIZE + 2 * (cellCount - 2));
+        byte[] removed = Arrays.copyOfRange(page, contentStart, end);
+        Arrays.fill(page, contentStart, end, (byte) 0);
+        contentStart = end;
+        cellCount--;
+        writeBigEndianShort(page, LEAF_HEADER_SIZE + 2 * cellCount, 0);
+        return removed;
+    }
+
+    private void flushLeaf() throws IOException {
+        page[0] = table ? BTreePage.LEAF_TABLE : BTreePage.LEAF_INDEX;
+        writePageHeader(cellCount);
+        children.add(writer.writePage(page));
+        Arrays.fill(page, (byte) 0);
+        cellCount = 0;
+        contentStart = usableSize;
+    }
+
+    private void writePageHeader(int cells) {
+        writeBigEndianShort(page, 3, cells);
+        writeBigEndianShort(page, 5, contentStart == 65536 ? 0 : contentStart);
+    }
+
+    // Packs the current level's children into interior pages; the separator between two pages moves up a level
+    private void buildInteriorLevel() throws IOException {
+        List<Integer> levelChildren = new ArrayList<>(children);
+        List<byte[]> levelSeparators = new ArrayList<>(separators);
+        children.clear();
+        separators.clear();
+
+        // Page p holds children starts[p] up to the next start; every page needs two, even past the fill limit
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        int used = INTERIOR_HEADER_SIZE;
+        for (int child = 1; child < levelChildren.size(); child++) {
+            int cellSize = 2 + 4 + levelSeparators.get(child - 1).length;
+            if (child - starts.getLast() >= 2 && used + cellSize > fillLimit) {
+                starts.add(child);
+                used = INTERIOR_HEADER_SIZE;
+            } else {
+                used += cellSize;
+            }
+        }
+        if (starts.size() > 1 && starts.getLast() == levelChildren.size() - 1) {
+            // A single child left for the last page: it takes one from the page before, or the two pages merge
+            int previousStart = starts.get(starts.size() - 2);
+            if (starts.getLast() - previousStart >= 3) {
+                starts.set(starts.size() - 1, starts.getLast() - 1);
+            } else {
+                starts.removeLast();
+            }
+        }
+
+        byte pageType = table ? BTreePage.INTERIOR_TABLE : BTreePage.INTERIOR_INDEX;
+        for (int p = 0; p < starts.size(); p++) {
+            int first = starts.get(p);
+            int last = p + 1 < starts.size() ? starts.get(p + 1) - 1 : levelChildren.size() - 1;
+            page[0] = pageType;
+            for (int child = first; child < last; child++) {
+                byte[] separator = levelSeparators.get(child);
+                contentStart -= 4 + separator.length;
+                writeBigEndianInt(page, contentStart, levelChildren.get(child));
+                System.arraycopy(separator, 0, page, contentStart + 4, separator.length);
+                writeBigEndianShort(page, INTERIOR_HEADER_SIZE + 2 * (child - first), contentStart);
+            }
+            writePageHeader(last - first);
+            writeBigEndianInt(page, 8, levelChildren.get(last));
+            if (p > 0) {
+                separators.add(levelSeparators.get(first - 1));
+            }
+            children.add(writer.writePage(page));
+            Arrays.fill(page, (byte) 0);
+            contentStart = usableSize;
+        }
+    }
+
+    private static void writeBigEndianShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    private static int readBigEndianShort(byte[] buffer, int offset) {
+        return (Byte.toUnsignedInt(buffer[offset]) << 8) | Byte.toUnsignedInt(buffer[offset + 1]);
+    }
+
+    private static void writeBigEndianInt(byte[] buffer, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntPredicate;
+
+// In-order cursor holding only the pages on the path from the root to the current entry
+public class BTreeCursor {
+    private final PageSource pageSource;
+    private final int rootPage;
+    // Bounds on the rowid for table trees and on the first key column for index trees; null visits every entry
+    private final KeyRange range;
+    private final QueryStats stats;
+    // 0 for bounded scans, which usually stop long before the pages read ahead
+    private final int readAhead;
+    // Passes the pages whose subtree may hold a wanted entry, from a zone map; null descends into every page
+    private final IntPredicate pageFilter;
+    private boolean index;
+    private int usableSize;
+
+    // Interior pages from the root down to the current leaf
+    private Frame[] stack = new Frame[8];
+    private int depth;
+    private boolean started;
+    private boolean finished;
+
+    // Current position
+    private ByteBuffer page;
+    private int headerOffset;
+    private byte pageType;
+    private int numberOfCells;
+    private int cellIndex;
+    private int cellOffset;
+    // The current entry's cell, decoded once by setCell
+    private long payloadSize;
+    private int recordOffset;
+    // Rowid of the current table row; for an index entry it is read from the record when asked for
+    private long rowid;
+
+    public BTreeCursor(PageSource pageSource, int rootPage, KeyRange range) {
+        this(pageSource, rootPage, range, null);
+    }
+
+    public BTreeCursor(PageSource pageSource, int rootPage, KeyRange range, IntPredicate pageFilter) {
+        this.pageSource = pageSource;
+        this.rootPage = rootPage;
+        this.range = range;
+        this.stats = pageSource.getStats();
+        this.readAhead = range == null || range.upperBound == null ? pageSource.getReadAhead() : 0;
+        this.pageFilter = pageFilter;
+    }
+
+    // Advances to the next entry in key order, returning false when no entries within the range remain
+    public boolean next() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            if (isSkipped(rootPage)) {
+                finished = true;
+                return false;
+            }
+            descend(rootPage);
+        }
+        while (true) {
+            if (page != null && cellIndex < numberOfCells) {
+                setCell(BTreePage.getCellPointer(page, headerOffset, pageType, cellIndex++));
+                visitCell();
+                return checkUpperBound();
+            }
+            page = null;
+            if (depth == 0) {
+                finished = true;
+                return false;
+            }
+            Frame frame = stack[depth - 1];
+            // Interior positions alternate: child 0, cell 0, child 1, cell 1, ..., right-most child
+            int position = frame.nextPosition++;
+            if (position > 2 * frame.numberOfCells) {
+                depth--;
+            } else if (position % 2 == 0) {
+                int child = position / 2;
+                int childPage = getChildPage(frame, child);
+                if (isSkipped(childPage)) {
+                    continue;
+                }
+                if (readAhead > 0 && frame.leafChildren) {
+                    prefetchChildren(frame, child);
+                }
+                descend(childPage);
+            } else {
+                int interiorCellOffset = BTreePage.getCellPointer(frame.page, frame.headerOffset, frame.pageType, position / 2);
+                if (index) {
+                    // Interior index cells are entries themselves
+                    page = frame.page;
+                    headerOffset = frame.headerOffset;
+                    pageType = frame.pageType;
+                    numberOfCells = 0;
+                    setCell(interiorCellOffset);
+                    visitCell();
+                    return checkUpperBound();
+                }
+                // A table key is the largest rowid of the child before it, so later children are past the range
+                if (isAtOrAboveUpperBound(readInteriorTableKey(frame.page, interiorCellOffset))) {
+                    finished = true;
+                    return false;
+                }
+            }
+        }
+    }
+
+    // Positions a table cursor on the row with the given rowid, returning false if there is none
+    public boolean moveToRowid(long rowid) throws IOException {
+        if (usableSize == 0) {
+            usableSize = pageSource.getUsableSize();
+        }
+        int pageNumber = rootPage;
+        while (true) {
+            ByteBuffer currentPage = pageSource.getPage(pageNumber);
+            int currentHeaderOffset = BTreePage.getHeaderOffset(pageNumber);
+            byte currentPageType = BTreePage.getPageType(currentPage, currentHeaderOffset);
+            int cells = BTreePage.getNumberOfCells(currentPage, currentHeaderOffset);
+            int low = 0;
+            int high = cells;
+            if (currentPageType == BTreePage.INTERIOR_TABLE) {
+                // Find the first child whose largest rowid is not below the one we look for
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    int offset = BTreePage.getCellPointer(currentPage, currentHeaderOffset, currentPageType, middle);
+                    visitCell();
+                    if (readInteriorTableKey(currentPage, offset) < rowid) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                pageNumber = low == cells
+                        ? BTreePage.getRightMostPointer(currentPage, currentHeaderOffset)
+                        : currentPage.getInt(BTreePage.getCellPointer(currentPage, currentHeaderOffset, currentPageType, low));
+            } else if (currentPageType == BTreePage.LEAF_TABLE) {
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    int offset = BTreePage.getCellPointer(currentPage, currentHeaderOffset, currentPageType, middle);
+                    visitCell();
+                    long cellRowid = readLeafTableRowid(currentPage, offset);
+                    if (cellRowid == rowid) {
+                        page = currentPage;
+                        headerOffset = currentHeaderOffset;
+                        pageType = currentPageType;
+                        setCell(offset);
+                        return true;
+                    } else if (cellRowid < rowid) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                return false;
+            } else {
+                throw new IOException("Page " + pageNumber + " is not a table B-tree page");
+            }
+        }
+    }
+
+    public ByteBuffer getPage() {
+        return page;
+    }
+
+    public int getCellOffset() {
+        return cellOffset;
+    }
+
+    // Offset of the record header of the current entry
+    public int getRecordOffset() {
+        return recordOffset;
+    }
+
+    // Size of the current entry's whole payload (its record), including any part on overflow pages
+    public long getPayloadSize() {
+        return payloadSize;
+    }
+
+    // Bytes of the payload stored on the current page, from getRecordOffset
+    public int getLocalPayloadSize() {
+        return BTreePage.getLocalPayloadSize(payloadSize, usableSize, pageType);
+    }
+
+    // First page of the current entry's overflow chain, or 0 when the whole payload is on the page
+    public int getFirstOverflowPage() {
+        int localSize = getLocalPayloadSize();
+        return localSize == payloadSize ? 0 : page.getInt(recordOffset + localSize);
+    }
+
+    public PageSource getPageSource() {
+        return pageSource;
+    }
+
+    public int getUsableSize() {
+        return usableSize;
+    }
+
+    // The rowid of the current row, or of the row an index entry points to
+    public long getRowid() throws IOException {
+        if (pageType == BTreePage.LEAF_TABLE) {
+            return rowid;
+        }
+        // The rowid is the last column of every index record
+        ByteBuffer record = readHeaderAndValues(page, pageType, cellOffset, recordOffset);
+        int start = record == page ? recordOffset : 0;
+        int headerEnd = start + (int) VarInt.read(record, start);
+        int offset = start + VarInt.getLength(record, start);
+        int valueOffset = headerEnd;
+        long serialType = 0;
+        while (offset < headerEnd) {
+            valueOffset += (int) SerialType.getSize(serialType);
+            serialType = VarInt.read(record, offset);
+            offset += VarInt.getLength(record, offset);
+        }
+        return SerialType.readInteger(record, valueOffset, serialType);
+    }
+
+    // Decodes the payload size, rowid and record start once per entry
+    private void setCell(int offset) {
+        cellOffset = offset;
+        int payloadSizeOffset = pageType == BTreePage.INTERIOR_INDEX ? offset + 4 : offset;  // Skip the left child pointer
+        payloadSize = VarInt.read(page, payloadSizeOffset);
+        recordOffset = payloadSizeOffset + VarInt.getLength(page, payloadSizeOffset);
+        if (pageType == BTreePage.LEAF_TABLE) {
+            rowid = VarInt.read(page, recordOffset);
+            recordOffset += VarInt.getLength(page, recordOffset);
+        }
+    }
+
+    // The page itself unless the record overflows, else a copy of the whole record
+    private ByteBuffer readHeaderAndValues(ByteBuffer keyPage, byte keyPageType, int keyCellOffset, int keyRecordOffset) throws IOException {
+        long keyPayloadSize = getPayloadSize(keyPage, keyPageType, keyCellOffset);
+        int localSize = BTreePage.getLocalPayloadSize(keyPayloadSize, usableSize, keyPageType);
+        if (localSize == keyPayloadSize) {
+            return keyPage;
+        }
+        int firstOverflowPage = keyPage.getInt(keyRecordOffset + localSize);
+        try (OverflowInputStream payload = new OverflowInputStream(pageSource, usableSize, keyPage, keyRecordOffset, localSize,
+                firstOverflowPage, 0, keyPayloadSize)) {
+            return ByteBuffer.wrap(payload.readNBytes((int) keyPayloadSize));
+        }
+    }
+
+    private static long getPayloadSize(ByteBuffer cellPage, byte cellPageType, int cellStart) {
+        return VarInt.read(cellPage, cellPageType == BTreePage.INTERIOR_INDEX ? cellStart + 4 : cellStart);
+    }
+
+    private void descend(int pageNumber) throws IOException {
+        if (usableSize == 0) {
+            usableSize = pageSource.getUsableSize();
+        }
+        ByteBuffer childPage = pageSource.getPage(pageNumber);
+        int childHeaderOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte childPageType = BTreePage.getPageType(childPage, childHeaderOffset);
+        int childNumberOfCells = BTreePage.getNumberOfCells(childPage, childHeaderOffset);
+        if (pageNumber == rootPage) {
+            index = childPageType == BTreePage.INTERIOR_INDEX || childPageType == BTreePage.LEAF_INDEX;
+        }
+        int firstCell = findFirstCellInRange(childPage, childHeaderOffset, childPageType, childNumberOfCells);
+        if (BTreePage.isInterior(childPageType)) {
+            if (depth == stack.length) {
+                Frame[] grown = new Frame[depth * 2];
+                System.arraycopy(stack, 0, grown, 0, depth);
+                stack = grown;
+            }
+            if (stack[depth] == null) {
+                stack[depth] = new Frame();
+            }
+            Frame frame = stack[depth++];
+            frame.page = childPage;
+            frame.headerOffset = childHeaderOffset;
+            frame.pageType = childPageType;
+            frame.numberOfCells = childNumberOfCells;
+            frame.nextPosition = 2 * firstCell;  // Children before the first in-range key cannot hold matches
+            frame.readAheadEnd = 0;
+            frame.leafChildren = false;
+        } else if (childPageType == BTreePage.LEAF_TABLE || childPageType == BTreePage.LEAF_INDEX) {
+            if (depth > 0) {
+                stack[depth - 1].leafChildren = true;
+            }
+            page = childPage;
+            headerOffset = childHeaderOffset;
+            pageType = childPageType;
+            numberOfCells = childNumberOfCells;
+            cellIndex = firstCell;
+        } else {
+            throw new IOException("Page " + pageNumber + " is not a B-tree page");
+        }
+    }
+
+    public QueryStats getStats() {
+        return stats;
+    }
+
+    private static int getChildPage(Frame frame, int child) {
+        return child == frame.numberOfCells
+                ? BTreePage.getRightMostPointer(frame.page, frame.headerOffset)
+                : frame.page.getInt(BTreePage.getCellPointer(frame.page, frame.headerOffset, frame.pageType, child));
+    }
+
+    // Keeps the readAhead children after the one being descended into loading while its subtree is scanned
+    private void prefetchChildren(Frame frame, int child) {
+        int end = Math.min(child + 1 + readAhead, frame.numberOfCells + 1);
+        for (int next = Math.max(frame.readAheadEnd, child + 1); next < end; next++) {
+            int childPage = getChildPage(frame, next);
+            if (pageFilter == null || pageFilter.test(childPage)) {
+                pageSource.prefetch(childPage);
+            }
+        }
+        frame.readAheadEnd = Math.max(frame.readAheadEnd, end);
+    }
+
+    // True when the page filter rules out the page's whole subtree, which is then never read
+    private boolean isSkipped(int pageNumber) {
+        if (pageFilter == null || pageFilter.test(pageNumber)) {
+            return false;
+        }
+        if (stats != null) {
+            stats.subtreesSkipped.increment();
+        }
+        return true;
+    }
+
+    // Counts each cell the cursor steps on or compares while searching
+    private void visitCell() {
+        if (stats != null) {
+            stats.cellsVisited.increment();
+        }
+    }
+
+    private boolean checkUpperBound() throws IOException {
+        if (range != null && range.upperBound != null && range.isAboveUpperBound(compareKey(page, pageType, cellOffset, range.upperBound))) {
+            finished = true;  // Entries are in key order, so nothing after this one can match either
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isAtOrAboveUpperBound(long rowid) {
+        return range != null && range.upperBound != null && SerialType.compareInteger(rowid, range.upperBound) >= 0;
+    }
+
+    // First cell not below the lower bound; without one, a range excluding NULL skips the NULL keys that sort first
+    private int findFirstCellInRange(ByteBuffer searchPage, int searchHeaderOffset, byte searchPageType, int cells) throws IOException {
+        boolean skipNulls = index && range != null && range.lowerBound == null && range.excludesNull;
+        if (range == null || (range.lowerBound == null && !skipNulls)) {
+            return 0;
+        }
+        int low = 0;
+        int high = cells;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int offset = BTreePage.getCellPointer(searchPage, searchHeaderOffset, searchPageType, middle);
+            visitCell();
+            // Compared with a null literal, a NULL key gives 0 and any other key a positive result
+            boolean below = skipNulls ? compareKey(searchPage, searchPageType, offset, null) == 0
+                    : range.isBelowLowerBound(compareKey(searchPage, searchPageType, offset, range.lowerBound));
+            if (below) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareKey(ByteBuffer keyPage, byte keyPageType, int keyCellOffset, Object literal) throws IOException {
+        return switch (keyPageType) {
+            case BTreePage.INTERIOR_TABLE -> SerialType.compareInteger(readInteriorTableKey(keyPage, keyCellOffset), literal);
+            case BTreePage.LEAF_TABLE -> SerialType.compareInteger(readLeafTableRowid(keyPage, keyCellOffset), literal);
+            default -> {
+                int payloadSizeOffset = keyPageType == BTreePage.INTERIOR_INDEX ? keyCellOffset + 4 : keyCellOffset;
+                int keyRecordOffset = payloadSizeOffset + VarInt.getLength(keyPage, payloadSizeOffset);
+                ByteBuffer record = readHeaderAndValues(keyPage, keyPageType, keyCellOffset, keyRecordOffset);
+                int start = record == keyPage ? keyRecordOffset : 0;
+                long serialType = VarInt.read(record, start + VarInt.getLength(record, start));
+                yield SerialType.compare(record, start + (int) VarInt.read(record, start), serialType, literal);
+            }
+        };
+    }
+
+    private static long readInteriorTableKey(ByteBuffer keyPage, int keyCellOffset) {
+        return VarInt.read(keyPage, keyCellOffset + 4);  // The key follows the 4-byte left child pointer
+    }
+
+    private static long readLeafTableRowid(ByteBuffer keyPage, int keyCellOffset) {
+        return VarInt.read(keyPage, keyCellOffset + VarInt.getLength(keyPage, keyCellOffset));
+    }
+
+    private static class Frame {
+        ByteBuffer page;
+        int headerOffset;
+        byte pageType;
+        int numberOfCells;
+        int nextPosition;
+        // Children before this one have been prefetched
+        int readAheadEnd;
+        // Only leaves are read ahead: an interior page read early would be evicted by the leaves before it
+        boolean leafChildren;
+    }
+}
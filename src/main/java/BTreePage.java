@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Helpers for decoding the B-tree page header, shared by the table and index traversals
+public final class BTreePage {
+    static final byte INTERIOR_INDEX = 0x02;
+    static final byte INTERIOR_TABLE = 0x05;
+    static final byte LEAF_INDEX = 0x0A;
+    static final byte LEAF_TABLE = 0x0D;
+    private static final int SQLITE_HEADER_SIZE = 100;
+
+    private BTreePage() {
+    }
+
+    static int getHeaderOffset(int pageNumber) {
+        return pageNumber == 1 ? SQLITE_HEADER_SIZE : 0;  // Page 1 starts with the SQLite header
+    }
+
+    static byte getPageType(ByteBuffer page, int headerOffset) {
+        return page.get(headerOffset);
+    }
+
+    static boolean isInterior(byte pageType) {
+        return pageType == INTERIOR_INDEX || pageType == INTERIOR_TABLE;
+    }
+
+    static int getNumberOfCells(ByteBuffer page, int headerOffset) {
+        return Short.toUnsignedInt(page.getShort(headerOffset + 3));
+    }
+
+    static int getRightMostPointer(ByteBuffer page, int headerOffset) {
+        return page.getInt(headerOffset + 8);
+    }
+
+    static int getCellPointer(ByteBuffer page, int headerOffset, byte pageType, int cellIndex) {
+        int cellPointerArrayOffset = headerOffset + (isInterior(pageType) ? 12 : 8);
+        return Short.toUnsignedInt(page.getShort(cellPointerArrayOffset + cellIndex * 2));
+    }
+
+    // Thresholds from https://www.sqlite.org/fileformat2.html#b_tree_pages
+    static int getLocalPayloadSize(long payloadSize, int usableSize, byte pageType) {
+        int maxLocal = pageType == LEAF_TABLE ? usableSize - 35 : (usableSize - 12) * 64 / 255 - 23;
+        if (payloadSize <= maxLocal) {
+            return (int) payloadSize;
+        }
+        int minLocal = (usableSize - 12) * 32 / 255 - 23;
+        int local = (int) (minLocal + (payloadSize - minLocal) % (usableSize - 4));
+        return local <= maxLocal ? local : minLocal;
+    }
+
+    static int[] getCellPointers(ByteBuffer page, int headerOffset, byte pageType, int numberOfCells) {
+        int[] cellPointers = new int[numberOfCells];
+        for (int i = 0; i < numberOfCells; i++) {
+            cellPointers[i] = getCellPointer(page, headerOffset, pageType, i);
+        }
+        return cellPointers;
+    }
+
+    // Counted from the interior pages alone: each page just above the leaves has cells + 1 of them
+    static long countLeafPages(PageSource cache, int rootPage) throws IOException {
+        return countLeafPages(cache, rootPage, getDepth(cache, rootPage) - 1);
+    }
+
+    // Levels of a B-tree, 1 when the root is a leaf, found by following the leftmost path down
+    static int getDepth(PageSource cache, int rootPage) throws IOException {
+        int depth = 1;
+        int pageNumber = rootPage;
+        while (true) {
+            ByteBuffer page = cache.getPage(pageNumber);
+            int headerOffset = getHeaderOffset(pageNumber);
+            byte pageType = getPageType(page, headerOffset);
+            if (!isInterior(pageType)) {
+                return depth;
+            }
+            depth++;
+            pageNumber = getNumberOfCells(page, headerOffset) == 0
+                    ? getRightMostPointer(page, headerOffset)
+                    : page.getInt(getCellPointer(page, headerOffset, pageType, 0));
+        }
+    }
+
+    private static long countLeafPages(PageSource cache, int pageNumber, int height) throws IOException {
+        if (height == 0) {
+            return 1;
+        }
+        ByteBuffer page = cache.getPage(pageNumber);
+        int headerOffset = getHeaderOffset(pageNumber);
+        byte pageType = getPageType(page, headerOffset);
+        int numberOfCells = getNumberOfCells(page, headerOffset);
+        if (height == 1) {
+            return numberOfCells + 1;
+        }
+        long leafPages = countLeafPages(cache, getRightMostPointer(page, headerOffset), height - 1);
+        for (int cellPointer : getCellPointers(page, headerOffset, pageType, numberOfCells)) {
+            leafPages += countLeafPages(cache, page.getInt(cellPointer), height - 1);
+        }
+        return leafPages;
+    }
+}
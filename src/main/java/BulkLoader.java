@@ -0,0 +1,189 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Writes a new database from a CSV or TSV file whose first line defines the columns and whose rows are in rowid order
+public class BulkLoader {
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("[+-]?\\d+");
+    private static final Pattern REAL_PATTERN = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+    private final long memoryBudget;
+    private final double fillFactor;
+    private final int pageSize;
+
+    public BulkLoader(long memoryBudget, double fillFactor, int pageSize) {
+        this.memoryBudget = memoryBudget;
+        this.fillFactor = fillFactor;
+        this.pageSize = pageSize;
+    }
+
+    // indexes lists the columns of each index to build; returns the number of rows loaded
+    public long load(Path databaseFile, String tableName, Path input, List<List<String>> indexes) throws IOException {
+        char delimiter = input.toString().toLowerCase().endsWith(".tsv") ? '\t' : ',';
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            List<String> header = readFields(reader, delimiter);
+            if (header == null) {
+                throw new IllegalArgumentException(input + " is empty");
+            }
+            String sql = "CREATE TABLE " + tableName + " (" + String.join(", ", header) + ")";
+            SchemaCatalog.TableInfo table = new SchemaCatalog.TableInfo(tableName, 0, sql);
+            String[] affinities = new String[table.columns.length];
+            for (int i = 0; i < affinities.length; i++) {
+                affinities[i] = SerialType.getAffinity(table.columnTypes[i]);
+            }
+            List<int[]> indexColumns = new ArrayList<>();
+            for (List<String> index : indexes) {
+                int[] ordinals = new int[index.size()];
+                for (int i = 0; i < ordinals.length; i++) {
+                    ordinals[i] = table.getOrdinal(index.get(i));
+                    if (ordinals[i] == -1) {
+                        throw new IllegalArgumentException("Column " + index.get(i) + " does not exist");
+                    }
+                }
+                indexColumns.add(ordinals);
+            }
+
+            try (DatabaseWriter writer = new DatabaseWriter(databaseFile, pageSize)) {
+                BTreeBuilder tableTree = new BTreeBuilder(writer, true, fillFactor);
+                List<Sorter> indexSorters = new ArrayList<>();
+                for (int[] ordinals : indexColumns) {
+                    // Entries sort on every key column and then the rowid, all ascending
+                    indexSorters.add(new Sorter(new boolean[ordinals.length + 1], Long.MAX_VALUE, memoryBudget));
+                }
+
+                RecordEncoder record = new RecordEncoder();
+                RowBuffer entry = new RowBuffer();
+                Object[] values = new Object[table.columns.length];
+                long rows = 0;
+                long rowid = 0;
+                List<String> fields;
+                while ((fields = readFields(reader, delimiter)) != null) {
+                    if (fields.size() != values.length) {
+                        throw new IllegalArgumentException("Row " + (rows + 1) + " has " + fields.size() + " fields, expected " + values.length);
+                    }
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = applyAffinity(fields.get(i), affinities[i]);
+                    }
+                    if (table.rowidColumn == -1) {
+                        rowid++;
+                    } else if (values[table.rowidColumn] instanceof Long key) {
+                        rowid = key;
+                        // The rowid alias is stored as NULL in the record
+                        values[table.rowidColumn] = null;
+                    } else {
+                        throw new IllegalArgumentException("Row " + (rows + 1) + " has a non-integer " + table.primaryKey);
+                    }
+                    tableTree.addRow(rowid, record.encode(values).bytes, record.length);
+                    for (int index = 0; index < indexSorters.size(); index++) {
+                        entry.clear();
+                        for (int column : indexColumns.get(index)) {
+                            entry.putValue(column == table.rowidColumn ? Long.valueOf(rowid) : values[column]);
+                        }
+                        entry.putValue(rowid);
+                        indexSorters.get(index).add(entry);
+                    }
+                    rows++;
+                }
+                writer.addSchemaEntry("table", tableName, tableName, tableTree.finish(), sql);
+
+                for (int index = 0; index < indexSorters.size(); index++) {
+                    List<String> columns = indexes.get(index);
+                    String indexName = "idx_" + tableName + "_" + String.join("_", columns);
+                    writer.addSchemaEntry("index", indexName, tableName, buildIndex(writer, indexSorters.get(index), columns.size() + 1),
+                            "CREATE INDEX " + indexName + " ON " + tableName + " (" + String.join(", ", columns) + ")");
+                }
+                return rows;
+            }
+        }
+    }
+
+    private int buildIndex(DatabaseWriter writer, Sorter sorter, int valuesPerEntry) throws IOException {
+        BTreeBuilder indexTree = new BTreeBuilder(writer, false, fillFactor);
+        RecordEncoder record = new RecordEncoder();
+        Object[] values = new Object[valuesPerEntry];
+        sorter.finish(entry -> {
+            int offset = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = RowBuffer.decode(entry, offset);
+                offset += RowBuffer.getEncodedLength(entry, offset);
+            }
+            indexTree.addEntry(record.encode(values).bytes, record.length);
+        });
+        return indexTree.finish();
+    }
+
+    // Like the sqlite3 shell's .import, an empty field is an empty string, never NULL
+    static Object applyAffinity(String value, String affinity) {
+        boolean numericAffinity = affinity.equals("INTEGER") || affinity.equals("REAL") || affinity.equals("NUMERIC");
+        String trimmed = value.trim();
+        if (numericAffinity && INTEGER_PATTERN.matcher(trimmed).matches()) {
+            try {
+                long integer = Long.parseLong(trimmed);
+                return affinity.equals("REAL") ? (Object) (double) integer : (Object) integer;
+            } catch (NumberFormatException e) {
+                // Too large for an integer, stored as a REAL below
+            }
+        }
+        if (numericAffinity && REAL_PATTERN.matcher(trimmed).matches()) {
+            double real = Double.parseDouble(trimmed);
+            // INTEGER and NUMERIC keep a REAL with no fractional part as an integer
+            if (!affinity.equals("REAL") && real == Math.rint(real) && Math.abs(real) < 0x1p63) {
+                return (long) real;
+            }
+            return real;
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Null at the end of the input; a quoted field may hold the delimiter, line breaks and ""
+    static List<String> readFields(BufferedReader reader, char delimiter) throws IOException {
+        int c = reader.read();
+        while (c == '\r' || c == '\n') {
+            c = reader.read();  // Blank lines are skipped
+        }
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("Unterminated quoted field");
+                }
+                if (c == '"') {
+                    c = reader.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r' || c == -1) {
+                fields.add(field.toString());
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') {
+                        reader.reset();
+                    }
+                }
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+}
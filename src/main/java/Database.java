@@ -1,441 +1,397 @@
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-public class Database {
-    private static final int SQLITE_HEADER_SIZE = 100;
-    private VarInt ROWID = new VarInt(0, 0);
-
-    public static int byteArrayToInt(byte[] bytes) {
-        if (bytes.length > 4) {
-            throw new IllegalArgumentException("Byte array too long to convert to int");
-        }
-        byte[] paddedBytes = new byte[4];
-        System.arraycopy(bytes, 0, paddedBytes, 4 - bytes.length, bytes.length);
-        ByteBuffer buffer = ByteBuffer.wrap(paddedBytes);
-        return buffer.getInt();
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Safe for concurrent statements: settings, session and catalog are immutable values swapped whole
+public class Database implements AutoCloseable {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    public static final int PLAN_CACHE_CAPACITY = 256;
+    private static final Object[] NO_PARAMETERS = {};
+    private static final Pattern ANALYZE_PATTERN = Pattern.compile("^\\s*ANALYZE(?:\\s+([a-zA-Z0-9_]+))?\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EXPLAIN_ANALYZE_PATTERN = Pattern.compile("^\\s*EXPLAIN\\s+ANALYZE\\s+", Pattern.CASE_INSENSITIVE);
+
+    private final PageSourceType pageSourceType;
+    private final int pageCacheCapacity;
+    private volatile int parallelism = 1;
+    private volatile boolean preserveOrder = true;
+    private volatile long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private volatile int readAhead;
+    private volatile CachedCatalog catalog;
+    // File kept open between statements by openSession, or null
+    private volatile Session session;
+    private volatile ResultFormat resultFormat = ResultFormat.LIST;
+    private volatile boolean showStats;
+    // Sinks of finished queries, kept with their buffers for the next ones
+    private final Queue<ResultSink> idleSinks = new ConcurrentLinkedQueue<>();
+    // Workers of the parallel scans of all statements, started by the first one, or null
+    private ForkJoinPool scanPool;
+    // Parsed statements by normalised SQL text
+    private final StripedLruCache<String, PreparedQuery> planCache = new StripedLruCache<>(PLAN_CACHE_CAPACITY);
+
+    // An open file with the page source over it and the change counter its cached pages belong to
+    private record Session(String path, RandomAccessFile file, PageSource pageSource, int changeCounter) {
+    }
+
+    // Null until ANALYZE or .zonemap has run on the file as it is now
+    private record CachedCatalog(String path, SchemaCatalog schema, Statistics statistics, ZoneMap zoneMap) {
+    }
+
+    public Database() {
+        this(PageSourceType.CACHED, PageCache.DEFAULT_CAPACITY);
+    }
+
+    public Database(PageSourceType pageSourceType, int pageCacheCapacity) {
+        this.pageSourceType = pageSourceType;
+        this.pageCacheCapacity = pageCacheCapacity;
     }
 
     public void printError(String message) {
         System.out.println("Error: " + message);
     }
 
-    private int[] getCellPointers(int numberOfCells, RandomAccessFile dbFile) throws IOException {
-        int[] cellPointers = new int[numberOfCells];
-        for (int i = 0; i < numberOfCells; i++) {
-            cellPointers[i] = Short.toUnsignedInt(dbFile.readShort());
+    // Positional reads leave the channel position alone, so threads sharing the file need no lock to read its header
+    private static ByteBuffer readHeader(FileChannel channel, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file in the database header");
+            }
         }
-        return cellPointers;
+        return buffer.flip();
     }
 
-    private boolean isInteriorTable(byte bTreePageType) {
-        return bTreePageType == 0x05;
+    private int readPageSize(FileChannel channel) throws IOException {
+        int pageSize = Short.toUnsignedInt(readHeader(channel, 16, 2).getShort());
+        return pageSize == 1 ? 65536 : pageSize;  // A stored value of 1 means 65536
     }
 
-    private boolean isLeafTable(byte bTreePageType) {
-        return bTreePageType == 0x0D;
+    private int readChangeCounter(FileChannel channel) throws IOException {
+        return readHeader(channel, 24, 4).getInt();
     }
 
-    private int readPageSize(RandomAccessFile dbFile) throws IOException {
-        dbFile.seek(16);
-        return Short.toUnsignedInt(dbFile.readShort());
+    private PageSource openPageSource(RandomAccessFile dbFile) throws IOException {
+        int pageSize = readPageSize(dbFile.getChannel());
+        return switch (pageSourceType) {
+            case CACHED -> new PageCache(dbFile.getChannel(), pageSize, pageCacheCapacity, readAhead);
+            case MAPPED -> new MappedPageSource(dbFile.getChannel(), pageSize);
+        };
     }
 
-    public void getDbInfo(String databaseFilePath) {
-        try (RandomAccessFile dbFile = new RandomAccessFile(databaseFilePath, "r")) {
-            int pageSize = readPageSize(dbFile);
-            System.out.println("database page size: " + pageSize);
-            int numberOfTables = getNumberOfTables(dbFile, pageSize, 1);
-            System.out.println("number of tables: " + numberOfTables);
-        } catch (IOException e) {
-            printError("Error reading file: " + e.getMessage());
-        }
+    // The session's page source, or null when no session is open
+    public PageSource getPageSource() {
+        Session current = session;
+        return current == null ? null : current.pageSource();
     }
 
-    private byte getBTreePageType(RandomAccessFile dbFile, int pageSize, int pageNumber) throws IOException {
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-        dbFile.seek(startOfPage);
-        if (pageNumber == 1) {
-            dbFile.skipBytes(SQLITE_HEADER_SIZE);  // Skip SQLite header
+    // Parallel scans still running on the old workers fail with a read error
+    public synchronized void setParallelism(int parallelism, boolean preserveOrder) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        if (parallelism != this.parallelism) {
+            shutdownScanPool();
         }
-        return dbFile.readByte();
+        this.parallelism = parallelism;
+        this.preserveOrder = preserveOrder;
     }
 
-    private int getNumberOfCells(RandomAccessFile dbFile) throws IOException {
-        dbFile.skipBytes(2);
-        int numberOfCells = Short.toUnsignedInt(dbFile.readShort());
-        dbFile.skipBytes(3);
-        return numberOfCells;
+    synchronized ForkJoinPool getScanPool() {
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(parallelism);
+        }
+        return scanPool;
     }
 
-    private int getNumberOfTables(RandomAccessFile dbFile, int pageSize, int pageNumber) throws IOException {
-        long originalPosition = dbFile.getFilePointer();
-        byte bTreePageType = getBTreePageType(dbFile, pageSize, pageNumber);
-        int numberOfCells = getNumberOfCells(dbFile);
-        int totalTables = 0;
-        if (isInteriorTable(bTreePageType)) {
-            totalTables += handleInteriorTable(dbFile, pageSize, pageNumber, numberOfCells);
-        } else if (isLeafTable(bTreePageType)) {
-            totalTables += numberOfCells;
-        }
-        dbFile.seek(originalPosition);
-        return totalTables;
-    }
-
-    private int handleInteriorTable(RandomAccessFile dbFile, int pageSize, int pageNumber, int numberOfCells) throws IOException {
-        int totalTables = 0;
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-        int rightMostPointer = dbFile.readInt();
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
-        for (int i = 0; i < numberOfCells; i++) {
-            dbFile.seek(startOfPage + cellPointers[i]);
-            int childPageNumber = dbFile.readInt();
-            totalTables += getNumberOfTables(dbFile, pageSize, childPageNumber);
-            VarInt.readVarInt(dbFile); // Skipping the VarInt after processing child page
+    private void shutdownScanPool() {
+        if (scanPool != null) {
+            scanPool.shutdown();
+            scanPool = null;
         }
-        totalTables += getNumberOfTables(dbFile, pageSize, rightMostPointer);
-        return totalTables;
     }
 
-    public void printTablesNames(String dbFilePath) {
-        try (RandomAccessFile dbFile = new RandomAccessFile(dbFilePath, "r")) {
-            int pageSize = readPageSize(dbFile);
-            StringBuilder tableNames = new StringBuilder();
-            printTableNames(dbFile, pageSize, 1, tableNames);
-            System.out.print("Table names: " + tableNames);
-        } catch (IOException e) {
-            printError("Error reading file: " + e.getMessage());
+    // Bytes that GROUP BY, ORDER BY and a hash join build side may hold in memory before they spill to temp files
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("Memory budget must be at least 1 byte");
         }
+        this.memoryBudget = memoryBudget;
     }
 
-    private void handleInteriorTableNames(RandomAccessFile dbFile, int pageSize, int numberOfCells, StringBuilder tableNames, int pageNumber) throws IOException {
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-        int rightMostPointer = dbFile.readInt();
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
-        for (int i = 0; i < numberOfCells; i++) {
-            dbFile.seek(startOfPage + cellPointers[i]);
-            int childPageNumber = dbFile.readInt();
-            printTableNames(dbFile, pageSize, childPageNumber, tableNames);
-            VarInt.readVarInt(dbFile); // Skipping the VarInt after processing child page
-        }
-        printTableNames(dbFile, pageSize, rightMostPointer, tableNames);
-    }
-
-    private void handleLeafTableNames(RandomAccessFile dbFile, int pageSize, int numberOfCells, StringBuilder tableNames, int pageNumber) throws IOException {
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-        for (int i = 0; i < numberOfCells; i++) {
-            long seekValue = startOfPage + cellPointers[i];
-            dbFile.seek(seekValue);
-            Map<String, byte[]> cellData = getCellData(dbFile);
-            String tableName = new String(cellData.get("tbl_name"), StandardCharsets.UTF_8);
-            tableNames.append(tableName).append(" ");
+    // Applies to page sources opened after the call; memory-mapped files are left to the operating system
+    public void setReadAhead(int readAhead) {
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("Read-ahead must not be negative");
         }
+        this.readAhead = readAhead;
     }
 
-    private Map<String, byte[]> getCellData(RandomAccessFile dbFile) throws IOException {
-        List<VarInt> serialTypes = getSerialTypes(dbFile);
-        List<byte[]> values = getSerializedValues(dbFile, serialTypes, dbFile.getFilePointer());
-        Map<String, byte[]> cellData = new HashMap<>();
-        cellData.put("type", values.get(0));
-        cellData.put("name", values.get(1));
-        cellData.put("tbl_name", values.get(2));
-        cellData.put("rootPage", values.get(3));
-        cellData.put("sql", values.get(4));
-        return cellData;
-    }
-
-    private List<VarInt> getSerialTypes(RandomAccessFile dbFile) throws IOException {
-        VarInt recordSize = VarInt.readVarInt(dbFile);
-        ROWID = VarInt.readVarInt(dbFile);
-        VarInt totalHeaderSize = VarInt.readVarInt(dbFile);
-        List<VarInt> serialTypes = new ArrayList<>();
-        long headerEnd = dbFile.getFilePointer() + totalHeaderSize.value;
-        long dbFilePointer = dbFile.getFilePointer();
-        while (dbFilePointer < headerEnd) {
-            serialTypes.add(VarInt.readVarInt(dbFile));
-            dbFilePointer = dbFile.getFilePointer();
-        }
-        return serialTypes;
+    public void setResultFormat(ResultFormat resultFormat) {
+        this.resultFormat = resultFormat;
     }
 
-    private List<byte[]> getSerializedValues(RandomAccessFile dbFile, List<VarInt> serialTypes, long headerEnd) throws IOException {
-        List<byte[]> values = new ArrayList<>();
-        dbFile.seek(headerEnd - 1);
-        for (VarInt serialType : serialTypes) {
-            long size = getSerialTypeSize(serialType.value);
-            byte[] value = new byte[(int) size];
-            dbFile.read(value);
-            values.add(value);
-        }
-        return values;
+    // Prints the statistics of each query after its rows, like EXPLAIN ANALYZE does in place of them
+    public void setShowStats(boolean showStats) {
+        this.showStats = showStats;
     }
 
-    private void printTableNames(RandomAccessFile dbFile, int pageSize, int pageNumber, StringBuilder tableNames) {
+    // Keeps the file, its pages and its schema catalog open across statements until close is called
+    public synchronized void openSession(String databaseFilePath) throws IOException {
+        closeSession();
+        RandomAccessFile dbFile = new RandomAccessFile(databaseFilePath, "r");
         try {
-            long originalPosition = dbFile.getFilePointer();
-            byte bTreePageType = getBTreePageType(dbFile, pageSize, pageNumber);
-            int numberOfCells = getNumberOfCells(dbFile);
-            if (isInteriorTable(bTreePageType)) {
-                handleInteriorTableNames(dbFile, pageSize, numberOfCells, tableNames, pageNumber);
-            } else if (isLeafTable(bTreePageType)) {
-                handleLeafTableNames(dbFile, pageSize, numberOfCells, tableNames, pageNumber);
-            }
-            dbFile.seek(originalPosition);
+            int changeCounter = readChangeCounter(dbFile.getChannel());
+            session = new Session(databaseFilePath, dbFile, openPageSource(dbFile), changeCounter);
         } catch (IOException e) {
-            printError("Error reading file: " + e.getMessage());
+            dbFile.close();
+            throw e;
         }
     }
 
-    private long getSerialTypeSize(long serialTypeCode) {
-        if (serialTypeCode >= 0 && serialTypeCode <= 4) {
-            return serialTypeCode;
-        } else if (serialTypeCode == 5) {
-            return 6;
-        } else if (serialTypeCode == 6 || serialTypeCode == 7) {
-            return 8;
-        } else if (serialTypeCode >= 13 && serialTypeCode % 2 == 1) {
-            return (serialTypeCode - 13) / 2;  // Text type size
-        } else if (serialTypeCode >= 12) {
-            return (serialTypeCode - 12) / 2;  // Blob type size
-        } else {
-            return 0;
-        }
+    // Statements still running on the session or a parallel scan fail with a read error
+    @Override
+    public synchronized void close() throws IOException {
+        shutdownScanPool();
+        closeSession();
     }
 
-
-    public void executeQuery(String databaseFilePath, String command) {
-        String[] commandParts = command.split(" ");
-        if (!commandParts[0].equalsIgnoreCase("SELECT")) {
-            printError("Invalid command");
-            return;
+    private void closeSession() throws IOException {
+        Session current = session;
+        if (current != null) {
+            session = null;
+            current.file().close();
         }
+    }
 
-        int fromIndex = -1;
-        for (int i = 0; i < commandParts.length; i++) {
-            if (commandParts[i].trim().equalsIgnoreCase("FROM")) {
-                fromIndex = i;
-            }
-        }
-        if (fromIndex == -1 || fromIndex == commandParts.length - 1) {
-            printError("Invalid command");
-            return;
-        }
-        String tableName = commandParts[fromIndex + 1];
-        try (RandomAccessFile dbFile = new RandomAccessFile(databaseFilePath, "r")) {
-            int pageSize = readPageSize(dbFile);
-            Map<String, byte[]> tableInfoOfRootPage = findTableRootPage(dbFile, pageSize, tableName, 1);
-            if (tableInfoOfRootPage.isEmpty()) {
-                printError("Table " + tableName + " does not exist");
+    // Uses the session's page source when the path matches it, else a file opened just for this statement
+    private void runStatement(String databaseFilePath, Statement statement) {
+        try {
+            Session current = session;
+            if (current != null && databaseFilePath.equals(current.path())) {
+                statement.run(getSessionPageSource(current));
                 return;
             }
-            SQLQueryParser parser = new SQLQueryParser();
-            parser.parse(command);
-            parser.parseTableColumns(tableInfoOfRootPage);
-            parseColumnsOfCommand(dbFile, pageSize, tableInfoOfRootPage, parser);
+            try (RandomAccessFile dbFile = new RandomAccessFile(databaseFilePath, "r")) {
+                statement.run(openPageSource(dbFile));
+            }
         } catch (IOException e) {
             printError("Error reading file: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            printError("Error reading file: " + e.getCause().getMessage());
+        } catch (IllegalArgumentException e) {
+            printError(e.getMessage());
+        } catch (RuntimeException e) {
+            // A statement that hits a bug fails alone; the session and other statements carry on
+            printError("Statement failed: " + e);
         }
     }
 
-    private boolean isColumnsExist(List<String> columns, String[] tableColumnsArray) {
-        int[] columnsIndex = new int[columns.size()];
-        for (int j = 0; j < columns.size(); j++) {
-            columnsIndex[j] = getTableColumnIndex(columns.get(j), tableColumnsArray);
-            if (columnsIndex[j] == -1) {
-                printError("Column " + columns.get(j) + " does not exist");
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private void parseColumnsOfCommand(RandomAccessFile dbFile, int pageSize, Map<String, byte[]> tableInfoOfRootPage, SQLQueryParser parser) throws IOException {
-        List<String> columns = parser.columns;
-        String[] tableColumnsArray = parser.tableColumns;
-        int rootPage = byteArrayToInt(tableInfoOfRootPage.get("rootPage"));
-        List<Map<String, byte[]>> rows = getRows(dbFile, pageSize, rootPage, tableColumnsArray, parser);
-        // Handle COUNT(*) separately
-        if (columns.size() == 1 && columns.getFirst().equalsIgnoreCase("COUNT(*)")) {
-            System.out.println(rows.size());
-            return;
-        }
-
-        if (!isColumnsExist(columns, tableColumnsArray)) {
-            return;
+    // A new change counter replaces the session; running queries keep the page source they started with
+    private PageSource getSessionPageSource(Session current) throws IOException {
+        int changeCounter = readChangeCounter(current.file().getChannel());
+        if (changeCounter == current.changeCounter()) {
+            return current.pageSource();
         }
-        whereClauseFilter(parser.whereClause, tableColumnsArray, rows);
-        for (Map<String, byte[]> row : rows) {
-            for (int i = 0; i < columns.size(); i++) {
-                byte[] value = row.get(columns.get(i));
-                System.out.print(new String(value, StandardCharsets.UTF_8));
-                if (i != columns.size() - 1) {
-                    System.out.print("|");
-                }
+        synchronized (this) {
+            Session latest = session;
+            boolean sameFile = latest != null && latest.file() == current.file();
+            if (sameFile && latest.changeCounter() == changeCounter) {
+                return latest.pageSource();
+            }
+            Session reopened = new Session(current.path(), current.file(), openPageSource(current.file()), changeCounter);
+            if (sameFile) {
+                session = reopened;
             }
-            System.out.println();
+            return reopened.pageSource();
         }
     }
 
-    private void whereClauseFilter(String whereClause, String[] tableColumnsArray, List<Map<String, byte[]>> rows) {
-        if (whereClause == null || whereClause.isEmpty()) {
-            return;
-        }
-        WhereFilter filter = new WhereFilter();
-        filter.filter(whereClause, tableColumnsArray, rows);
+    @FunctionalInterface
+    private interface Statement {
+        void run(PageSource cache) throws IOException;
     }
 
-    private List<Map<String, byte[]>> getRows(RandomAccessFile dbFile, int pageSize, int rootPage, String[] tableColumnsArray, SQLQueryParser parser) throws IOException {
-        List<Map<String, byte[]>> rows = new ArrayList<>();
-        long originalPosition = dbFile.getFilePointer();
-
-        // Read the B-tree page type
-        byte bTreePageType = getBTreePageType(dbFile, pageSize, rootPage);
-        int numberOfCells = getNumberOfCells(dbFile);
-
-        // Check if this is an interior table or a leaf table
-        if (isInteriorTable(bTreePageType)) {
-            // Process interior page
-            rows.addAll(handleInteriorPage(dbFile, pageSize, numberOfCells, tableColumnsArray, rootPage, parser));
-        } else if (isLeafTable(bTreePageType)) {
-            // Process leaf page
-            rows.addAll(handleLeafPage(dbFile, pageSize, numberOfCells, tableColumnsArray, rootPage, parser));
+    // Reused until the file's change counter moves; two threads may both reload it, and either result is current
+    private CachedCatalog getCatalog(PageSource cache, String databaseFilePath) throws IOException {
+        CachedCatalog cached = catalog;
+        if (cached == null || !databaseFilePath.equals(cached.path()) || !cached.schema().isCurrent(cache)) {
+            SchemaCatalog schema = SchemaCatalog.load(cache);
+            cached = new CachedCatalog(databaseFilePath, schema, Statistics.load(databaseFilePath, schema.getChangeCounter()),
+                    ZoneMap.load(databaseFilePath, schema.getChangeCounter()));
+            catalog = cached;
         }
-
-        dbFile.seek(originalPosition);
-        return rows;
+        return cached;
     }
 
-    // Method to handle leaf pages (existing logic for extracting rows)
-    private List<Map<String, byte[]>> handleLeafPage(RandomAccessFile dbFile, int pageSize, int numberOfCells, String[] tableColumnsArray, int rootPage, SQLQueryParser parser) throws IOException {
-        List<Map<String, byte[]>> rows = new ArrayList<>();
-        long startOfPage = (long) (rootPage - 1) * pageSize;
+    public void getDbInfo(String databaseFilePath) {
+        runStatement(databaseFilePath, cache -> {
+            System.out.println("database page size: " + cache.getPageSize());
+            int numberOfTables = getCatalog(cache, databaseFilePath).schema().getNumberOfEntries();
+            System.out.println("number of tables: " + numberOfTables);
+        });
+    }
 
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
-        for (int i = 0; i < numberOfCells; i++) {
-            long seekValue = startOfPage + cellPointers[i];
-            dbFile.seek(seekValue);
-            Map<String, byte[]> rowData = new HashMap<>();
-            List<VarInt> serialTypes = getSerialTypes(dbFile);
-            List<byte[]> values = getSerializedValues(dbFile, serialTypes, dbFile.getFilePointer());
-            for (int j = 0; j < tableColumnsArray.length; j++) {
-                rowData.put(tableColumnsArray[j], values.get(j));
+    public void printTablesNames(String dbFilePath) {
+        runStatement(dbFilePath, cache -> {
+            StringBuilder tableNames = new StringBuilder();
+            for (String tableName : getCatalog(cache, dbFilePath).schema().getEntryTableNames()) {
+                tableNames.append(tableName).append(" ");
             }
-            //convert the Row ID into array of bytes
-            String rowID = String.valueOf(ROWID.value);
-            byte[] bytes = rowID.getBytes();
-            rowData.put(parser.primaryKey, bytes);
-            rows.add(rowData);
-        }
-
-        return rows;
+            System.out.print("Table names: " + tableNames);
+        });
+    }
+
+    // For one table or all of them, saved next to the database file
+    public void analyze(String databaseFilePath, String tableName) {
+        runStatement(databaseFilePath, cache -> {
+            CachedCatalog cached = getCatalog(cache, databaseFilePath);
+            List<SchemaCatalog.TableInfo> tables;
+            if (tableName == null) {
+                tables = new ArrayList<>(cached.schema().getTables());
+            } else {
+                SchemaCatalog.TableInfo table = cached.schema().getTable(tableName);
+                if (table == null) {
+                    printError("Table " + tableName + " does not exist");
+                    return;
+                }
+                tables = List.of(table);
+            }
+            Statistics statistics = Statistics.analyze(cache, tables, cached.statistics());
+            catalog = new CachedCatalog(databaseFilePath, cached.schema(), statistics, cached.zoneMap());
+            try {
+                statistics.save(databaseFilePath);
+            } catch (IOException e) {
+                printError("Error writing statistics: " + e.getMessage());
+            }
+        });
     }
 
-    // Method to handle interior pages (new logic to recursively handle child pages)
-    private List<Map<String, byte[]>> handleInteriorPage(RandomAccessFile dbFile, int pageSize, int numberOfCells, String[] tableColumnsArray, int pageNumber, SQLQueryParser parser) throws IOException {
-        List<Map<String, byte[]>> rows = new ArrayList<>();
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-
-        // Read the right-most pointer
-        int rightMostPointer = dbFile.readInt();
+    // Over the named columns, or all of them, replacing any zone map the table had before
+    public void buildZoneMap(String databaseFilePath, String tableName, List<String> columnNames) {
+        runStatement(databaseFilePath, cache -> {
+            CachedCatalog cached = getCatalog(cache, databaseFilePath);
+            SchemaCatalog.TableInfo table = cached.schema().getTable(tableName);
+            if (table == null) {
+                printError("Table " + tableName + " does not exist");
+                return;
+            }
+            int[] columns = new int[columnNames.isEmpty() ? table.columns.length : columnNames.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = columnNames.isEmpty() ? i : table.getOrdinal(columnNames.get(i));
+                if (columns[i] == -1) {
+                    printError("Column " + columnNames.get(i) + " does not exist in table " + tableName);
+                    return;
+                }
+            }
+            ZoneMap zoneMap = ZoneMap.build(cache, table, columns, cached.zoneMap());
+            catalog = new CachedCatalog(databaseFilePath, cached.schema(), cached.statistics(), zoneMap);
+            try {
+                zoneMap.save(databaseFilePath);
+            } catch (IOException e) {
+                printError("Error writing zone map: " + e.getMessage());
+            }
+        });
+    }
 
-        // Read cell pointers
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
+    static String toUtf8String(ByteBuffer value) {
+        return StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+    }
 
-        // Recursively process child pages
-        for (int i = 0; i < numberOfCells; i++) {
-            dbFile.seek(startOfPage + cellPointers[i]);
-            int childPageNumber = dbFile.readInt();
-            rows.addAll(getRows(dbFile, pageSize, childPageNumber, tableColumnsArray, parser));  // Recursively retrieve rows from child pages
-            VarInt.readVarInt(dbFile);  // Skipping the VarInt after processing child page
+    // The table and columns are only looked up when the statement runs
+    public PreparedQuery prepare(String sql) {
+        String normalized = PreparedQuery.normalize(sql);
+        PreparedQuery query = planCache.get(normalized);
+        if (query == null) {
+            SQLQueryParser parser = new SQLQueryParser();
+            if (!parser.parse(normalized)) {
+                throw new IllegalArgumentException("Invalid command");
+            }
+            query = planCache.putIfAbsent(normalized, new PreparedQuery(normalized, parser));
         }
-
-        // Process the right-most child page
-        rows.addAll(getRows(dbFile, pageSize, rightMostPointer, tableColumnsArray, parser));
-
-        return rows;
+        return query;
     }
 
+    // Runs a prepared statement with one Long, Integer, Double or String per placeholder, in the order they appear
+    public void execute(String databaseFilePath, PreparedQuery query, Object... parameters) {
+        runQuery(databaseFilePath, query.sql, query.parser.bind(parameters), false, null);
+    }
 
-    private int getTableColumnIndex(String column, String[] columnsArray) {
-        for (int i = 0; i < columnsArray.length; i++) {
-            if (columnsArray[i].trim().equalsIgnoreCase(column)) {
-                return i;
-            }
-        }
-        return -1;
+    // Like execute, with the rows written to out instead of standard output, so concurrent callers each get their own
+    public void executeTo(OutputStream out, String databaseFilePath, PreparedQuery query, Object... parameters) {
+        runQuery(databaseFilePath, query.sql, query.parser.bind(parameters), false, out);
     }
 
-    private Map<String, byte[]> findTableRootPage(RandomAccessFile dbFile, int pageSize, String tableName, int pageNumber) throws IOException {
-        long originalPosition = dbFile.getFilePointer();
-        try {
-            byte bTreePageType = getBTreePageType(dbFile, pageSize, pageNumber);
-            int numberOfCells = getNumberOfCells(dbFile);
-            Map<String, byte[]> tableInfo = new HashMap<>();
-            if (isInteriorTable(bTreePageType)) {
-                tableInfo = handleFindRootPageInterior(dbFile, pageSize, numberOfCells, tableName, pageNumber);
-            } else if (isLeafTable(bTreePageType)) {
-                tableInfo = handleFindRootPageLeaf(dbFile, numberOfCells, tableName, pageNumber, pageSize);
-            }
-            dbFile.seek(originalPosition);
-            return tableInfo;
-        } catch (IOException e) {
-            printError("Error reading file: " + e.getMessage());
-        } finally {
-            try {
-                dbFile.seek(originalPosition);
-            } catch (IOException e) {
-                printError("Error seeking file: " + e.getMessage());
-            }
+    // Statements with the same text are parsed only the first time, through the same cache as prepare
+    public void executeQuery(String databaseFilePath, String command) {
+        Matcher analyzeCommand = ANALYZE_PATTERN.matcher(command);
+        if (analyzeCommand.matches()) {
+            analyze(databaseFilePath, analyzeCommand.group(1));
+            return;
         }
-        return new HashMap<>();
-    }
-
-    private Map<String, byte[]> handleFindRootPageLeaf(RandomAccessFile dbFile, int numberOfCells, String tableName, int pageNumber, int pageSize) throws IOException {
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-        for (int i = 0; i < numberOfCells; i++) {
-            long seekValue = startOfPage + cellPointers[i];
-            dbFile.seek(seekValue);
-            Map<String, byte[]> cellData = getCellData(dbFile);
-            String currentTableName = new String(cellData.get("tbl_name"), StandardCharsets.UTF_8);
-            if (currentTableName.equals(tableName)) {
-                return cellData;
-            }
+        Matcher explainAnalyze = EXPLAIN_ANALYZE_PATTERN.matcher(command);
+        boolean analyze = explainAnalyze.lookingAt();
+        PreparedQuery query;
+        SQLQueryParser parser;
+        try {
+            query = prepare(analyze ? command.substring(explainAnalyze.end()) : command);
+            parser = query.parser.bind(NO_PARAMETERS);
+        } catch (IllegalArgumentException e) {
+            printError(e.getMessage());
+            return;
         }
-        return new HashMap<>();
+        runQuery(databaseFilePath, query.sql, parser, analyze, null);
     }
 
-    private Map<String, byte[]> handleFindRootPageInterior(RandomAccessFile dbFile, int pageSize, int numberOfCells, String tableName, int pageNumber) throws IOException {
-        long startOfPage = (long) (pageNumber - 1) * pageSize;
-        int rightMostPointer = dbFile.readInt();
-        int[] cellPointers = getCellPointers(numberOfCells, dbFile);
-        for (int i = 0; i < numberOfCells; i++) {
-            Map<String, byte[]> tableInfo = processCell(dbFile, startOfPage, cellPointers[i], pageSize, tableName);
-            if (!tableInfo.isEmpty()) {
-                return tableInfo;
+    // Rows go to out, or to standard output when out is null; EXPLAIN ANALYZE discards them
+    private void runQuery(String databaseFilePath, String query, SQLQueryParser parser, boolean analyze, OutputStream out) {
+        runStatement(databaseFilePath, cache -> {
+            boolean printStats = analyze || showStats;
+            QueryStats queryStats = QueryStats.start(query, printStats);
+            ResultSink results = takeSink(analyze ? OutputStream.nullOutputStream() : out == null ? System.out : out);
+            try {
+                CachedCatalog cached = getCatalog(cache, databaseFilePath);
+                new QueryExecution(this, cached.schema(), cached.statistics(), cached.zoneMap(), results, queryStats, parallelism, preserveOrder, memoryBudget)
+                        .run(queryStats == null ? cache : new InstrumentedPageSource(cache, queryStats), parser);
+            } finally {
+                try {
+                    results.flush();
+                } finally {
+                    if (queryStats != null) {
+                        queryStats.finish();
+                    }
+                }
             }
-        }
-
-        return handleRightMostPointer(dbFile, pageSize, tableName, rightMostPointer);
+            releaseSink(results);
+            if (queryStats != null && printStats) {
+                queryStats.print(System.out);
+            }
+        });
     }
 
-    private Map<String, byte[]> processCell(RandomAccessFile dbFile, long startOfPage, int cellPointer, int pageSize, String tableName) throws IOException {
-        dbFile.seek(startOfPage + cellPointer);
-        int childPageNumber = dbFile.readInt();
-        Map<String, byte[]> tableInfo = findTableRootPage(dbFile, pageSize, tableName, childPageNumber);
-        if (tableInfo.isEmpty()) {
-            VarInt.readVarInt(dbFile); // Skipping the VarInt after processing child page
+    // Reuses the buffer of a finished query's sink when it has the current format
+    private ResultSink takeSink(OutputStream out) {
+        ResultFormat format = resultFormat;
+        ResultSink sink = idleSinks.poll();
+        if (sink == null || sink.getFormat() != format) {
+            return new ResultSink(out, format);
         }
-        return tableInfo;
+        sink.setOutput(out);
+        return sink;
     }
 
-    private Map<String, byte[]> handleRightMostPointer(RandomAccessFile dbFile, int pageSize, String tableName, int rightMostPointer) throws IOException {
-        return findTableRootPage(dbFile, pageSize, tableName, rightMostPointer);
+    // Called once the sink is flushed; a sink whose query failed is dropped with whatever it still holds
+    private void releaseSink(ResultSink sink) {
+        sink.setOutput(null);
+        idleSinks.offer(sink);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,121 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Appends pages sequentially; page 1 is written last since it needs the root page of every B-tree
+public class DatabaseWriter implements Closeable {
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int SQLITE_HEADER_SIZE = 100;
+    private static final int SQLITE_VERSION_NUMBER = 3045000;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final ByteBuffer buffer;
+    // Page number of the first page in the buffer, and of the next page to be written
+    private int bufferedPage = 2;
+    private int nextPage = 2;
+    private final List<Object[]> schemaEntries = new ArrayList<>();
+
+    public DatabaseWriter(Path file, int pageSize) throws IOException {
+        if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two from 512 to 65536");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.pageSize = pageSize;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_SIZE / pageSize, 1) * pageSize);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // No bytes are reserved at the end of pages
+    public int getUsableSize() {
+        return pageSize;
+    }
+
+    public int getNextPageNumber() {
+        return nextPage;
+    }
+
+    // Appends a whole page and returns its page number
+    public int writePage(byte[] page) throws IOException {
+        if (buffer.remaining() < pageSize) {
+            flush();
+        }
+        buffer.put(page, 0, pageSize);
+        return nextPage++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        long position = (long) (bufferedPage - 1) * pageSize;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        bufferedPage = nextPage;
+    }
+
+    public void addSchemaEntry(String type, String name, String tableName, int rootPage, String sql) {
+        schemaEntries.add(new Object[]{utf8(type), utf8(name), utf8(tableName), (long) rootPage, utf8(sql)});
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            flush();
+            channel.write(ByteBuffer.wrap(buildFirstPage()), 0);
+            channel.force(true);
+        }
+    }
+
+    // The file header followed by sqlite_schema as a single table leaf page
+    private byte[] buildFirstPage() throws IOException {
+        byte[] page = new byte[pageSize];
+        ByteBuffer header = ByteBuffer.wrap(page);
+        header.put("SQLite format 3\0".getBytes(StandardCharsets.US_ASCII));
+        header.putShort((short) (pageSize == 65536 ? 1 : pageSize));
+        header.put((byte) 1).put((byte) 1);  // Legacy file format write and read versions
+        header.put((byte) 0);  // Reserved bytes at the end of each page
+        header.put((byte) 64).put((byte) 32).put((byte) 32);  // Payload fractions, fixed by the format
+        header.putInt(24, 1);  // File change counter
+        header.putInt(28, nextPage - 1);  // Database size in pages
+        header.putInt(40, 1);  // Schema cookie
+        header.putInt(44, 4);  // Schema format number
+        header.putInt(56, 1);  // Text encoding: UTF-8
+        header.putInt(92, 1);  // Change counter the database size is valid for
+        header.putInt(96, SQLITE_VERSION_NUMBER);
+
+        RecordEncoder record = new RecordEncoder();
+        int contentStart = pageSize;
+        int pointerOffset = SQLITE_HEADER_SIZE + 8;
+        for (int i = 0; i < schemaEntries.size(); i++) {
+            record.encode(schemaEntries.get(i));
+            int cellSize = VarInt.getSize(record.length) + VarInt.getSize(i + 1) + record.length;
+            if (record.length > pageSize - 35 || contentStart - cellSize < pointerOffset + 2) {
+                throw new IOException("The schema does not fit on page 1");
+            }
+            contentStart -= cellSize;
+            int offset = contentStart + VarInt.write(page, contentStart, record.length);
+            offset += VarInt.write(page, offset, i + 1);
+            System.arraycopy(record.bytes, 0, page, offset, record.length);
+            header.putShort(pointerOffset, (short) contentStart);
+            pointerOffset += 2;
+        }
+        header.put(SQLITE_HEADER_SIZE, BTreePage.LEAF_TABLE);
+        header.putShort(SQLITE_HEADER_SIZE + 3, (short) schemaEntries.size());
+        header.putShort(SQLITE_HEADER_SIZE + 5, (short) (contentStart == 65536 ? 0 : contentStart));
+        return page;
+    }
+}
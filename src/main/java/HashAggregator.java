@@ -0,0 +1,451 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+// Streaming GROUP BY over byte-encoded keys; groups not in memory spill to hash partitions past the budget
+public class HashAggregator {
+    private static final int PARTITIONS = 16;
+    // Each level hashes with a new seed; past this depth everything stays in memory
+    private static final int MAX_SPILL_LEVEL = 6;
+
+    private final int[] groupColumns;
+    private final List<AggregateFunction> aggregates;
+    private final Accumulator[] accumulators;
+    private final long memoryBudget;
+    private final int level;
+
+    // Group id + 1 per slot, 0 for an empty slot
+    private int[] slots = new int[1024];
+    private int insertSlot;
+    private int[] groupHashes = new int[256];
+    private int[] keyOffsets = new int[256];
+    private int[] keyLengths = new int[256];
+    private byte[] keyArena = new byte[4096];
+    private int keyArenaLength;
+    private int groupCount;
+
+    // The encoded key followed by the encoded aggregate arguments of the row being added
+    private final RowBuffer scratch = new RowBuffer();
+
+    private Path[] partitionFiles;
+    private DataOutputStream[] partitions;
+    private long[] partitionRows;
+
+    public HashAggregator(int[] groupColumns, List<AggregateFunction> aggregates, long memoryBudget) {
+        this(groupColumns, aggregates, memoryBudget, 0);
+    }
+
+    private HashAggregator(int[] groupColumns, List<AggregateFunction> aggregates, long memoryBudget, int level) {
+        this.groupColumns = groupColumns;
+        this.aggregates = aggregates;
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+        accumulators = new Accumulator[aggregates.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            AggregateFunction aggregate = aggregates.get(i);
+            accumulators[i] = switch (aggregate.kind) {
+                case COUNT -> new CountAccumulator(aggregate.hasArgument());
+                case SUM -> new SumAccumulator(false);
+                case AVG -> new SumAccumulator(true);
+                case MIN -> new MinMaxAccumulator(-1);
+                case MAX -> new MinMaxAccumulator(1);
+            };
+            accumulators[i].resize(groupHashes.length);
+        }
+    }
+
+    public void add(Record row) throws IOException {
+        scratch.clear();
+        for (int column : groupColumns) {
+            scratch.putColumn(row, column);
+        }
+        int keyLength = scratch.length;
+        for (AggregateFunction aggregate : aggregates) {
+            if (aggregate.hasArgument()) {
+                scratch.putColumn(row, aggregate.column);
+            }
+        }
+        accumulate(keyLength);
+    }
+
+    // Without GROUP BY there is always exactly one group, even for no rows
+    public void finish(GroupConsumer consumer) throws IOException {
+        try {
+            if (groupColumns.length == 0 && groupCount == 0 && level == 0) {
+                scratch.clear();
+                int hash = hash(scratch.bytes, 0);
+                findGroup(hash, 0);
+                addGroup(hash, 0);
+            }
+            for (int group = 0; group < groupCount; group++) {
+                consumer.accept(getResult(group));
+            }
+            if (partitions == null) {
+                return;
+            }
+            releaseGroups();
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (partitions[partition] != null) {
+                    partitions[partition].close();
+                    aggregatePartition(partition, consumer);
+                }
+            }
+        } finally {
+            deletePartitions();
+        }
+    }
+
+    private void accumulate(int keyLength) throws IOException {
+        int hash = hash(scratch.bytes, keyLength);
+        int group = findGroup(hash, keyLength);
+        if (group == -1) {
+            if (level < MAX_SPILL_LEVEL && getEstimatedBytes() > memoryBudget) {
+                spill(hash, keyLength);
+                return;
+            }
+            group = addGroup(hash, keyLength);
+        }
+        int offset = keyLength;
+        for (Accumulator accumulator : accumulators) {
+            offset = accumulator.add(group, scratch.bytes, offset);
+        }
+    }
+
+    // Returns the group with the scratch key, or -1 with insertSlot set to the empty slot the key belongs in
+    private int findGroup(int hash, int keyLength) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int group = slots[slot] - 1;
+            if (group == -1) {
+                insertSlot = slot;
+                return -1;
+            }
+            if (groupHashes[group] == hash && keyLengths[group] == keyLength
+                    && Arrays.equals(keyArena, keyOffsets[group], keyOffsets[group] + keyLength, scratch.bytes, 0, keyLength)) {
+                return group;
+            }
+        }
+    }
+
+    private int addGroup(int hash, int keyLength) {
+        int group = groupCount++;
+        if (group == groupHashes.length) {
+            int capacity = groupHashes.length * 2;
+            groupHashes = Arrays.copyOf(groupHashes, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            for (Accumulator accumulator : accumulators) {
+                accumulator.resize(capacity);
+            }
+        }
+        if (keyArenaLength + keyLength > keyArena.length) {
+            keyArena = Arrays.copyOf(keyArena, Math.max(keyArena.length * 2, keyArenaLength + keyLength));
+        }
+        System.arraycopy(scratch.bytes, 0, keyArena, keyArenaLength, keyLength);
+        groupHashes[group] = hash;
+        keyOffsets[group] = keyArenaLength;
+        keyLengths[group] = keyLength;
+        keyArenaLength += keyLength;
+        slots[insertSlot] = group + 1;
+        if (groupCount * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return group;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int group = 0; group < groupCount; group++) {
+            int slot = groupHashes[group] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = group + 1;
+        }
+    }
+
+    private long getEstimatedBytes() {
+        long bytes = 4L * slots.length + 12L * groupHashes.length + keyArena.length + scratch.bytes.length;
+        for (Accumulator accumulator : accumulators) {
+            bytes += accumulator.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    private int hash(byte[] key, int length) {
+        return RowBuffer.hash(key, length, level);
+    }
+
+    private void spill(int hash, int keyLength) throws IOException {
+        if (partitions == null) {
+            partitionFiles = new Path[PARTITIONS];
+            partitions = new DataOutputStream[PARTITIONS];
+            partitionRows = new long[PARTITIONS];
+        }
+        int partition = hash >>> 28;
+        if (partitions[partition] == null) {
+            partitionFiles[partition] = Files.createTempFile("mini-sqlite-group-", ".spill");
+            partitions[partition] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partitionFiles[partition])));
+        }
+        DataOutputStream out = partitions[partition];
+        out.writeInt(keyLength);
+        scratch.writeTo(out);
+        partitionRows[partition]++;
+    }
+
+    private void aggregatePartition(int partition, GroupConsumer consumer) throws IOException {
+        HashAggregator aggregator = new HashAggregator(groupColumns, aggregates, memoryBudget, level + 1);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partitionFiles[partition])))) {
+            for (long row = 0; row < partitionRows[partition]; row++) {
+                int keyLength = in.readInt();
+                aggregator.scratch.readFrom(in);
+                aggregator.accumulate(keyLength);
+            }
+        }
+        aggregator.finish(consumer);
+    }
+
+    // The in-memory groups have been emitted, so their memory can go to the partitions
+    private void releaseGroups() {
+        slots = new int[1];
+        groupHashes = new int[0];
+        keyOffsets = new int[0];
+        keyLengths = new int[0];
+        keyArena = new byte[0];
+        for (Accumulator accumulator : accumulators) {
+            accumulator.resize(0);
+        }
+        groupCount = 0;
+    }
+
+    private void deletePartitions() throws IOException {
+        if (partitions == null) {
+            return;
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (partitions[partition] != null) {
+                partitions[partition].close();
+                Files.deleteIfExists(partitionFiles[partition]);
+            }
+        }
+        partitions = null;
+    }
+
+    private Object[] getResult(int group) {
+        Object[] result = new Object[groupColumns.length + accumulators.length];
+        int offset = keyOffsets[group];
+        for (int i = 0; i < groupColumns.length; i++) {
+            result[i] = RowBuffer.decode(keyArena, offset);
+            offset += RowBuffer.getEncodedLength(keyArena, offset);
+        }
+        for (int i = 0; i < accumulators.length; i++) {
+            result[groupColumns.length + i] = accumulators[i].getResult(group);
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface GroupConsumer {
+        void accept(Object[] group) throws IOException;
+    }
+
+    // Per-group state of one aggregate, held in arrays indexed by group id
+    private interface Accumulator {
+        void resize(int capacity);
+
+        // Folds the encoded argument at offset into the group and returns the offset after it
+        int add(int group, byte[] values, int offset);
+
+        Object getResult(int group);
+
+        long getEstimatedBytes();
+    }
+
+    private static class CountAccumulator implements Accumulator {
+        private final boolean hasArgument;
+        private long[] counts = new long[0];
+
+        CountAccumulator(boolean hasArgument) {
+            this.hasArgument = hasArgument;
+        }
+
+        @Override
+        public void resize(int capacity) {
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        @Override
+        public int add(int group, byte[] values, int offset) {
+            if (!hasArgument) {
+                counts[group]++;
+                return offset;
+            }
+            if (values[offset] != RowBuffer.NULL) {
+                counts[group]++;
+            }
+            return offset + RowBuffer.getEncodedLength(values, offset);
+        }
+
+        @Override
+        public Object getResult(int group) {
+            return counts[group];
+        }
+
+        @Override
+        public long getEstimatedBytes() {
+            return 8L * counts.length;
+        }
+    }
+
+    // SUM stays an integer until a float or an overflow appears, like SQLite's; AVG divides it by the count
+    private static class SumAccumulator implements Accumulator {
+        private static final byte EMPTY = 0;
+        private static final byte INTEGER_SUM = 1;
+        private static final byte FLOAT_SUM = 2;
+
+        private final boolean average;
+        private byte[] states = new byte[0];
+        private long[] integerSums = new long[0];
+        private double[] floatSums = new double[0];
+        private long[] counts = new long[0];
+
+        SumAccumulator(boolean average) {
+            this.average = average;
+        }
+
+        @Override
+        public void resize(int capacity) {
+            states = Arrays.copyOf(states, capacity);
+            integerSums = Arrays.copyOf(integerSums, capacity);
+            floatSums = Arrays.copyOf(floatSums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        @Override
+        public int add(int group, byte[] values, int offset) {
+            byte tag = values[offset];
+            if (tag == RowBuffer.INTEGER && states[group] != FLOAT_SUM) {
+                long value = RowBuffer.readLong(values, offset + 1);
+                long sum = integerSums[group] + value;
+                // Overflow when both operands have the same sign and the sum has the other one
+                if (((integerSums[group] ^ sum) & (value ^ sum)) < 0) {
+                    addFloat(group, (double) integerSums[group] + value);
+                } else {
+                    integerSums[group] = sum;
+                    states[group] = INTEGER_SUM;
+                }
+                counts[group]++;
+            } else if (tag != RowBuffer.NULL) {
+                addFloat(group, RowBuffer.toDouble(values, offset));
+                counts[group]++;
+            }
+            return offset + RowBuffer.getEncodedLength(values, offset);
+        }
+
+        private void addFloat(int group, double value) {
+            if (states[group] != FLOAT_SUM) {
+                floatSums[group] = integerSums[group];
+                states[group] = FLOAT_SUM;
+            }
+            floatSums[group] += value;
+        }
+
+        @Override
+        public Object getResult(int group) {
+            if (states[group] == EMPTY) {
+                return null;
+            }
+            if (average) {
+                double sum = states[group] == FLOAT_SUM ? floatSums[group] : integerSums[group];
+                return sum / counts[group];
+            }
+            return states[group] == FLOAT_SUM ? (Object) floatSums[group] : (Object) integerSums[group];
+        }
+
+        @Override
+        public long getEstimatedBytes() {
+            return 25L * states.length;
+        }
+    }
+
+    // direction -1 keeps the smallest, 1 the largest, in SQLite's order: numbers, then TEXT, then BLOB
+    private static class MinMaxAccumulator implements Accumulator {
+        private final int direction;
+        private byte[] tags = new byte[0];
+        private long[] numbers = new long[0];
+        private byte[][] strings = new byte[0][];
+        private long stringBytes;
+
+        MinMaxAccumulator(int direction) {
+            this.direction = direction;
+        }
+
+        @Override
+        public void resize(int capacity) {
+            tags = Arrays.copyOf(tags, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+            if (capacity == 0) {
+                stringBytes = 0;
+            }
+        }
+
+        @Override
+        public int add(int group, byte[] values, int offset) {
+            int length = RowBuffer.getEncodedLength(values, offset);
+            byte tag = values[offset];
+            if (tag != RowBuffer.NULL && (tags[group] == RowBuffer.NULL || compare(group, values, offset) * direction > 0)) {
+                tags[group] = tag;
+                if (tag == RowBuffer.INTEGER || tag == RowBuffer.FLOAT) {
+                    numbers[group] = RowBuffer.readLong(values, offset + 1);
+                } else {
+                    stringBytes += length - (strings[group] == null ? 0 : strings[group].length);
+                    strings[group] = Arrays.copyOfRange(values, offset + 5, offset + length);
+                }
+            }
+            return offset + length;
+        }
+
+        // Compares the encoded candidate with the group's current value
+        private int compare(int group, byte[] values, int offset) {
+            byte tag = values[offset];
+            int rankDifference = RowBuffer.getRank(tag) - RowBuffer.getRank(tags[group]);
+            if (rankDifference != 0) {
+                return rankDifference;
+            }
+            if (tag == RowBuffer.INTEGER && tags[group] == RowBuffer.INTEGER) {
+                return Long.compare(RowBuffer.readLong(values, offset + 1), numbers[group]);
+            } else if (tag == RowBuffer.INTEGER || tag == RowBuffer.FLOAT) {
+                return Double.compare(toDouble(tag, RowBuffer.readLong(values, offset + 1)), toDouble(tags[group], numbers[group]));
+            }
+            byte[] current = strings[group];
+            return Arrays.compareUnsigned(values, offset + 5, offset + 5 + RowBuffer.readInt(values, offset + 1), current, 0, current.length);
+        }
+
+        private static double toDouble(byte tag, long bits) {
+            return tag == RowBuffer.FLOAT ? Double.longBitsToDouble(bits) : bits;
+        }
+
+        @Override
+        public Object getResult(int group) {
+            return switch (tags[group]) {
+                case RowBuffer.NULL -> null;
+                case RowBuffer.INTEGER -> numbers[group];
+                case RowBuffer.FLOAT -> Double.longBitsToDouble(numbers[group]);
+                default -> strings[group];
+            };
+        }
+
+        @Override
+        public long getEstimatedBytes() {
+            return 17L * tags.length + stringBytes;
+        }
+    }
+}
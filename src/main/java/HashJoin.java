@@ -0,0 +1,189 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Inner equi-join on the first value of each entry; a grace hash join once the build side passes the budget
+public class HashJoin {
+    private static final int PARTITIONS = 16;
+    private static final int MAX_SPILL_LEVEL = 6;
+    // Array header, list reference and chain slots of each buffered entry
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private final long memoryBudget;
+    private final int level;
+
+    private List<byte[]> buildEntries = new ArrayList<>();
+    private int[] buildHashes = new int[64];
+    private long buildBytes;
+    // Bucket heads and chains of entry index + 1, built by finishBuild
+    private int[] buckets;
+    private int[] chain;
+
+    private Path[] buildPartitionFiles;
+    private Path[] probePartitionFiles;
+    private DataOutputStream[] buildPartitions;
+    private DataOutputStream[] probePartitions;
+
+    public HashJoin(long memoryBudget) {
+        this(memoryBudget, 0);
+    }
+
+    private HashJoin(long memoryBudget, int level) {
+        this.memoryBudget = memoryBudget;
+        this.level = level;
+    }
+
+    public void addBuildRow(RowBuffer entry) throws IOException {
+        int hash = hash(entry.bytes, RowBuffer.getEncodedLength(entry.bytes, 0));
+        if (buildPartitions != null) {
+            writeEntry(buildPartitions, buildPartitionFiles, hash, entry.bytes, entry.length);
+            return;
+        }
+        if (buildEntries.size() == buildHashes.length) {
+            buildHashes = Arrays.copyOf(buildHashes, buildHashes.length * 2);
+        }
+        buildHashes[buildEntries.size()] = hash;
+        buildEntries.add(entry.toByteArray());
+        buildBytes += entry.length + ENTRY_OVERHEAD;
+        if (buildBytes > memoryBudget && level < MAX_SPILL_LEVEL) {
+            spillBuildSide();
+        }
+    }
+
+    public void finishBuild() {
+        if (buildPartitions != null) {
+            return;
+        }
+        int bucketCount = Integer.highestOneBit(Math.max(buildEntries.size(), 1) * 2 - 1) * 2;
+        buckets = new int[bucketCount];
+        chain = new int[buildEntries.size()];
+        for (int i = 0; i < buildEntries.size(); i++) {
+            int bucket = buildHashes[i] & (bucketCount - 1);
+            chain[i] = buckets[bucket];
+            buckets[bucket] = i + 1;
+        }
+    }
+
+    // Emits the matches of the probe entry now, or once its partition is joined when the build side was spilled
+    public void probe(RowBuffer entry, MatchConsumer consumer) throws IOException {
+        probe(entry.bytes, entry.length, consumer);
+    }
+
+    private void probe(byte[] probeEntry, int length, MatchConsumer consumer) throws IOException {
+        int keyLength = RowBuffer.getEncodedLength(probeEntry, 0);
+        int hash = hash(probeEntry, keyLength);
+        if (buildPartitions != null) {
+            writeEntry(probePartitions, probePartitionFiles, hash, probeEntry, length);
+            return;
+        }
+        for (int i = buckets[hash & (buckets.length - 1)]; i != 0; i = chain[i - 1]) {
+            byte[] buildEntry = buildEntries.get(i - 1);
+            if (buildHashes[i - 1] == hash && RowBuffer.getEncodedLength(buildEntry, 0) == keyLength
+                    && Arrays.equals(buildEntry, 0, keyLength, probeEntry, 0, keyLength)) {
+                consumer.accept(buildEntry, keyLength, probeEntry, keyLength);
+            }
+        }
+    }
+
+    // Joins the spilled partitions, if any, and removes their files
+    public void finish(MatchConsumer consumer) throws IOException {
+        if (buildPartitions == null) {
+            return;
+        }
+        try {
+            endAll(buildPartitions);
+            endAll(probePartitions);
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (buildPartitionFiles[partition] != null && probePartitionFiles[partition] != null) {
+                    joinPartition(partition, consumer);
+                }
+            }
+        } finally {
+            endAll(buildPartitions);
+            endAll(probePartitions);
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                deleteIfPresent(buildPartitionFiles[partition]);
+                deleteIfPresent(probePartitionFiles[partition]);
+            }
+        }
+    }
+
+    private void joinPartition(int partition, MatchConsumer consumer) throws IOException {
+        HashJoin join = new HashJoin(memoryBudget, level + 1);
+        RowBuffer entry = new RowBuffer();
+        try (DataInputStream in = openPartition(buildPartitionFiles[partition])) {
+            while (entry.readFrom(in)) {
+                join.addBuildRow(entry);
+            }
+        }
+        join.finishBuild();
+        try (DataInputStream in = openPartition(probePartitionFiles[partition])) {
+            while (entry.readFrom(in)) {
+                join.probe(entry, consumer);
+            }
+        }
+        join.finish(consumer);
+    }
+
+    private void spillBuildSide() throws IOException {
+        buildPartitionFiles = new Path[PARTITIONS];
+        probePartitionFiles = new Path[PARTITIONS];
+        buildPartitions = new DataOutputStream[PARTITIONS];
+        probePartitions = new DataOutputStream[PARTITIONS];
+        for (int i = 0; i < buildEntries.size(); i++) {
+            byte[] entry = buildEntries.get(i);
+            writeEntry(buildPartitions, buildPartitionFiles, buildHashes[i], entry, entry.length);
+        }
+        buildEntries = null;
+        buildHashes = null;
+    }
+
+    private void writeEntry(DataOutputStream[] partitions, Path[] files, int hash, byte[] entry, int length) throws IOException {
+        int partition = hash >>> 28;
+        if (partitions[partition] == null) {
+            files[partition] = Files.createTempFile("mini-sqlite-join-", ".spill");
+            partitions[partition] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[partition])));
+        }
+        partitions[partition].writeInt(length);
+        partitions[partition].write(entry, 0, length);
+    }
+
+    private static DataInputStream openPartition(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+
+    // Ends and closes every open partition file; safe to call again after a failure
+    private static void endAll(DataOutputStream[] partitions) throws IOException {
+        for (int partition = 0; partition < partitions.length; partition++) {
+            if (partitions[partition] != null) {
+                try (DataOutputStream out = partitions[partition]) {
+                    partitions[partition] = null;
+                    RowBuffer.writeEnd(out);
+                }
+            }
+        }
+    }
+
+    private static void deleteIfPresent(Path file) throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private int hash(byte[] key, int length) {
+        return RowBuffer.hash(key, length, level);
+    }
+
+    @FunctionalInterface
+    public interface MatchConsumer {
+        // The side columns start after each entry's key
+        void accept(byte[] buildEntry, int buildColumnsOffset, byte[] probeEntry, int probeColumnsOffset) throws IOException;
+    }
+}
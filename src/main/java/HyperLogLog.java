@@ -0,0 +1,78 @@
+import java.nio.ByteBuffer;
+
+// Distinct count estimate in fixed memory with about 1.6% standard error (Flajolet et al., 2007)
+public class HyperLogLog {
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    public void addLong(long value) {
+        add(hashLong(value));
+    }
+
+    public void addDouble(double value) {
+        add(hashDouble(value));
+    }
+
+    public void addBytes(ByteBuffer value) {
+        add(hashBytes(value));
+    }
+
+    static long hashLong(long value) {
+        return mix(value);
+    }
+
+    // Doubles holding an integer hash like that integer, since SQLite compares 1 and 1.0 as equal
+    static long hashDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+            return hashLong((long) value);
+        }
+        return mix(Double.doubleToLongBits(value) ^ 0x5851F42D4C957F2DL);
+    }
+
+    // FNV-1a over the bytes, then mixed so every bit depends on every byte
+    static long hashBytes(ByteBuffer value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = value.position(); i < value.limit(); i++) {
+            hash = (hash ^ (value.get(i) & 0xFF)) * 0x100000001B3L;
+        }
+        return mix(hash ^ 0x2545F4914F6CDD1DL);
+    }
+
+    private void add(long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        // The sentinel bit caps the run at 64 - PRECISION zeros
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);  // Linear counting is better for small sets
+        }
+        return Math.round(estimate);
+    }
+
+    // Finalizer of MurmurHash3
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB93FE53B6DCDL;
+        value ^= value >>> 33;
+        return value;
+    }
+}
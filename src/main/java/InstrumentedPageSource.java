@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Counts and times the pages of a query that collects statistics
+public class InstrumentedPageSource implements PageSource {
+    private final PageSource pageSource;
+    private final QueryStats stats;
+
+    public InstrumentedPageSource(PageSource pageSource, QueryStats stats) {
+        this.pageSource = pageSource;
+        this.stats = stats;
+        stats.watch(pageSource);
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSource.getPageSize();
+    }
+
+    // Reading the header of page 1 is not counted as part of the query
+    @Override
+    public int getUsableSize() throws IOException {
+        return pageSource.getUsableSize();
+    }
+
+    @Override
+    public ByteBuffer getPage(int pageNumber) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        stats.pageReadNanos.add(System.nanoTime() - start);
+        stats.countPage(BTreePage.getPageType(page, BTreePage.getHeaderOffset(pageNumber)));
+        return page;
+    }
+
+    @Override
+    public ByteBuffer getOverflowPage(int pageNumber) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer page = pageSource.getOverflowPage(pageNumber);
+        stats.pageReadNanos.add(System.nanoTime() - start);
+        stats.overflowPages.increment();
+        return page;
+    }
+
+    @Override
+    public void prefetch(int pageNumber) {
+        pageSource.prefetch(pageNumber);
+    }
+
+    @Override
+    public int getReadAhead() {
+        return pageSource.getReadAhead();
+    }
+
+    @Override
+    public QueryStats getStats() {
+        return stats;
+    }
+}
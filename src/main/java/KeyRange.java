@@ -0,0 +1,77 @@
+import java.util.List;
+
+// Bounds on a single key, built from the WHERE conditions that reference that key
+public class KeyRange {
+    // Literals as produced by SerialType.toLiteral; a null bound means unbounded
+    Object lowerBound;
+    boolean lowerInclusive;
+    Object upperBound;
+    boolean upperInclusive;
+    // Set for ranges built from comparisons, which NULL never meets
+    boolean excludesNull;
+
+    // Null when no condition constrains the column; repeated bounds keep the tightest
+    static KeyRange fromConditions(List<WhereFilter.Condition> conditions, String column, String affinity) {
+        KeyRange range = null;
+        for (WhereFilter.Condition condition : conditions) {
+            if (!condition.column.equalsIgnoreCase(column)) {
+                continue;
+            }
+            Object literal = SerialType.toLiteral(condition.value, condition.quoted, affinity);
+            switch (condition.operator) {
+                case "=" -> {
+                    range = equalTo(literal);
+                    range.excludesNull = true;
+                    return range;
+                }
+                case ">", ">=" -> {
+                    range = range == null ? new KeyRange() : range;
+                    range.excludesNull = true;
+                    boolean inclusive = condition.operator.equals(">=");
+                    int comparison = range.lowerBound == null ? 1 : SerialType.compareLiterals(literal, range.lowerBound);
+                    if (comparison > 0 || (comparison == 0 && !inclusive)) {
+                        range.lowerBound = literal;
+                        range.lowerInclusive = inclusive;
+                    }
+                }
+                case "<", "<=" -> {
+                    range = range == null ? new KeyRange() : range;
+                    range.excludesNull = true;
+                    boolean inclusive = condition.operator.equals("<=");
+                    int comparison = range.upperBound == null ? -1 : SerialType.compareLiterals(literal, range.upperBound);
+                    if (comparison < 0 || (comparison == 0 && !inclusive)) {
+                        range.upperBound = literal;
+                        range.upperInclusive = inclusive;
+                    }
+                }
+                default -> {
+                    // "<>" and "!=" cannot narrow a seek
+                }
+            }
+        }
+        return range;
+    }
+
+    static KeyRange equalTo(Object literal) {
+        KeyRange range = new KeyRange();
+        range.lowerBound = literal;
+        range.lowerInclusive = true;
+        range.upperBound = literal;
+        range.upperInclusive = true;
+        return range;
+    }
+
+    boolean isEquality() {
+        return lowerBound != null && lowerBound == upperBound;
+    }
+
+    // comparison is the sign of (key - lowerBound)
+    boolean isBelowLowerBound(int comparison) {
+        return lowerBound != null && (comparison < 0 || (comparison == 0 && !lowerInclusive));
+    }
+
+    // comparison is the sign of (key - upperBound)
+    boolean isAboveUpperBound(int comparison) {
+        return upperBound != null && (comparison > 0 || (comparison == 0 && !upperInclusive));
+    }
+}
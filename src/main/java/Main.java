@@ -1,18 +1,224 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class Main {
+    private static final String USAGE = "Usage: java Main [--mmap] [--parallel <threads>] [--unordered] [--memory-budget <MB>] [--read-ahead <pages>] [--format <list|csv|tsv|json|binary>] <database file> [<command> | --script <file>]\n"
+            + "       java Main [--memory-budget <MB>] <new database file> --load <table> <csv or tsv file> [--index <column[,column]>]... [--fill-factor <percent>]\n"
+            + "Without a command, statements are read from standard input until .quit or end of input.\n"
+            + ".mode <format> switches the output format of later queries. "
+            + "EXPLAIN ANALYZE <query> prints the plan and execution statistics instead of the rows, and .stats on prints them after the rows. "
+            + "ANALYZE [<table>] saves table and column statistics next to the database for the planner to use, "
+            + "and .zonemap <table> [<column>[,<column>]...] saves per-page value ranges and bloom filters that let scans skip pages";
+
     public static void main(String[] args) {
         Database database = new Database();
+        PageSourceType pageSourceType = PageSourceType.CACHED;
+        int parallelism = 1;
+        boolean preserveOrder = true;
+        long memoryBudget = Database.DEFAULT_MEMORY_BUDGET;
+        int readAhead = 0;
+        ResultFormat resultFormat = ResultFormat.LIST;
+        int argsStart = 0;
+        while (argsStart < args.length && args[argsStart].startsWith("--")) {
+            switch (args[argsStart]) {
+                case "--mmap" -> pageSourceType = PageSourceType.MAPPED;
+                case "--unordered" -> preserveOrder = false;
+                case "--parallel" -> {
+                    if (argsStart + 1 >= args.length) {
+                        database.printError("Missing thread count for --parallel. " + USAGE);
+                        return;
+                    }
+                    // ForkJoinPool takes at most 32767 threads
+                    Long threads = parseOption(database, "--parallel", args[++argsStart], 1, 32767);
+                    if (threads == null) {
+                        return;
+                    }
+                    parallelism = threads.intValue();
+                }
+                case "--memory-budget" -> {
+                    if (argsStart + 1 >= args.length) {
+                        database.printError("Missing size for --memory-budget. " + USAGE);
+                        return;
+                    }
+                    // Capped so the shift to bytes cannot overflow into a negative budget
+                    Long megabytes = parseOption(database, "--memory-budget", args[++argsStart], 1, Long.MAX_VALUE >> 20);
+                    if (megabytes == null) {
+                        return;
+                    }
+                    memoryBudget = megabytes << 20;
+                }
+                case "--read-ahead" -> {
+                    if (argsStart + 1 >= args.length) {
+                        database.printError("Missing page count for --read-ahead. " + USAGE);
+                        return;
+                    }
+                    Long pages = parseOption(database, "--read-ahead", args[++argsStart], 0, Integer.MAX_VALUE);
+                    if (pages == null) {
+                        return;
+                    }
+                    readAhead = pages.intValue();
+                }
+                case "--format" -> {
+                    if (argsStart + 1 >= args.length) {
+                        database.printError("Missing format for --format. " + USAGE);
+                        return;
+                    }
+                    resultFormat = parseResultFormat(database, args[++argsStart]);
+                    if (resultFormat == null) {
+                        return;
+                    }
+                }
+                default -> {
+                    database.printError("Unknown option " + args[argsStart] + ". " + USAGE);
+                    return;
+                }
+            }
+            argsStart++;
+        }
+        if (args.length - argsStart < 1) {
+            database.printError("Missing arguments. " + USAGE);
+            return;
+        }
+
+        String databaseFilePath = args[argsStart];
+        database = new Database(pageSourceType, PageCache.DEFAULT_CAPACITY);
+        database.setParallelism(parallelism, preserveOrder);
+        database.setMemoryBudget(memoryBudget);
+        database.setReadAhead(readAhead);
+        database.setResultFormat(resultFormat);
+        if (args.length - argsStart == 1) {
+            runSession(database, databaseFilePath, new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        } else if (args[argsStart + 1].equals("--script")) {
+            if (argsStart + 2 >= args.length) {
+                database.printError("Missing file for --script. " + USAGE);
+                return;
+            }
+            try (BufferedReader script = Files.newBufferedReader(Path.of(args[argsStart + 2]), StandardCharsets.UTF_8)) {
+                runSession(database, databaseFilePath, script);
+            } catch (IOException e) {
+                database.printError("Error reading script: " + e.getMessage());
+            }
+        } else if (args[argsStart + 1].equals("--load")) {
+            runLoad(database, databaseFilePath, Arrays.copyOfRange(args, argsStart + 2, args.length), memoryBudget);
+        } else {
+            handleCommand(database, databaseFilePath, args[argsStart + 1]);
+        }
+    }
+
+    // Builds a new database file with one table, and optionally its indexes, from a CSV or TSV file
+    private static void runLoad(Database database, String databaseFilePath, String[] args, long memoryBudget) {
         if (args.length < 2) {
-            database.printError("Missing arguments. Usage: java Main <database file> <command>");
+            database.printError("Missing table or input file for --load. " + USAGE);
             return;
         }
+        List<List<String>> indexes = new ArrayList<>();
+        double fillFactor = 1;
+        for (int i = 2; i < args.length; i++) {
+            if (i + 1 >= args.length || !(args[i].equals("--index") || args[i].equals("--fill-factor"))) {
+                database.printError("Unexpected argument " + args[i] + " for --load. " + USAGE);
+                return;
+            }
+            if (args[i].equals("--index")) {
+                indexes.add(Arrays.stream(args[++i].split(",")).map(String::trim).toList());
+            } else {
+                // Checked before the file is created, so a bad value leaves no partial file to remove
+                Long percent = parseOption(database, "--fill-factor", args[++i], 1, 100);
+                if (percent == null) {
+                    return;
+                }
+                fillFactor = percent / 100.0;
+            }
+        }
+        try {
+            BulkLoader loader = new BulkLoader(memoryBudget, fillFactor, BulkLoader.DEFAULT_PAGE_SIZE);
+            long rows = loader.load(Path.of(databaseFilePath), args[0], Path.of(args[1]), indexes);
+            System.out.println("Loaded " + rows + " rows into " + args[0]);
+        } catch (FileAlreadyExistsException e) {
+            database.printError("Database file already exists: " + databaseFilePath);
+        } catch (IOException | IllegalArgumentException e) {
+            // A partial file is removed so the load can be run again
+            try {
+                Files.deleteIfExists(Path.of(databaseFilePath));
+            } catch (IOException ignored) {
+            }
+            database.printError("Error loading file: " + e.getMessage());
+        }
+    }
+
+    // Dot commands take a line of their own; SQL statements end with ';' and may span lines
+    public static void runSession(Database database, String databaseFilePath, BufferedReader statements) {
+        try (database) {
+            database.openSession(databaseFilePath);
+            StringBuilder statement = new StringBuilder();
+            String line;
+            while ((line = statements.readLine()) != null) {
+                line = line.trim();
+                if (statement.isEmpty() && (line.isEmpty() || line.startsWith("--"))) {
+                    continue;
+                }
+                if (statement.isEmpty() && line.startsWith(".")) {
+                    if (line.equals(".quit") || line.equals(".exit")) {
+                        return;
+                    }
+                    handleCommand(database, databaseFilePath, line);
+                    if (line.equals(".tables")) {
+                        System.out.println();  // .tables does not end its line
+                    }
+                    continue;
+                }
+                if (!statement.isEmpty()) {
+                    statement.append(' ');
+                }
+                statement.append(line);
+                if (line.endsWith(";")) {
+                    runStatement(database, databaseFilePath, statement);
+                    statement.setLength(0);
+                }
+            }
+            if (!statement.isEmpty()) {
+                runStatement(database, databaseFilePath, statement);  // The last statement may omit its ';'
+            }
+        } catch (IOException e) {
+            database.printError("Error reading file: " + e.getMessage());
+        }
+    }
 
-        String databaseFilePath = args[0];
-        String command = args[1];
-        handleCommand(databaseFilePath, command);
+    private static void runStatement(Database database, String databaseFilePath, StringBuilder statement) {
+        int end = statement.length();
+        while (end > 0 && (statement.charAt(end - 1) == ';' || Character.isWhitespace(statement.charAt(end - 1)))) {
+            end--;
+        }
+        if (end > 0) {
+            handleCommand(database, databaseFilePath, statement.substring(0, end));
+        }
     }
 
     public static void handleCommand(String databaseFilePath, String command) {
-        Database database = new Database();
+        handleCommand(new Database(), databaseFilePath, command);
+    }
+
+    public static void handleCommand(Database database, String databaseFilePath, String command) {
+        if (command.startsWith(".mode ")) {
+            ResultFormat resultFormat = parseResultFormat(database, command.substring(".mode ".length()));
+            if (resultFormat != null) {
+                database.setResultFormat(resultFormat);
+            }
+            return;
+        }
+        if (command.startsWith(".zonemap ")) {
+            String[] words = command.substring(".zonemap ".length()).trim().split("\\s+", 2);
+            List<String> columns = words.length == 1 ? List.of() : Arrays.stream(words[1].split(",")).map(String::trim).toList();
+            database.buildZoneMap(databaseFilePath, words[0], columns);
+            return;
+        }
         switch (command) {
             case ".dbinfo":
                 database.getDbInfo(databaseFilePath);
@@ -20,10 +226,38 @@ public class Main {
             case ".tables":
                 database.printTablesNames(databaseFilePath);
                 break;
+            case ".stats on":
+                database.setShowStats(true);
+                break;
+            case ".stats off":
+                database.setShowStats(false);
+                break;
             default:
                 database.executeQuery(databaseFilePath, command);
         }
     }
 
+    // Null, after printing a usage error, unless the value is a whole number from min to max
+    private static Long parseOption(Database database, String option, String value, long min, long max) {
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below, like a number out of range
+        }
+        database.printError("Invalid value " + value + " for " + option + ", expected a whole number from " + min + " to " + max + ". " + USAGE);
+        return null;
+    }
 
+    // Prints an error and returns null for an unknown format name
+    private static ResultFormat parseResultFormat(Database database, String name) {
+        try {
+            return ResultFormat.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            database.printError("Unknown format " + name.trim() + ". " + USAGE);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedPageSource implements PageSource {
+    // A single MappedByteBuffer is limited to 2 GB, so larger files are split into several regions
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final int pageSize;
+    private final long regionSize;
+    private final long fileSize;
+    private final MappedByteBuffer[] regions;
+
+    public MappedPageSource(FileChannel channel, int pageSize) throws IOException {
+        this.pageSize = pageSize;
+        // Regions hold a whole number of pages so a page never straddles two mappings
+        this.regionSize = (MAX_REGION_SIZE / pageSize) * pageSize;
+        this.fileSize = channel.size();
+        int numberOfRegions = (int) ((fileSize + regionSize - 1) / regionSize);
+        regions = new MappedByteBuffer[numberOfRegions];
+        for (int i = 0; i < numberOfRegions; i++) {
+            long start = i * regionSize;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, fileSize - start));
+        }
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public ByteBuffer getPage(int pageNumber) throws IOException {
+        long startOfPage = (long) (pageNumber - 1) * pageSize;
+        if (pageNumber < 1 || startOfPage + pageSize > fileSize) {
+            throw new IOException("Page " + pageNumber + " is outside the database file");
+        }
+        int region = (int) (startOfPage / regionSize);
+        return regions[region].slice((int) (startOfPage % regionSize), pageSize);
+    }
+}
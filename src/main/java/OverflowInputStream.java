@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Streams a payload range off its overflow chain one page at a time
+public class OverflowInputStream extends InputStream {
+    private final PageSource pageSource;
+    private final int usableSize;
+    private ByteBuffer page;
+    private int position;
+    private int end;
+    private int nextPage;
+    private long remaining;
+
+    // localPage holds the first localSize bytes of the payload from localOffset; the rest starts on firstOverflowPage
+    public OverflowInputStream(PageSource pageSource, int usableSize, ByteBuffer localPage, int localOffset, int localSize,
+                               int firstOverflowPage, long start, long length) throws IOException {
+        this.pageSource = pageSource;
+        this.usableSize = usableSize;
+        this.remaining = length;
+        if (start <= localSize) {
+            page = localPage;
+            position = localOffset + (int) start;
+            end = localOffset + localSize;
+            nextPage = firstOverflowPage;
+            return;
+        }
+        // Follow the chain to the page holding the start; each overflow page carries usableSize - 4 bytes
+        long skip = start - localSize;
+        nextPage = firstOverflowPage;
+        loadNextPage();
+        while (skip > end - position) {
+            skip -= end - position;
+            loadNextPage();
+        }
+        position += (int) skip;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        remaining--;
+        return Byte.toUnsignedInt(page.get(position++));
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int count = (int) Math.min(Math.min(length, end - position), remaining);
+        page.get(position, buffer, offset, count);
+        position += count;
+        remaining -= count;
+        return count;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        if (remaining <= 0) {
+            return false;
+        }
+        if (position == end) {
+            loadNextPage();
+        }
+        return true;
+    }
+
+    private void loadNextPage() throws IOException {
+        if (nextPage == 0) {
+            throw new IOException("Overflow chain ends before the end of the payload");
+        }
+        page = pageSource.getOverflowPage(nextPage);
+        nextPage = page.getInt(0);
+        position = 4;
+        end = usableSize;
+    }
+}
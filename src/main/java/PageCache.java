@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+// Pages read with positional reads into a striped LRU cache shared by concurrent queries
+public class PageCache implements PageSource {
+    public static final int DEFAULT_CAPACITY = 2048;
+    private static final int READ_AHEAD_THREADS = 4;
+    // Shared by every cache; daemon threads, so an unfinished read never keeps the JVM alive
+    private static final ExecutorService READ_AHEAD_POOL = Executors.newFixedThreadPool(READ_AHEAD_THREADS, task -> {
+        Thread thread = new Thread(task, "page-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int readAhead;
+    private final StripedLruCache<Integer, ByteBuffer> pages;
+    // Prefetches still being read, which getPage waits for instead of reading the page again
+    private final ConcurrentHashMap<Integer, Future<ByteBuffer>> pendingReads = new ConcurrentHashMap<>();
+    // Cached pages a prefetch read that no query has asked for yet
+    private final Set<Integer> prefetched = ConcurrentHashMap.newKeySet();
+    // A miss is a page a query read itself; pages read ahead count as prefetches instead
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+
+    public PageCache(FileChannel channel, int pageSize, int capacity) {
+        this(channel, pageSize, capacity, 0);
+    }
+
+    public PageCache(FileChannel channel, int pageSize, int capacity, int readAhead) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Page cache capacity must be at least 1");
+        }
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("Read-ahead must not be negative");
+        }
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.readAhead = readAhead;
+        this.pages = new StripedLruCache<>(capacity, prefetched::remove);
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    // Two threads missing the same page may both read it; the first one cached is the one both get
+    @Override
+    public ByteBuffer getPage(int pageNumber) throws IOException {
+        ByteBuffer page = pages.get(pageNumber);
+        if (page != null) {
+            countHit(pageNumber);
+            return page;
+        }
+        Future<ByteBuffer> pendingRead = pendingReads.get(pageNumber);
+        if (pendingRead != null) {
+            try {
+                page = pendingRead.get();
+                countHit(pageNumber);
+                return page;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for page " + pageNumber);
+            } catch (ExecutionException e) {
+                // The prefetch failed; read the page here, where an error reaches the query
+            }
+        } else if (readAhead > 0 && (page = pages.get(pageNumber)) != null) {
+            // A prefetch may have cached the page and finished between the two lookups above
+            countHit(pageNumber);
+            return page;
+        }
+        misses.increment();
+        return pages.putIfAbsent(pageNumber, readPage(pageNumber));
+    }
+
+    private void countHit(int pageNumber) {
+        hits.increment();
+        if (!prefetched.isEmpty() && prefetched.remove(pageNumber)) {
+            prefetchHits.increment();
+        }
+    }
+
+    // Marked as prefetched before it is cached, so a getPage that finds it always counts a prefetch hit
+    @Override
+    public void prefetch(int pageNumber) {
+        if (readAhead == 0 || pages.containsKey(pageNumber) || pendingReads.containsKey(pageNumber)) {
+            return;
+        }
+        FutureTask<ByteBuffer> read = new FutureTask<>(() -> {
+            try {
+                ByteBuffer page = readPage(pageNumber);
+                prefetched.add(pageNumber);
+                ByteBuffer cached = pages.putIfAbsent(pageNumber, page);
+                if (cached != page) {
+                    prefetched.remove(pageNumber);  // A query read and cached it first
+                }
+                prefetches.increment();
+                return cached;
+            } finally {
+                pendingReads.remove(pageNumber);
+            }
+        });
+        if (pendingReads.putIfAbsent(pageNumber, read) == null) {
+            READ_AHEAD_POOL.execute(read);
+        }
+    }
+
+    private ByteBuffer readPage(int pageNumber) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(pageSize);
+        long position = (long) (pageNumber - 1) * pageSize;
+        while (block.hasRemaining()) {
+            if (channel.read(block, position + block.position()) < 0) {
+                throw new IOException("Page " + pageNumber + " is outside the database file");
+            }
+        }
+        return block.flip().asReadOnlyBuffer();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    // Pages read ahead, and how many of them were asked for before they left the cache
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        prefetches.reset();
+        prefetchHits.reset();
+    }
+}
@@ -0,0 +1,33 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface PageSource {
+    int getPageSize();
+
+    // Returns a read-only view of the whole page; callers decode it with absolute offsets
+    ByteBuffer getPage(int pageNumber) throws IOException;
+
+    // Same as getPage for a page of an overflow chain, which has no B-tree page header
+    default ByteBuffer getOverflowPage(int pageNumber) throws IOException {
+        return getPage(pageNumber);
+    }
+
+    // Bytes of each page available to B-tree content: the page size less the reserved bytes at header offset 20
+    default int getUsableSize() throws IOException {
+        return getPageSize() - Byte.toUnsignedInt(getPage(1).get(20));
+    }
+
+    // Hint that the page will be asked for soon, so a source that reads in the background can start loading it
+    default void prefetch(int pageNumber) {
+    }
+
+    // Pages ahead of a sequential scan that cursors should pass to prefetch; 0 when the source does not read ahead
+    default int getReadAhead() {
+        return 0;
+    }
+
+    // Statistics of the query reading through this source, or null when none are collected
+    default QueryStats getStats() {
+        return null;
+    }
+}
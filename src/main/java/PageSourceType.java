@@ -0,0 +1,6 @@
+public enum PageSourceType {
+    // Pages are read with positional FileChannel reads into a bounded LRU PageCache
+    CACHED,
+    // The whole file is memory-mapped and pages are zero-copy slices of the mapping
+    MAPPED
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Scans the subtrees of a table B-tree as separate tasks, each with its own cursor and Record
+public class ParallelScan {
+    // Aim for a few tasks per worker so uneven subtrees still balance out
+    private static final int TASKS_PER_THREAD = 4;
+    // Subtree results held at once per worker, finished or running, until the caller consumes them
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+
+    private final ForkJoinPool pool;
+    private final boolean preserveOrder;
+
+    public ParallelScan(ForkJoinPool pool, boolean preserveOrder) {
+        this.pool = pool;
+        this.preserveOrder = preserveOrder;
+    }
+
+    // pageFilter is passed to each task's cursor, and may be null
+    public long count(PageSource pageSource, int rootPage, IntPredicate pageFilter, Supplier<Record> newRecord,
+                      Predicate<Record> filter) throws IOException {
+        long[] total = new long[1];
+        run(pageSource, rootPage, subtreeRoot -> {
+            BTreeCursor cursor = new BTreeCursor(pageSource, subtreeRoot, null, pageFilter);
+            Record row = newRecord.get();
+            long count = 0;
+            while (nextRow(cursor, row)) {
+                if (filter.test(row)) {
+                    count++;
+                }
+            }
+            return count;
+        }, count -> total[0] += count);
+        return total[0];
+    }
+
+    // Chunks reach output on the calling thread, in rowid order or as each subtree finishes
+    public <C> void forEachRow(PageSource pageSource, int rootPage, IntPredicate pageFilter, Supplier<Record> newRecord,
+                               Predicate<Record> filter, Supplier<C> newChunk, RowRenderer<C> renderer,
+                               ResultConsumer<C> output) throws IOException {
+        run(pageSource, rootPage, subtreeRoot -> {
+            BTreeCursor cursor = new BTreeCursor(pageSource, subtreeRoot, null, pageFilter);
+            Record row = newRecord.get();
+            C chunk = newChunk.get();
+            while (nextRow(cursor, row)) {
+                if (filter.test(row)) {
+                    renderer.render(row, chunk);
+                }
+            }
+            return chunk;
+        }, output);
+    }
+
+    private <T> void run(PageSource pageSource, int rootPage, SubtreeTask<T> task, ResultConsumer<T> consumer) throws IOException {
+        List<Integer> subtreeRoots = splitSubtrees(pageSource, rootPage);
+        int maxInFlight = pool.getParallelism() * IN_FLIGHT_PER_THREAD;
+        // In order, the head of inFlight is awaited; otherwise whichever task finishes first
+        ExecutorCompletionService<T> completionService = preserveOrder ? null : new ExecutorCompletionService<>(pool);
+        ArrayDeque<Future<T>> inFlight = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            for (int consumed = 0; consumed < subtreeRoots.size(); consumed++) {
+                while (submitted < subtreeRoots.size() && inFlight.size() < maxInFlight) {
+                    int subtreeRoot = subtreeRoots.get(submitted++);
+                    Callable<T> scan = () -> task.scan(subtreeRoot);
+                    inFlight.add(preserveOrder ? pool.submit(scan) : completionService.submit(scan));
+                }
+                Future<T> next = preserveOrder ? inFlight.poll() : completionService.take();
+                inFlight.remove(next);
+                consumer.accept(next.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Parallel scan interrupted", e);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Parallel scan stopped: its thread pool was shut down", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException("Parallel scan failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            // Not interrupted: an interrupt during a positional read closes the shared channel
+            for (Future<T> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    // Subtree roots in rowid order: the pages just above the leaves, or the leaves when that gives too few tasks
+    List<Integer> splitSubtrees(PageSource pageSource, int rootPage) throws IOException {
+        List<Integer> subtreeRoots = new ArrayList<>();
+        subtreeRoots.add(rootPage);
+        while (true) {
+            List<Integer> children = new ArrayList<>();
+            for (int pageNumber : subtreeRoots) {
+                addChildren(pageSource, pageNumber, children);
+            }
+            // An interior page has at least two children, so an unchanged count means the pages are leaves
+            if (children.size() == subtreeRoots.size()) {
+                return subtreeRoots;
+            }
+            if (subtreeRoots.size() >= pool.getParallelism() * TASKS_PER_THREAD && !isInterior(pageSource, children.getFirst())) {
+                return subtreeRoots;
+            }
+            subtreeRoots = children;
+        }
+    }
+
+    private static boolean isInterior(PageSource pageSource, int pageNumber) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        return BTreePage.getPageType(page, BTreePage.getHeaderOffset(pageNumber)) == BTreePage.INTERIOR_TABLE;
+    }
+
+    private void addChildren(PageSource pageSource, int pageNumber, List<Integer> children) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte pageType = BTreePage.getPageType(page, headerOffset);
+        if (pageType != BTreePage.INTERIOR_TABLE) {
+            children.add(pageNumber);  // A leaf is its own subtree
+            return;
+        }
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        for (int cellPointer : BTreePage.getCellPointers(page, headerOffset, pageType, numberOfCells)) {
+            children.add(page.getInt(cellPointer));
+        }
+        children.add(BTreePage.getRightMostPointer(page, headerOffset));
+    }
+
+    private static boolean nextRow(BTreeCursor cursor, Record row) throws IOException {
+        if (!cursor.next()) {
+            return false;
+        }
+        row.reset(cursor);
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface SubtreeTask<T> {
+        T scan(int subtreeRoot) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface RowRenderer<C> {
+        void render(Record row, C chunk) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ResultConsumer<T> {
+        void accept(T result) throws IOException;
+    }
+}
@@ -0,0 +1,43 @@
+// A parsed SELECT; every execution binds a copy and resolves it against the current schema
+public class PreparedQuery {
+    // Normalised text the statement was parsed from and is cached under
+    final String sql;
+    final SQLQueryParser parser;
+
+    PreparedQuery(String sql, SQLQueryParser parser) {
+        this.sql = sql;
+        this.parser = parser;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return parser.parameterCount;
+    }
+
+    // Whitespace outside quoted strings collapses and a trailing ';' drops, so layout doesn't split cache entries
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            if (!quoted && Character.isWhitespace(c)) {
+                if (!normalized.isEmpty() && normalized.charAt(normalized.length() - 1) != ' ') {
+                    normalized.append(' ');
+                }
+                continue;
+            }
+            normalized.append(c);
+        }
+        int end = normalized.length();
+        while (end > 0 && (normalized.charAt(end - 1) == ' ' || normalized.charAt(end - 1) == ';')) {
+            end--;
+        }
+        return normalized.substring(0, end);
+    }
+}
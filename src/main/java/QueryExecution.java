@@ -0,0 +1,1103 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Planning and execution of one query; Database creates one per statement
+public class QueryExecution {
+    private static final Pattern JOIN_CONDITION_PATTERN = Pattern.compile("^\\s*([a-zA-Z0-9_.]+)\\s*=\\s*([a-zA-Z0-9_.]+)\\s*$");
+
+    private final Database database;
+    private final SchemaCatalog schema;
+    // Null until ANALYZE has run on the file as it is now
+    private final Statistics statistics;
+    // Null until .zonemap has run on the file as it is now
+    private final ZoneMap zoneMap;
+    // Where the rows go; EXPLAIN ANALYZE discards them
+    private final ResultSink results;
+    // Null when the query collects no statistics
+    private final QueryStats stats;
+    private final int parallelism;
+    private final boolean preserveOrder;
+    private final long memoryBudget;
+
+    QueryExecution(Database database, SchemaCatalog schema, Statistics statistics, ZoneMap zoneMap, ResultSink results,
+                   QueryStats stats, int parallelism, boolean preserveOrder, long memoryBudget) {
+        this.database = database;
+        this.schema = schema;
+        this.statistics = statistics;
+        this.zoneMap = zoneMap;
+        this.results = results;
+        this.stats = stats;
+        this.parallelism = parallelism;
+        this.preserveOrder = preserveOrder;
+        this.memoryBudget = memoryBudget;
+    }
+
+    private void printError(String message) {
+        database.printError(message);
+    }
+
+    // Counts the entries of a table or index B-tree from the page headers alone, without decoding any record
+    private long countEntries(PageSource cache, int pageNumber) throws IOException {
+        ByteBuffer page = cache.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte bTreePageType = BTreePage.getPageType(page, headerOffset);
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        long totalEntries = 0;
+        if (BTreePage.isInterior(bTreePageType)) {
+            totalEntries += handleInteriorCount(cache, page, headerOffset, bTreePageType, numberOfCells);
+        } else {
+            totalEntries += numberOfCells;
+        }
+        return totalEntries;
+    }
+
+    private long handleInteriorCount(PageSource cache, ByteBuffer page, int headerOffset, byte bTreePageType, int numberOfCells) throws IOException {
+        // Interior index cells are entries themselves, interior table cells are only separators
+        long totalEntries = bTreePageType == BTreePage.INTERIOR_INDEX ? numberOfCells : 0;
+        int[] cellPointers = BTreePage.getCellPointers(page, headerOffset, bTreePageType, numberOfCells);
+        for (int i = 0; i < numberOfCells; i++) {
+            int childPageNumber = page.getInt(cellPointers[i]);
+            totalEntries += countEntries(cache, childPageNumber);
+        }
+        totalEntries += countEntries(cache, BTreePage.getRightMostPointer(page, headerOffset));
+        return totalEntries;
+    }
+
+    void run(PageSource cache, SQLQueryParser parser) throws IOException {
+        if (parser.tableNames == null || parser.tableNames.isEmpty()) {
+            printError("Missing table name");
+            return;
+        }
+        if (parser.tableNames.size() > 1) {
+            executeJoin(cache, parser);
+            return;
+        }
+        String tableName = parser.tableNames.getFirst();
+        SchemaCatalog.TableInfo table = schema.getTable(tableName);
+        if (table == null) {
+            printError("Table " + tableName + " does not exist");
+            return;
+        }
+        String unknownColumn = WhereFilter.findUnknownColumn(parser.where, table.columns);
+        if (unknownColumn != null) {
+            printError("Column " + unknownColumn + " does not exist");
+            return;
+        }
+        parser.tableColumns = table.columns;
+        parser.tableColumnTypes = table.columnTypes;
+        parser.primaryKey = table.primaryKey;
+        parseColumnsOfCommand(cache, table, parser);
+    }
+
+    private boolean isColumnsExist(List<String> columns, String[] tableColumnsArray) {
+        int[] columnsIndex = new int[columns.size()];
+        for (int j = 0; j < columns.size(); j++) {
+            columnsIndex[j] = getTableColumnIndex(columns.get(j), tableColumnsArray);
+            if (columnsIndex[j] == -1) {
+                printError("Column " + columns.get(j) + " does not exist");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void parseColumnsOfCommand(PageSource cache, SchemaCatalog.TableInfo table, SQLQueryParser parser) throws IOException {
+        List<String> columns = parser.columns;
+        String[] tableColumnsArray = parser.tableColumns;
+        int rootPage = table.rootPage;
+        boolean isCount = columns.size() == 1 && columns.getFirst().equalsIgnoreCase("COUNT(*)") && parser.groupByClause.isEmpty();
+        // Handle COUNT(*) separately
+        if (isCount) {
+            results.begin(columns);
+            startStage("count");
+            long count = countRows(cache, table, parser);
+            results.startRow(1);
+            results.putLong(count);
+            results.endRow();
+            rowEmitted();
+            return;
+        }
+        if (!parser.groupByClause.isEmpty() || columns.stream().anyMatch(column -> AggregateFunction.parse(column) != null)) {
+            aggregateRows(cache, table, parser);
+            return;
+        }
+        if (!isColumnsExist(columns, tableColumnsArray)) {
+            return;
+        }
+
+        // Only the projected columns are decoded, and only for rows that passed the filter
+        int[] projection = new int[columns.size()];
+        for (int i = 0; i < projection.length; i++) {
+            projection[i] = getTableColumnIndex(columns.get(i), tableColumnsArray);
+        }
+
+        if (!parser.orderByClause.isEmpty()) {
+            sortRows(cache, table, parser, projection);
+            return;
+        }
+        results.begin(columns);
+
+        boolean hasLimit = !parser.limitClause.isEmpty() || !parser.offsetClause.isEmpty();
+        if (!hasLimit && isParallelFullScan(table, parser)) {
+            startStage("parallel scan");
+            IntPredicate pageFilter = getPageFilter(table, parser);
+            explain("PARALLEL SCAN " + table.name + (pageFilter == null ? "" : " USING ZONE MAP") + " (" + parallelism + " threads)");
+            ResultSink output = results;
+            new ParallelScan(database.getScanPool(), preserveOrder).forEachRow(cache, rootPage, pageFilter, () -> newRecord(table), compileWhereClause(parser),
+                    output::newChunk, (row, chunk) -> {
+                        writeRow(chunk, row, projection);
+                        rowEmitted();
+                    }, output::writeChunk);
+            return;
+        }
+
+        // scan -> filter -> limit, pulled one row at a time by the output loop below
+        startStage("scan");
+        RowSource rows = openRowSource(cache, table, parser);
+        if (parser.where != null) {
+            rows = RowSource.filter(rows, compileWhereClause(parser));
+        }
+        if (hasLimit) {
+            long limit = parser.limitClause.isEmpty() ? Long.MAX_VALUE : Long.parseLong(parser.limitClause);
+            long offset = parser.offsetClause.isEmpty() ? 0 : Long.parseLong(parser.offsetClause);
+            rows = RowSource.limit(rows, offset, limit);
+        }
+
+        Record row;
+        while ((row = rows.nextRow()) != null) {
+            writeRow(results, row, projection);
+            rowEmitted();
+        }
+    }
+
+    // Values are copied from the page into the sink; large ones are streamed off their overflow chain
+    private void writeRow(ResultSink sink, Record row, int[] projection) throws IOException {
+        sink.startRow(projection.length);
+        for (int column : projection) {
+            sink.putColumn(row, column);
+        }
+        sink.endRow();
+    }
+
+    // Feeds the filtered rows to a HashAggregator and prints one line per group in select list order
+    private void aggregateRows(PageSource cache, SchemaCatalog.TableInfo table, SQLQueryParser parser) throws IOException {
+        List<String> groupBy = parser.getGroupByColumns();
+        int[] groupColumns = new int[groupBy.size()];
+        for (int i = 0; i < groupColumns.length; i++) {
+            groupColumns[i] = table.getOrdinal(groupBy.get(i));
+            if (groupColumns[i] == -1) {
+                printError("Column " + groupBy.get(i) + " does not exist");
+                return;
+            }
+        }
+        // Each select list item becomes a position in the aggregator's result: group columns first, then aggregates
+        List<AggregateFunction> aggregates = new ArrayList<>();
+        int[] resultIndexes = new int[parser.columns.size()];
+        for (int i = 0; i < resultIndexes.length; i++) {
+            String column = parser.columns.get(i);
+            AggregateFunction aggregate = AggregateFunction.parse(column);
+            if (aggregate != null) {
+                aggregate.column = aggregate.hasArgument() ? table.getOrdinal(aggregate.argument) : -1;
+                if (aggregate.hasArgument() && aggregate.column == -1) {
+                    printError("Column " + aggregate.argument + " does not exist");
+                    return;
+                }
+                resultIndexes[i] = groupColumns.length + aggregates.size();
+                aggregates.add(aggregate);
+                continue;
+            }
+            resultIndexes[i] = indexOfIgnoreCase(groupBy, column);
+            if (resultIndexes[i] == -1) {
+                printError(table.getOrdinal(column) == -1 ? "Column " + column + " does not exist"
+                        : "Column " + column + " must appear in the GROUP BY clause or be used in an aggregate function");
+                return;
+            }
+        }
+
+        // ORDER BY terms are positions in the same result, adding any aggregate that is not selected
+        List<SQLQueryParser.OrderByTerm> terms = parser.getOrderByTerms();
+        int[] sortIndexes = new int[terms.size()];
+        for (int i = 0; i < sortIndexes.length; i++) {
+            String expression = terms.get(i).expression;
+            int position = getSelectListPosition(expression, resultIndexes.length);
+            AggregateFunction aggregate = AggregateFunction.parse(expression);
+            if (position != -1) {
+                sortIndexes[i] = resultIndexes[position];
+            } else if (aggregate != null) {
+                int aggregateIndex = findOrAddAggregate(aggregates, aggregate, table);
+                sortIndexes[i] = aggregateIndex == -1 ? -1 : groupColumns.length + aggregateIndex;
+            } else {
+                sortIndexes[i] = indexOfIgnoreCase(groupBy, expression);
+            }
+            if (sortIndexes[i] < 0) {
+                printError("Cannot order by " + expression);
+                return;
+            }
+        }
+
+        results.begin(parser.columns);
+        startStage("aggregate");
+        HashAggregator aggregator = new HashAggregator(groupColumns, aggregates, memoryBudget);
+        RowSource rows = openRowSource(cache, table, parser);
+        if (parser.where != null) {
+            rows = RowSource.filter(rows, compileWhereClause(parser));
+        }
+        Record row;
+        while ((row = rows.nextRow()) != null) {
+            aggregator.add(row);
+        }
+
+        long limit = parser.limitClause.isEmpty() ? Long.MAX_VALUE : Long.parseLong(parser.limitClause);
+        long offset = parser.offsetClause.isEmpty() ? 0 : Long.parseLong(parser.offsetClause);
+        startStage(sortIndexes.length > 0 ? "sort" : "output");
+        if (sortIndexes.length > 0) {
+            Sorter sorter = newSorter(terms, offset, limit);
+            RowBuffer entry = new RowBuffer();
+            aggregator.finish(group -> {
+                entry.clear();
+                for (int sortIndex : sortIndexes) {
+                    entry.putValue(group[sortIndex]);
+                }
+                for (int resultIndex : resultIndexes) {
+                    entry.putValue(group[resultIndex]);
+                }
+                sorter.add(entry);
+            });
+            printSorted(sorter, sortIndexes.length, resultIndexes.length, offset);
+            return;
+        }
+
+        long[] position = new long[1];
+        aggregator.finish(group -> {
+            long current = position[0]++;
+            if (current < offset || current - offset >= limit) {
+                return;
+            }
+            results.startRow(resultIndexes.length);
+            for (int resultIndex : resultIndexes) {
+                results.putValue(group[resultIndex]);
+            }
+            results.endRow();
+            rowEmitted();
+        });
+    }
+
+    // Returns the index of an equal aggregate in the list, adding it when there is none, or -1 for an unknown column
+    private int findOrAddAggregate(List<AggregateFunction> aggregates, AggregateFunction aggregate, SchemaCatalog.TableInfo table) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (aggregates.get(i).kind == aggregate.kind && aggregates.get(i).argument.equalsIgnoreCase(aggregate.argument)) {
+                return i;
+            }
+        }
+        aggregate.column = aggregate.hasArgument() ? table.getOrdinal(aggregate.argument) : -1;
+        if (aggregate.hasArgument() && aggregate.column == -1) {
+            return -1;
+        }
+        aggregates.add(aggregate);
+        return aggregates.size() - 1;
+    }
+
+    // Plain SELECT with ORDER BY: each matching row becomes a sort entry of its sort keys and projected columns
+    private void sortRows(PageSource cache, SchemaCatalog.TableInfo table, SQLQueryParser parser, int[] projection) throws IOException {
+        List<SQLQueryParser.OrderByTerm> terms = parser.getOrderByTerms();
+        int[] sortColumns = new int[terms.size()];
+        for (int i = 0; i < sortColumns.length; i++) {
+            String expression = terms.get(i).expression;
+            int position = getSelectListPosition(expression, projection.length);
+            sortColumns[i] = position != -1 ? projection[position] : table.getOrdinal(expression);
+            if (sortColumns[i] == -1) {
+                printError("Column " + expression + " does not exist");
+                return;
+            }
+        }
+
+        long limit = parser.limitClause.isEmpty() ? Long.MAX_VALUE : Long.parseLong(parser.limitClause);
+        long offset = parser.offsetClause.isEmpty() ? 0 : Long.parseLong(parser.offsetClause);
+        results.begin(parser.columns);
+        startStage("sort");
+        Sorter sorter = newSorter(terms, offset, limit);
+        RowSource rows = openRowSource(cache, table, parser);
+        if (parser.where != null) {
+            rows = RowSource.filter(rows, compileWhereClause(parser));
+        }
+        RowBuffer entry = new RowBuffer();
+        Record row;
+        while ((row = rows.nextRow()) != null) {
+            entry.clear();
+            for (int sortColumn : sortColumns) {
+                entry.putColumn(row, sortColumn);
+            }
+            for (int column : projection) {
+                entry.putColumn(row, column);
+            }
+            sorter.add(entry);
+        }
+        printSorted(sorter, sortColumns.length, projection.length, offset);
+    }
+
+    // A LIMIT turns the sort into a top-N heap of offset + limit entries
+    private Sorter newSorter(List<SQLQueryParser.OrderByTerm> terms, long offset, long limit) {
+        boolean[] descending = new boolean[terms.size()];
+        for (int i = 0; i < descending.length; i++) {
+            descending[i] = terms.get(i).descending;
+        }
+        long keep = limit == Long.MAX_VALUE || offset > Long.MAX_VALUE - limit ? Long.MAX_VALUE : offset + limit;
+        return new Sorter(descending, keep, memoryBudget);
+    }
+
+    private void printSorted(Sorter sorter, int sortKeys, int outputColumns, long offset) throws IOException {
+        startStage("output");
+        long[] position = new long[1];
+        sorter.finish(entry -> {
+            if (position[0]++ < offset) {
+                return;
+            }
+            writeValues(entry, RowBuffer.skip(entry, 0, sortKeys), outputColumns);
+        });
+    }
+
+    // Writes count encoded values starting at valueOffset as one result row
+    private void writeValues(byte[] values, int valueOffset, int count) throws IOException {
+        results.startRow(count);
+        for (int i = 0; i < count; i++) {
+            results.putEncoded(values, valueOffset);
+            valueOffset += RowBuffer.getEncodedLength(values, valueOffset);
+        }
+        results.endRow();
+        rowEmitted();
+    }
+
+    // 0-based select list position of an ORDER BY term written as a number, or -1
+    private int getSelectListPosition(String expression, int selectListSize) {
+        try {
+            int position = Integer.parseInt(expression.trim());
+            return position >= 1 && position <= selectListSize ? position - 1 : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int indexOfIgnoreCase(List<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name.trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Predicate<Record> compileWhereClause(SQLQueryParser parser) {
+        Predicate<Record> filter = new WhereFilter().compile(parser.where, parser.tableColumns, parser.tableColumnTypes);
+        if (stats == null) {
+            return filter;
+        }
+        return row -> {
+            if (filter.test(row)) {
+                return true;
+            }
+            stats.rowsFilteredOut.increment();
+            return false;
+        };
+    }
+
+    private void startStage(String name) {
+        if (stats != null) {
+            stats.startStage(name);
+        }
+    }
+
+    private void explain(String step) {
+        if (stats != null) {
+            stats.plan.add(step);
+        }
+    }
+
+    // Parallel scans render rows on worker threads, so this may run on several threads at once
+    private void rowEmitted() {
+        if (stats != null) {
+            stats.rowsEmitted.increment();
+        }
+    }
+
+    // A parallel scan only pays off when neither a rowid range nor an index seek can narrow the query
+    private boolean isParallelFullScan(SchemaCatalog.TableInfo table, SQLQueryParser parser) {
+        return parallelism > 1 && getRowidRange(parser) == null
+                && chooseIndexSeek(table, new WhereFilter().getAndConditions(parser.where), true) == null;
+    }
+
+    // Leaf cells without a WHERE clause, cursor positions when a key range answers it, else filtered rows
+    private long countRows(PageSource cache, SchemaCatalog.TableInfo table, SQLQueryParser parser) throws IOException {
+        if (parser.where == null) {
+            SchemaCatalog.IndexInfo countIndex = findSmallestIndex(table);
+            explain("COUNT " + table.name + " FROM PAGE HEADERS" + (countIndex == null ? "" : " OF INDEX " + countIndex.name));
+            return countEntries(cache, countIndex == null ? table.rootPage : countIndex.rootPage);
+        }
+        List<WhereFilter.Condition> conditions = new WhereFilter().getAndConditions(parser.where);
+        KeyRange rowidRange = getRowidRange(parser);
+        BTreeCursor countCursor = null;
+        if (rowidRange != null && isAnsweredByRange(conditions, parser.primaryKey)) {
+            countCursor = new BTreeCursor(cache, table.rootPage, rowidRange);
+        } else if (rowidRange == null) {
+            IndexSeek indexSeek = chooseIndexSeek(table, conditions, false);
+            if (indexSeek != null && isAnsweredByRange(conditions, indexSeek.column)) {
+                countCursor = new BTreeCursor(cache, indexSeek.rootPage, indexSeek.keyRange);
+            }
+        }
+        long count = 0;
+        if (countCursor != null) {
+            explain("COUNT " + table.name + " USING " + (rowidRange != null ? "ROWID RANGE" : "INDEX"));
+            while (countCursor.next()) {
+                count++;
+            }
+            return count;
+        }
+        if (isParallelFullScan(table, parser)) {
+            IntPredicate pageFilter = getPageFilter(table, parser);
+            explain("PARALLEL SCAN " + table.name + (pageFilter == null ? "" : " USING ZONE MAP") + " (" + parallelism + " threads)");
+            return new ParallelScan(database.getScanPool(), preserveOrder).count(cache, table.rootPage, pageFilter, () -> newRecord(table),
+                    compileWhereClause(parser));
+        }
+        RowSource rows = RowSource.filter(openRowSource(cache, table, parser), compileWhereClause(parser));
+        while (rows.nextRow() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    // The range keeps the tightest bound on each side and excludes NULL keys, so it alone can decide the matches
+    private boolean isAnsweredByRange(List<WhereFilter.Condition> conditions, String column) {
+        boolean hasEquality = false;
+        for (WhereFilter.Condition condition : conditions) {
+            if (!condition.column.equalsIgnoreCase(column) || condition.operator.equals("<>") || condition.operator.equals("!=")) {
+                return false;
+            }
+            hasEquality |= condition.operator.equals("=");
+        }
+        // KeyRange keeps only the first equality, so mixing it with other conditions needs the filter
+        return !hasEquality || conditions.size() == 1;
+    }
+
+    // The full, non-partial index with the fewest key columns, or null when the table has none
+    private SchemaCatalog.IndexInfo findSmallestIndex(SchemaCatalog.TableInfo table) {
+        SchemaCatalog.IndexInfo smallestIndex = null;
+        int smallestColumns = Integer.MAX_VALUE;
+        for (SchemaCatalog.IndexInfo index : table.indexes) {
+            if (index.columns.isEmpty() || index.partial) {
+                continue;  // Partial indexes do not hold every row
+            }
+            if (index.columns.size() < smallestColumns) {
+                smallestIndex = index;
+                smallestColumns = index.columns.size();
+            }
+        }
+        return smallestIndex;
+    }
+
+    // Picks the access path: a rowid range on the INTEGER PRIMARY KEY, then an index seek, then a full table scan
+    private RowSource openRowSource(PageSource cache, SchemaCatalog.TableInfo table, SQLQueryParser parser) throws IOException {
+        KeyRange rowidRange = getRowidRange(parser);
+        if (rowidRange != null) {
+            IntPredicate pageFilter = getPageFilter(table, parser);
+            explain("SEARCH " + table.name + " USING ROWID RANGE" + (pageFilter == null ? "" : " AND ZONE MAP"));
+            return scanTable(new BTreeCursor(cache, table.rootPage, rowidRange, pageFilter), table);
+        }
+        RowSource indexRows = getRowsUsingIndex(cache, table, parser);
+        if (indexRows != null) {
+            return indexRows;
+        }
+        IntPredicate pageFilter = getPageFilter(table, parser);
+        explain("SCAN " + table.name + (pageFilter == null ? "" : " USING ZONE MAP")
+                + formatEstimate(estimateRows(table, new WhereFilter().getAndConditions(parser.where))));
+        return scanTable(new BTreeCursor(cache, table.rootPage, null, pageFilter), table);
+    }
+
+    // Null when the table has no zone map or no condition is on a zoned column
+    private IntPredicate getPageFilter(SchemaCatalog.TableInfo table, SQLQueryParser parser) {
+        ZoneMap.TableZones zones = zoneMap == null ? null : zoneMap.getTable(table.name);
+        return zones == null ? null : zones.getPageFilter(table, new WhereFilter().getAndConditions(parser.where));
+    }
+
+    // Bounds on the INTEGER PRIMARY KEY alias from the WHERE clause, or null when it is not constrained
+    private KeyRange getRowidRange(SQLQueryParser parser) {
+        if (parser.primaryKey == null) {
+            return null;
+        }
+        List<WhereFilter.Condition> conditions = new WhereFilter().getAndConditions(parser.where);
+        return KeyRange.fromConditions(conditions, parser.primaryKey, "INTEGER");
+    }
+
+    private RowSource scanTable(BTreeCursor tableCursor, SchemaCatalog.TableInfo table) {
+        Record row = newRecord(table);
+        return () -> tableCursor.next() ? readRow(tableCursor, row) : null;
+    }
+
+    private Record newRecord(SchemaCatalog.TableInfo table) {
+        return new Record(table.rowidColumn, table.columns.length);
+    }
+
+    // Points the record at the cursor's current cell without decoding any column yet
+    private Record readRow(BTreeCursor tableCursor, Record row) throws IOException {
+        return row.reset(tableCursor);
+    }
+
+    // Returns null when no index on the table can narrow the WHERE clause, so the caller falls back to a scan
+    private RowSource getRowsUsingIndex(PageSource cache, SchemaCatalog.TableInfo table, SQLQueryParser parser) throws IOException {
+        List<WhereFilter.Condition> conditions = new WhereFilter().getAndConditions(parser.where);
+        IndexSeek indexSeek = chooseIndexSeek(table, conditions, true);
+        if (indexSeek == null) {
+            return null;
+        }
+
+        explain("SEARCH " + table.name + " USING INDEX " + indexSeek.name + " (" + indexSeek.column + ")"
+                + formatEstimate(estimateRows(table, getConditionsOn(conditions, indexSeek.column))));
+        // Rows are looked up one index entry at a time, in index order
+        BTreeCursor indexCursor = new BTreeCursor(cache, indexSeek.rootPage, indexSeek.keyRange);
+        BTreeCursor tableCursor = new BTreeCursor(cache, table.rootPage, null);
+        Record row = newRecord(table);
+        return () -> {
+            while (indexCursor.next()) {
+                if (tableCursor.moveToRowid(indexCursor.getRowid())) {
+                    return readRow(tableCursor, row);
+                }
+            }
+            return null;
+        };
+    }
+
+    // With statistics the cheapest seek, or null when a full scan is cheaper; without, an equality seek first
+    private IndexSeek chooseIndexSeek(SchemaCatalog.TableInfo table, List<WhereFilter.Condition> conditions, boolean lookupRows) {
+        if (conditions.isEmpty()) {
+            return null;
+        }
+        List<IndexSeek> seeks = new ArrayList<>();
+        for (SchemaCatalog.IndexInfo index : table.indexes) {
+            int columnIndex = index.columns.isEmpty() || index.partial ? -1 : table.getOrdinal(index.columns.getFirst());
+            if (columnIndex == -1) {
+                continue;  // Partial indexes do not hold every row
+            }
+            String affinity = SerialType.getAffinity(table.columnTypes[columnIndex]);
+            KeyRange range = KeyRange.fromConditions(conditions, table.columns[columnIndex], affinity);
+            if (range != null) {
+                seeks.add(new IndexSeek(index.name, index.rootPage, table.columns[columnIndex], range));
+            }
+        }
+        Statistics.TreeStatistics tableStatistics = statistics == null ? null : statistics.getTree(table.name);
+        if (tableStatistics != null && seeks.stream().allMatch(seek -> statistics.getTree(seek.name) != null)) {
+            IndexSeek best = null;
+            double bestCost = tableStatistics.leafPages;  // A full scan
+            for (IndexSeek seek : seeks) {
+                Statistics.TreeStatistics indexStatistics = statistics.getTree(seek.name);
+                double rows = estimateRows(table, getConditionsOn(conditions, seek.column));
+                double cost = indexStatistics.depth + rows / Math.max(indexStatistics.entries, 1) * indexStatistics.leafPages
+                        + (lookupRows ? rows * tableStatistics.depth : 0);
+                if (cost < bestCost) {
+                    best = seek;
+                    bestCost = cost;
+                }
+            }
+            return best;
+        }
+        IndexSeek best = null;
+        for (IndexSeek seek : seeks) {
+            if (best == null || (seek.keyRange.isEquality() && !best.keyRange.isEquality())) {
+                best = seek;
+            }
+        }
+        return best;
+    }
+
+    private static List<WhereFilter.Condition> getConditionsOn(List<WhereFilter.Condition> conditions, String column) {
+        return conditions.stream().filter(condition -> condition.column.equalsIgnoreCase(column)).toList();
+    }
+
+    // Rows of the table expected to meet all the AND conditions, or -1 when the table has not been analysed
+    private double estimateRows(SchemaCatalog.TableInfo table, List<WhereFilter.Condition> conditions) {
+        Statistics.TreeStatistics tableStatistics = statistics == null ? null : statistics.getTree(table.name);
+        return tableStatistics == null ? -1 : tableStatistics.entries * statistics.getSelectivity(table, conditions);
+    }
+
+    private static String formatEstimate(double rows) {
+        return rows < 0 ? "" : " (~" + Math.round(rows) + " rows)";
+    }
+
+    // Inner equi-join: an index nested-loop join when a side can be looked up by its join column, else a hash join
+    private void executeJoin(PageSource cache, SQLQueryParser parser) throws IOException {
+        JoinSide[] sides = new JoinSide[2];
+        for (int i = 0; i < sides.length; i++) {
+            SchemaCatalog.TableInfo table = schema.getTable(parser.tableNames.get(i));
+            if (table == null) {
+                printError("Table " + parser.tableNames.get(i) + " does not exist");
+                return;
+            }
+            sides[i] = new JoinSide(table, parser.tableAliases.get(i));
+        }
+        if (sides[0].alias.equalsIgnoreCase(sides[1].alias)) {
+            printError("Ambiguous table name " + sides[0].alias);
+            return;
+        }
+        if (!parser.groupByClause.isEmpty() || parser.columns.stream().anyMatch(column -> AggregateFunction.parse(column) != null)) {
+            printError("GROUP BY and aggregate functions are not supported in a join");
+            return;
+        }
+
+        Matcher joinCondition = JOIN_CONDITION_PATTERN.matcher(parser.joinCondition);
+        if (!joinCondition.matches()) {
+            printError("Join condition must be an equality of two columns: " + parser.joinCondition);
+            return;
+        }
+        JoinColumn leftKey = resolveJoinColumn(sides, joinCondition.group(1));
+        JoinColumn rightKey = resolveJoinColumn(sides, joinCondition.group(2));
+        if (leftKey == null || rightKey == null) {
+            return;
+        }
+        if (leftKey.side == rightKey.side) {
+            printError("Join condition must compare a column of each table: " + parser.joinCondition);
+            return;
+        }
+        sides[leftKey.side].keyColumn = leftKey.column;
+        sides[rightKey.side].keyColumn = rightKey.column;
+
+        List<JoinColumn> selected = new ArrayList<>();
+        for (String column : parser.columns) {
+            if (!addSelectedColumns(sides, column, selected)) {
+                return;
+            }
+        }
+        List<JoinColumn> sortColumns = new ArrayList<>();
+        List<SQLQueryParser.OrderByTerm> terms = parser.getOrderByTerms();
+        for (SQLQueryParser.OrderByTerm term : terms) {
+            int position = getSelectListPosition(term.expression, selected.size());
+            JoinColumn sortColumn = position != -1 ? selected.get(position) : resolveJoinColumn(sides, term.expression);
+            if (sortColumn == null) {
+                return;
+            }
+            sortColumns.add(sortColumn);
+        }
+        // Each side only carries the columns the output needs, in the order they are first used
+        for (JoinColumn column : sortColumns) {
+            column.slot = sides[column.side].addOutputColumn(column.column);
+        }
+        for (JoinColumn column : selected) {
+            column.slot = sides[column.side].addOutputColumn(column.column);
+        }
+
+        if (!pushDownWhereClause(sides, parser.where)) {
+            return;
+        }
+        List<String> selectedNames = new ArrayList<>();
+        for (JoinColumn column : selected) {
+            selectedNames.add(sides[column.side].table.columns[column.column]);
+        }
+        results.begin(selectedNames);
+
+        long limit = parser.limitClause.isEmpty() ? Long.MAX_VALUE : Long.parseLong(parser.limitClause);
+        long offset = parser.offsetClause.isEmpty() ? 0 : Long.parseLong(parser.offsetClause);
+        JoinOutput output = new JoinOutput(sides, sortColumns, selected, terms.isEmpty() ? null : newSorter(terms, offset, limit), offset, limit);
+        // SQLite compares the two columns as numbers when either has numeric affinity
+        boolean numericKey = isNumericAffinity(sides[0]) || isNumericAffinity(sides[1]);
+        JoinSide lookupSide = chooseLookupSide(cache, sides, numericKey);
+        if (lookupSide != null) {
+            indexNestedLoopJoin(cache, sides[lookupSide == sides[0] ? 1 : 0], lookupSide, numericKey, output);
+        } else {
+            hashJoin(cache, sides, numericKey, output);
+        }
+        output.finish();
+    }
+
+    // "alias.column" or a name in exactly one of the tables; otherwise prints an error and returns null
+    private JoinColumn resolveJoinColumn(JoinSide[] sides, String name) {
+        name = name.trim();
+        int dot = name.indexOf('.');
+        String qualifier = dot == -1 ? null : name.substring(0, dot);
+        String column = name.substring(dot + 1);
+        JoinColumn found = null;
+        for (int side = 0; side < sides.length; side++) {
+            if (qualifier != null && !qualifier.equalsIgnoreCase(sides[side].alias)) {
+                continue;
+            }
+            int ordinal = sides[side].table.getOrdinal(column);
+            if (ordinal == -1) {
+                continue;
+            }
+            if (found != null) {
+                printError("Ambiguous column name " + name);
+                return null;
+            }
+            found = new JoinColumn(side, ordinal);
+        }
+        if (found == null) {
+            printError("Column " + name + " does not exist");
+        }
+        return found;
+    }
+
+    // Expands "*" and "alias.*" to the table columns, in table order
+    private boolean addSelectedColumns(JoinSide[] sides, String column, List<JoinColumn> selected) {
+        if (column.equals("*") || column.endsWith(".*")) {
+            String qualifier = column.equals("*") ? null : column.substring(0, column.length() - 2).trim();
+            boolean matched = false;
+            for (int side = 0; side < sides.length; side++) {
+                if (qualifier == null || qualifier.equalsIgnoreCase(sides[side].alias)) {
+                    matched = true;
+                    for (int ordinal = 0; ordinal < sides[side].table.columns.length; ordinal++) {
+                        selected.add(new JoinColumn(side, ordinal));
+                    }
+                }
+            }
+            if (!matched) {
+                printError("Table " + qualifier + " does not exist");
+            }
+            return matched;
+        }
+        JoinColumn resolved = resolveJoinColumn(sides, column);
+        if (resolved == null) {
+            return false;
+        }
+        selected.add(resolved);
+        return true;
+    }
+
+    // Splits an AND-only WHERE clause into one clause per table, rewritten with that table's own column names
+    private boolean pushDownWhereClause(JoinSide[] sides, WhereFilter.Node where) {
+        List<List<WhereFilter.Condition>> clauses = List.of(new ArrayList<>(), new ArrayList<>());
+        if (where != null) {
+            List<WhereFilter.Condition> conditions = new WhereFilter().getAndConditions(where);
+            if (conditions.isEmpty()) {
+                printError("Only AND conditions are supported in the WHERE clause of a join");
+                return false;
+            }
+            for (WhereFilter.Condition condition : conditions) {
+                JoinColumn column = resolveJoinColumn(sides, condition.column);
+                if (column == null) {
+                    return false;
+                }
+                clauses.get(column.side).add(new WhereFilter.Condition(sides[column.side].table.columns[column.column],
+                        condition.operator, condition.value, condition.quoted));
+            }
+        }
+        // Each side gets a parser of its own so its scan can use a rowid range or index seek like a single table query
+        for (int side = 0; side < sides.length; side++) {
+            SQLQueryParser sideParser = new SQLQueryParser();
+            sideParser.where = WhereFilter.and(clauses.get(side));
+            sideParser.tableColumns = sides[side].table.columns;
+            sideParser.tableColumnTypes = sides[side].table.columnTypes;
+            sideParser.primaryKey = sides[side].table.primaryKey;
+            sides[side].parser = sideParser;
+        }
+        return true;
+    }
+
+    private boolean isNumericAffinity(JoinSide side) {
+        String affinity = SerialType.getAffinity(side.table.columnTypes[side.keyColumn]);
+        return affinity.equals("INTEGER") || affinity.equals("REAL") || affinity.equals("NUMERIC");
+    }
+
+    // The larger side that can be looked up by key; null when neither can or statistics favour a hash join
+    private JoinSide chooseLookupSide(PageSource cache, JoinSide[] sides, boolean numericKey) throws IOException {
+        JoinSide best = null;
+        for (JoinSide side : sides) {
+            if (side.keyColumn == side.table.rowidColumn) {
+                side.lookupIndex = null;
+            } else {
+                side.lookupIndex = findLookupIndex(side);
+                // Keys converted to numbers for the comparison would miss TEXT stored in the index
+                if (side.lookupIndex == null || (numericKey && !isNumericAffinity(side))) {
+                    continue;
+                }
+            }
+            if (best == null || isLarger(cache, side, best)) {
+                best = side;
+            }
+        }
+        if (best == null || !isEstimated(sides)) {
+            return best;
+        }
+        JoinSide outer = best == sides[0] ? sides[1] : sides[0];
+        Statistics.TreeStatistics tableStatistics = statistics.getTree(best.table.name);
+        Statistics.TreeStatistics indexStatistics = best.lookupIndex == null ? null : statistics.getTree(best.lookupIndex.name);
+        // Every row with the key is looked up before the side's own WHERE conditions are checked
+        double matchesPerKey = best.lookupIndex == null ? 1
+                : (double) tableStatistics.entries / Math.max(tableStatistics.columns[best.keyColumn].distinctCount, 1);
+        double pagesPerLookup = (indexStatistics == null ? 0 : indexStatistics.depth) + matchesPerKey * tableStatistics.depth;
+        return outer.getEstimatedRows() * pagesPerLookup <= tableStatistics.leafPages ? best : null;
+    }
+
+    // Compares the rows expected from each side when both tables have been analysed, and their leaf pages otherwise
+    private boolean isLarger(PageSource cache, JoinSide side, JoinSide other) throws IOException {
+        if (side.getEstimatedRows() >= 0 && other.getEstimatedRows() >= 0) {
+            return side.getEstimatedRows() > other.getEstimatedRows();
+        }
+        return side.getLeafPages(cache) > other.getLeafPages(cache);
+    }
+
+    private boolean isEstimated(JoinSide[] sides) {
+        return sides[0].getEstimatedRows() >= 0 && sides[1].getEstimatedRows() >= 0;
+    }
+
+    private SchemaCatalog.IndexInfo findLookupIndex(JoinSide side) {
+        for (SchemaCatalog.IndexInfo index : side.table.indexes) {
+            if (!index.partial && !index.columns.isEmpty() && side.table.getOrdinal(index.columns.getFirst()) == side.keyColumn) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    // Scans the outer table and seeks the inner table by each outer key, through its index or straight by rowid
+    private void indexNestedLoopJoin(PageSource cache, JoinSide outer, JoinSide inner, boolean numericKey, JoinOutput output) throws IOException {
+        startStage("join");
+        explain("INDEX NESTED-LOOP JOIN " + inner.table.name + " USING " + (inner.lookupIndex == null ? "ROWID" : "INDEX " + inner.lookupIndex.name));
+        RowSource outerRows = openSideRows(cache, outer);
+        Predicate<Record> innerFilter = compileWhereClause(inner.parser);
+        BTreeCursor tableCursor = new BTreeCursor(cache, inner.table.rootPage, null);
+        Record innerRow = newRecord(inner.table);
+        RowBuffer outerEntry = new RowBuffer();
+        RowBuffer innerEntry = new RowBuffer();
+        boolean wanted = true;
+        Record row;
+        while (wanted && (row = outerRows.nextRow()) != null) {
+            if (row.isNull(outer.keyColumn)) {
+                continue;  // NULL never equals anything
+            }
+            putSideEntry(outerEntry, row, outer, numericKey);
+            int outerColumnsOffset = RowBuffer.getEncodedLength(outerEntry.bytes, 0);
+            Object key = RowBuffer.decode(outerEntry.bytes, 0);
+            if (inner.lookupIndex == null) {
+                if (key instanceof Long rowid && tableCursor.moveToRowid(rowid) && innerFilter.test(readRow(tableCursor, innerRow))) {
+                    putSideEntry(innerEntry, innerRow, inner, numericKey);
+                    wanted = output.add(outer, outerEntry.bytes, outerColumnsOffset, innerEntry.bytes, RowBuffer.getEncodedLength(innerEntry.bytes, 0));
+                }
+                continue;
+            }
+            BTreeCursor indexCursor = new BTreeCursor(cache, inner.lookupIndex.rootPage, KeyRange.equalTo(key));
+            while (wanted && indexCursor.next()) {
+                if (tableCursor.moveToRowid(indexCursor.getRowid()) && innerFilter.test(readRow(tableCursor, innerRow))) {
+                    putSideEntry(innerEntry, innerRow, inner, numericKey);
+                    wanted = output.add(outer, outerEntry.bytes, outerColumnsOffset, innerEntry.bytes, RowBuffer.getEncodedLength(innerEntry.bytes, 0));
+                }
+            }
+        }
+    }
+
+    // Builds on the smaller side and streams the other one through the probe
+    private void hashJoin(PageSource cache, JoinSide[] sides, boolean numericKey, JoinOutput output) throws IOException {
+        JoinSide build = isLarger(cache, sides[0], sides[1]) ? sides[1] : sides[0];
+        JoinSide probe = build == sides[0] ? sides[1] : sides[0];
+        startStage("build");
+        explain("HASH JOIN BUILD " + build.table.name + " PROBE " + probe.table.name);
+        HashJoin join = new HashJoin(memoryBudget);
+        RowBuffer entry = new RowBuffer();
+        RowSource buildRows = openSideRows(cache, build);
+        Record row;
+        while ((row = buildRows.nextRow()) != null) {
+            if (!row.isNull(build.keyColumn)) {
+                putSideEntry(entry, row, build, numericKey);
+                join.addBuildRow(entry);
+            }
+        }
+        join.finishBuild();
+
+        startStage("probe");
+        boolean[] wanted = {true};
+        HashJoin.MatchConsumer consumer = (buildEntry, buildColumnsOffset, probeEntry, probeColumnsOffset) -> {
+            if (wanted[0]) {
+                wanted[0] = output.add(probe, probeEntry, probeColumnsOffset, buildEntry, buildColumnsOffset);
+            }
+        };
+        RowSource probeRows = openSideRows(cache, probe);
+        while (wanted[0] && (row = probeRows.nextRow()) != null) {
+            if (!row.isNull(probe.keyColumn)) {
+                putSideEntry(entry, row, probe, numericKey);
+                join.probe(entry, consumer);
+            }
+        }
+        join.finish(consumer);
+    }
+
+    private RowSource openSideRows(PageSource cache, JoinSide side) throws IOException {
+        RowSource rows = openRowSource(cache, side.table, side.parser);
+        return side.parser.where == null ? rows : RowSource.filter(rows, compileWhereClause(side.parser));
+    }
+
+    // A side entry is the join key followed by the side's output columns
+    private void putSideEntry(RowBuffer entry, Record row, JoinSide side, boolean numericKey) {
+        entry.clear();
+        putJoinKey(entry, row, side.keyColumn, numericKey);
+        for (int column : side.outputColumns) {
+            entry.putColumn(row, column);
+        }
+    }
+
+    // Equal keys must encode equally: an integral REAL as INTEGER, numeric TEXT as a number for a numeric key
+    private void putJoinKey(RowBuffer entry, Record row, int column, boolean numericKey) {
+        Object number = null;
+        if (row.isFloat(column)) {
+            number = row.getDouble(column);
+        } else if (numericKey && row.isText(column)) {
+            Object literal = SerialType.toLiteral(row.getText(column).trim(), false, "NUMERIC");
+            number = literal instanceof byte[] ? null : literal;
+        }
+        if (number instanceof Double value && value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+            number = (long) (double) value;
+        }
+        if (number != null) {
+            entry.putValue(number);
+        } else {
+            entry.putColumn(row, column);
+        }
+    }
+
+    // One table of a join, with the columns its rows contribute and its share of the WHERE clause
+    private class JoinSide {
+        final SchemaCatalog.TableInfo table;
+        final String alias;
+        int keyColumn;
+        final List<Integer> outputColumns = new ArrayList<>();
+        SQLQueryParser parser;
+        // Index seeked by an index nested-loop join, or null to seek by rowid
+        SchemaCatalog.IndexInfo lookupIndex;
+        private long leafPages = -1;
+        private double estimatedRows = -2;
+
+        JoinSide(SchemaCatalog.TableInfo table, String alias) {
+            this.table = table;
+            this.alias = alias;
+        }
+
+        // Position of the column among the side's output columns, added on first use
+        int addOutputColumn(int column) {
+            int slot = outputColumns.indexOf(column);
+            if (slot == -1) {
+                outputColumns.add(column);
+                slot = outputColumns.size() - 1;
+            }
+            return slot;
+        }
+
+        // Rows left after the side's share of the WHERE clause, or -1 when its table has not been analysed
+        double getEstimatedRows() {
+            if (estimatedRows == -2) {
+                estimatedRows = estimateRows(table, new WhereFilter().getAndConditions(parser.where));
+            }
+            return estimatedRows;
+        }
+
+        long getLeafPages(PageSource cache) throws IOException {
+            if (leafPages == -1) {
+                leafPages = BTreePage.countLeafPages(cache, table.rootPage);
+            }
+            return leafPages;
+        }
+    }
+
+    private static class JoinColumn {
+        final int side;
+        final int column;
+        // Position among the side's output columns
+        int slot;
+
+        JoinColumn(int side, int column) {
+            this.side = side;
+            this.column = column;
+        }
+    }
+
+    // Assembles each joined row from the two side entries, then prints it or hands it to the ORDER BY sorter
+    private class JoinOutput {
+        private final JoinSide[] sides;
+        // Sort keys first, then the select list, the layout printSorted expects
+        private final List<JoinColumn> columns = new ArrayList<>();
+        private final int sortKeys;
+        private final int selected;
+        private final Sorter sorter;
+        private final long offset;
+        private final long limit;
+        private long skipped;
+        private long printed;
+        private final byte[][] entries = new byte[2][];
+        private final int[][] slotOffsets = new int[2][];
+        private final RowBuffer row = new RowBuffer();
+
+        JoinOutput(JoinSide[] sides, List<JoinColumn> sortColumns, List<JoinColumn> selectedColumns, Sorter sorter, long offset, long limit) {
+            this.sides = sides;
+            columns.addAll(sortColumns);
+            columns.addAll(selectedColumns);
+            this.sortKeys = sortColumns.size();
+            this.selected = selectedColumns.size();
+            this.sorter = sorter;
+            this.offset = offset;
+            this.limit = limit;
+            for (int side = 0; side < sides.length; side++) {
+                slotOffsets[side] = new int[sides[side].outputColumns.size()];
+            }
+        }
+
+        // Returns false once the LIMIT is reached and no more rows are wanted
+        boolean add(JoinSide side, byte[] entry, int columnsOffset, byte[] otherEntry, int otherColumnsOffset) throws IOException {
+            if (sorter == null && printed == limit) {
+                return false;
+            }
+            int first = side == sides[0] ? 0 : 1;
+            locateSlots(first, entry, columnsOffset);
+            locateSlots(1 - first, otherEntry, otherColumnsOffset);
+            row.clear();
+            for (JoinColumn column : columns) {
+                row.putEncoded(entries[column.side], slotOffsets[column.side][column.slot]);
+            }
+            if (sorter != null) {
+                sorter.add(row);
+                return true;
+            }
+            if (skipped < offset) {
+                skipped++;
+                return true;
+            }
+            writeValues(row.bytes, 0, selected);
+            return ++printed < limit;
+        }
+
+        private void locateSlots(int side, byte[] entry, int columnsOffset) {
+            entries[side] = entry;
+            int valueOffset = columnsOffset;
+            for (int slot = 0; slot < slotOffsets[side].length; slot++) {
+                slotOffsets[side][slot] = valueOffset;
+                valueOffset += RowBuffer.getEncodedLength(entry, valueOffset);
+            }
+        }
+
+        void finish() throws IOException {
+            if (sorter != null) {
+                printSorted(sorter, sortKeys, selected, offset);
+            }
+        }
+    }
+
+    private static class IndexSeek {
+        String name;
+        int rootPage;
+        String column;
+        KeyRange keyRange;
+
+        IndexSeek(String name, int rootPage, String column, KeyRange keyRange) {
+            this.name = name;
+            this.rootPage = rootPage;
+            this.column = column;
+            this.keyRange = keyRange;
+        }
+    }
+
+    private int getTableColumnIndex(String column, String[] columnsArray) {
+        for (int i = 0; i < columnsArray.length; i++) {
+            if (columnsArray[i].trim().equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Counters for one query; LongAdders, as parallel scan workers update them
+public class QueryStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    final String sql;
+    final LongAdder interiorTablePages = new LongAdder();
+    final LongAdder leafTablePages = new LongAdder();
+    final LongAdder interiorIndexPages = new LongAdder();
+    final LongAdder leafIndexPages = new LongAdder();
+    final LongAdder overflowPages = new LongAdder();
+    final LongAdder pageReadNanos = new LongAdder();
+    final LongAdder cellsVisited = new LongAdder();
+    // Leaves and interior subtrees a zone map ruled out before they were read
+    final LongAdder subtreesSkipped = new LongAdder();
+    final LongAdder recordsDecoded = new LongAdder();
+    final LongAdder rowsFilteredOut = new LongAdder();
+    final LongAdder rowsEmitted = new LongAdder();
+    // Access paths and join strategies in the order they were chosen
+    final List<String> plan = new ArrayList<>();
+    private final List<Stage> stages = new ArrayList<>();
+    private final QueryEvent event = new QueryEvent();
+    private int pageSize;
+    // Counters of the page cache when the query started, or null when pages are memory-mapped
+    private PageCache pageCache;
+    private long startHits;
+    private long startMisses;
+    private long cacheHits;
+    private long cacheMisses;
+    private long startPrefetches;
+    private long startPrefetchHits;
+    private long prefetches;
+    private long prefetchHits;
+
+    private QueryStats(String sql) {
+        this.sql = sql;
+    }
+
+    // Returns null, so the query runs without any counting, unless statistics were asked for or JFR records queries
+    static QueryStats start(String sql, boolean requested) {
+        QueryStats stats = new QueryStats(sql);
+        if (!requested && !stats.event.isEnabled()) {
+            return null;
+        }
+        stats.event.begin();
+        stats.startStage("plan");
+        return stats;
+    }
+
+    void watch(PageSource pageSource) {
+        pageSize = pageSource.getPageSize();
+        if (pageSource instanceof PageCache cache) {
+            pageCache = cache;
+            startHits = cache.getHits();
+            startMisses = cache.getMisses();
+            startPrefetches = cache.getPrefetches();
+            startPrefetchHits = cache.getPrefetchHits();
+        }
+    }
+
+    void countPage(byte pageType) {
+        switch (pageType) {
+            case BTreePage.INTERIOR_TABLE -> interiorTablePages.increment();
+            case BTreePage.LEAF_TABLE -> leafTablePages.increment();
+            case BTreePage.INTERIOR_INDEX -> interiorIndexPages.increment();
+            case BTreePage.LEAF_INDEX -> leafIndexPages.increment();
+            default -> {
+            }
+        }
+    }
+
+    void startStage(String name) {
+        endStage();
+        Stage stage = new Stage(name);
+        stage.event.begin();
+        stages.add(stage);
+    }
+
+    private void endStage() {
+        if (stages.isEmpty() || stages.getLast().wallNanos != -1) {
+            return;
+        }
+        Stage stage = stages.getLast();
+        stage.wallNanos = System.nanoTime() - stage.wallStart;
+        stage.cpuNanos = getCpuTime() - stage.cpuStart;
+        stage.event.end();
+        if (stage.event.shouldCommit()) {
+            stage.event.sql = sql;
+            stage.event.stage = stage.name;
+            stage.event.cpuTime = stage.cpuNanos;
+            stage.event.commit();
+        }
+    }
+
+    // Ends the last stage, reads the cache and read-ahead counters and commits the JFR event
+    void finish() {
+        endStage();
+        if (pageCache != null) {
+            cacheHits = pageCache.getHits() - startHits;
+            cacheMisses = pageCache.getMisses() - startMisses;
+            prefetches = pageCache.getPrefetches() - startPrefetches;
+            prefetchHits = pageCache.getPrefetchHits() - startPrefetchHits;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.sql = sql;
+            event.pagesRead = getPagesRead();
+            event.overflowPages = overflowPages.sum();
+            event.bytesRead = getBytesRead();
+            event.cacheHits = cacheHits;
+            event.cacheMisses = cacheMisses;
+            event.prefetches = prefetches;
+            event.prefetchHits = prefetchHits;
+            event.cellsVisited = cellsVisited.sum();
+            event.subtreesSkipped = subtreesSkipped.sum();
+            event.recordsDecoded = recordsDecoded.sum();
+            event.rowsFilteredOut = rowsFilteredOut.sum();
+            event.rowsEmitted = rowsEmitted.sum();
+            event.commit();
+        }
+    }
+
+    long getPagesRead() {
+        return interiorTablePages.sum() + leafTablePages.sum() + interiorIndexPages.sum() + leafIndexPages.sum() + overflowPages.sum();
+    }
+
+    // Every page asked for counts when the file is memory-mapped
+    long getBytesRead() {
+        return (pageCache != null ? cacheMisses + prefetches : getPagesRead()) * pageSize;
+    }
+
+    void print(PrintStream out) {
+        for (String step : plan) {
+            out.println("plan: " + step);
+        }
+        out.println("pages read: " + getPagesRead() + " (interior table " + interiorTablePages.sum() + ", leaf table " + leafTablePages.sum()
+                + ", interior index " + interiorIndexPages.sum() + ", leaf index " + leafIndexPages.sum() + ", overflow " + overflowPages.sum() + ")");
+        out.println("bytes read: " + getBytesRead());
+        if (pageCache != null) {
+            out.println("page cache: " + cacheHits + " hits, " + cacheMisses + " misses");
+            if (pageCache.getReadAhead() > 0) {
+                out.println("read-ahead: " + prefetches + " pages, " + prefetchHits + " hits");
+            }
+        }
+        if (subtreesSkipped.sum() > 0) {
+            out.println("zone map: " + subtreesSkipped.sum() + " subtrees skipped");
+        }
+        out.println("cells visited: " + cellsVisited.sum());
+        out.println("records decoded: " + recordsDecoded.sum());
+        out.println("rows filtered out: " + rowsFilteredOut.sum());
+        out.println("rows emitted: " + rowsEmitted.sum());
+        out.println("page reads: " + formatMillis(pageReadNanos.sum()) + " wall");
+        for (Stage stage : stages) {
+            out.println("stage " + stage.name + ": " + formatMillis(stage.wallNanos) + " wall, " + formatMillis(stage.cpuNanos) + " cpu");
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
+    // CPU time of the calling thread; worker threads of a parallel scan are not included
+    private static long getCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static class Stage {
+        final String name;
+        final long wallStart = System.nanoTime();
+        final long cpuStart = getCpuTime();
+        long wallNanos = -1;
+        long cpuNanos;
+        final QueryStageEvent event = new QueryStageEvent();
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    @Name("minisqlite.Query")
+    @Label("Query")
+    @Category("Mini SQLite")
+    static class QueryEvent extends Event {
+        @Label("SQL")
+        String sql;
+        @Label("Pages Read")
+        long pagesRead;
+        @Label("Overflow Pages Read")
+        long overflowPages;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Page Cache Hits")
+        long cacheHits;
+        @Label("Page Cache Misses")
+        long cacheMisses;
+        @Label("Pages Read Ahead")
+        long prefetches;
+        @Label("Read-Ahead Hits")
+        long prefetchHits;
+        @Label("Cells Visited")
+        long cellsVisited;
+        @Label("Subtrees Skipped by Zone Map")
+        long subtreesSkipped;
+        @Label("Records Decoded")
+        long recordsDecoded;
+        @Label("Rows Filtered Out")
+        long rowsFilteredOut;
+        @Label("Rows Emitted")
+        long rowsEmitted;
+    }
+
+    @Name("minisqlite.QueryStage")
+    @Label("Query Stage")
+    @Category("Mini SQLite")
+    static class QueryStageEvent extends Event {
+        @Label("SQL")
+        String sql;
+        @Label("Stage")
+        String stage;
+        @Label("CPU Time")
+        @Timespan
+        long cpuTime;
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A row decoded lazily; re-pointed by reset, so it is only valid until the next row is pulled
+public class Record {
+    // Column stored as NULL because it aliases the rowid, or -1
+    private final int rowidColumn;
+    private final long[] serialTypes;
+    private final int[] valueOffsets;
+    private ByteBuffer page;
+    private long rowid;
+    private int headerEnd;
+    private int headerPosition;
+    private int decodedColumns;
+    private int nextValueOffset;
+    // Overflow chain of the current row; firstOverflowPage is 0 when the whole record is on the page
+    private PageSource pageSource;
+    private int usableSize;
+    private int recordOffset;
+    private int localSize;
+    private int firstOverflowPage;
+
+    public Record(int rowidColumn, int numberOfColumns) {
+        this.rowidColumn = rowidColumn;
+        this.serialTypes = new long[numberOfColumns];
+        this.valueOffsets = new int[numberOfColumns];
+    }
+
+    // A header that does not fit on the page is rare, so the whole record is copied off its overflow chain then
+    public Record reset(BTreeCursor cursor) throws IOException {
+        reset(cursor.getPage(), cursor.getRecordOffset(), cursor.getRowid());
+        if (cursor.getStats() != null) {
+            cursor.getStats().recordsDecoded.increment();
+        }
+        int overflowPage = cursor.getFirstOverflowPage();
+        if (overflowPage != 0) {
+            pageSource = cursor.getPageSource();
+            usableSize = cursor.getUsableSize();
+            localSize = cursor.getLocalPayloadSize();
+            firstOverflowPage = overflowPage;
+            if (headerEnd > recordOffset + localSize) {
+                long payloadSize = cursor.getPayloadSize();
+                try (InputStream payload = openPayload(0, payloadSize)) {
+                    reset(ByteBuffer.wrap(payload.readNBytes((int) payloadSize)), 0, rowid);
+                }
+            }
+        }
+        return this;
+    }
+
+    // Points the record at a record stored whole on the given page
+    public Record reset(ByteBuffer page, int recordOffset, long rowid) {
+        this.page = page;
+        this.rowid = rowid;
+        this.recordOffset = recordOffset;
+        firstOverflowPage = 0;
+        headerEnd = recordOffset + (int) VarInt.read(page, recordOffset);
+        headerPosition = recordOffset + VarInt.getLength(page, recordOffset);
+        nextValueOffset = headerEnd;
+        decodedColumns = 0;
+        return this;
+    }
+
+    public long getRowid() {
+        return rowid;
+    }
+
+    public long getSerialType(int column) {
+        decodeHeaderUpTo(column);
+        return serialTypes[column];
+    }
+
+    // Slice of the page holding the column; the rowid alias column yields the rowid as decimal text
+    public ByteBuffer getValue(int column) {
+        if (column == rowidColumn) {
+            return ByteBuffer.wrap(Long.toString(rowid).getBytes(StandardCharsets.UTF_8));
+        }
+        decodeHeaderUpTo(column);
+        if (!isLocal(column)) {
+            return readSpilledValue(column);
+        }
+        return page.slice(valueOffsets[column], (int) SerialType.getSize(serialTypes[column]));
+    }
+
+    // False, copying nothing, when the value spills onto overflow pages
+    public boolean copyLocalValue(int column, byte[] destination, int offset) {
+        decodeHeaderUpTo(column);
+        if (!isLocal(column)) {
+            return false;
+        }
+        page.get(valueOffsets[column], destination, offset, (int) SerialType.getSize(serialTypes[column]));
+        return true;
+    }
+
+    // Streams the column's bytes, following the overflow chain one page at a time
+    public InputStream openValue(int column) throws IOException {
+        if (column == rowidColumn) {
+            return new ByteArrayInputStream(Long.toString(rowid).getBytes(StandardCharsets.UTF_8));
+        }
+        decodeHeaderUpTo(column);
+        long size = SerialType.getSize(serialTypes[column]);
+        if (isLocal(column)) {
+            return new OverflowInputStream(null, 0, page, valueOffsets[column], (int) size, 0, 0, size);
+        }
+        return openPayload(valueOffsets[column] - recordOffset, size);
+    }
+
+    // True when some value of the current row is stored on overflow pages
+    public boolean hasOverflow() {
+        return firstOverflowPage != 0;
+    }
+
+    // Integer value of the column, or 0 when it is not an integer
+    public long getLong(int column) {
+        if (column == rowidColumn) {
+            return rowid;
+        }
+        long serialType = getSerialType(column);
+        if (!SerialType.isInteger(serialType)) {
+            return 0;
+        }
+        return isLocal(column) ? SerialType.readInteger(page, valueOffsets[column], serialType)
+                : SerialType.readInteger(readSpilledValue(column), 0, serialType);
+    }
+
+    // Floating point value of the column, or 0 when it is not a float
+    public double getDouble(int column) {
+        long serialType = column == rowidColumn ? 0 : getSerialType(column);
+        if (!SerialType.isFloat(serialType)) {
+            return 0;
+        }
+        return isLocal(column) ? SerialType.readFloat(page, valueOffsets[column]) : SerialType.readFloat(readSpilledValue(column), 0);
+    }
+
+    public boolean isInteger(int column) {
+        return column == rowidColumn || SerialType.isInteger(getSerialType(column));
+    }
+
+    public boolean isFloat(int column) {
+        return column != rowidColumn && SerialType.isFloat(getSerialType(column));
+    }
+
+    public boolean isText(int column) {
+        return column != rowidColumn && SerialType.isText(getSerialType(column));
+    }
+
+    public boolean isNull(int column) {
+        return column != rowidColumn && getSerialType(column) == 0;
+    }
+
+    // Compares the column's raw value with a literal produced by SerialType.toLiteral
+    public int compare(int column, Object literal) {
+        if (column == rowidColumn) {
+            return SerialType.compareInteger(rowid, literal);
+        }
+        long serialType = getSerialType(column);
+        if (isLocal(column)) {
+            return SerialType.compare(page, valueOffsets[column], serialType, literal);
+        } else if (SerialType.isInteger(serialType) || SerialType.isFloat(serialType)) {
+            return SerialType.compare(readSpilledValue(column), 0, serialType, literal);
+        }
+        // Only as many overflow pages as the literal spans are read
+        try (InputStream value = openValue(column)) {
+            return SerialType.compare(value, serialType, literal);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Renders the column the way it is printed in query results
+    public String getText(int column) {
+        if (column == rowidColumn) {
+            return Long.toString(rowid);
+        }
+        long serialType = getSerialType(column);
+        if (serialType == 0) {
+            return "";
+        }
+        ByteBuffer valuePage = isLocal(column) ? page : readSpilledValue(column);
+        int valueOffset = valuePage == page ? valueOffsets[column] : 0;
+        if (SerialType.isInteger(serialType)) {
+            return Long.toString(SerialType.readInteger(valuePage, valueOffset, serialType));
+        } else if (SerialType.isFloat(serialType)) {
+            return Double.toString(SerialType.readFloat(valuePage, valueOffset));
+        }
+        return Database.toUtf8String(valuePage.slice(valueOffset, (int) SerialType.getSize(serialType)));
+    }
+
+    private boolean isLocal(int column) {
+        if (firstOverflowPage == 0 || column == rowidColumn) {
+            return true;
+        }
+        decodeHeaderUpTo(column);
+        return valueOffsets[column] + SerialType.getSize(serialTypes[column]) <= recordOffset + localSize;
+    }
+
+    private ByteBuffer readSpilledValue(int column) {
+        try (InputStream value = openValue(column)) {
+            return ByteBuffer.wrap(value.readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private InputStream openPayload(long start, long length) throws IOException {
+        return new OverflowInputStream(pageSource, usableSize, page, recordOffset, localSize, firstOverflowPage, start, length);
+    }
+
+    // Reads serial types until the given column's offset is known; columns missing from a short record are NULL
+    private void decodeHeaderUpTo(int column) {
+        while (decodedColumns <= column) {
+            long serialType = 0;
+            if (headerPosition < headerEnd) {
+                serialType = VarInt.read(page, headerPosition);
+                headerPosition += VarInt.getLength(page, headerPosition);
+            }
+            serialTypes[decodedColumns] = serialType;
+            valueOffsets[decodedColumns] = nextValueOffset;
+            nextValueOffset += (int) SerialType.getSize(serialType);
+            decodedColumns++;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+// Encodes SQLite records into a buffer reused from one record to the next
+public class RecordEncoder {
+    byte[] bytes = new byte[256];
+    int length;
+    private long[] serialTypes = new long[16];
+
+    // Takes the Long, Double, UTF-8 byte[] (as TEXT) or null values that RowBuffer.decode returns
+    public RecordEncoder encode(Object[] values) {
+        if (serialTypes.length < values.length) {
+            serialTypes = new long[values.length];
+        }
+        int headerBody = 0;
+        int bodySize = 0;
+        for (int i = 0; i < values.length; i++) {
+            serialTypes[i] = getSerialType(values[i]);
+            headerBody += VarInt.getSize(serialTypes[i]);
+            bodySize += (int) SerialType.getSize(serialTypes[i]);
+        }
+        // The header size counts its own varint
+        int headerSize = headerBody + 1;
+        if (VarInt.getSize(headerSize) > 1) {
+            headerSize = headerBody + VarInt.getSize(headerBody + 2);
+        }
+        length = headerSize + bodySize;
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(bytes.length * 2, length)];
+        }
+
+        int headerOffset = VarInt.write(bytes, 0, headerSize);
+        int bodyOffset = headerSize;
+        for (int i = 0; i < values.length; i++) {
+            headerOffset += VarInt.write(bytes, headerOffset, serialTypes[i]);
+            bodyOffset = writeValue(values[i], serialTypes[i], bodyOffset);
+        }
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    // Smallest serial type for the value; 8 and 9 are the constants 0 and 1
+    static long getSerialType(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Long number) {
+            long integer = number;
+            if (integer == 0 || integer == 1) {
+                return 8 + integer;
+            } else if (integer >= Byte.MIN_VALUE && integer <= Byte.MAX_VALUE) {
+                return 1;
+            } else if (integer >= Short.MIN_VALUE && integer <= Short.MAX_VALUE) {
+                return 2;
+            } else if (integer >= -(1 << 23) && integer < (1 << 23)) {
+                return 3;
+            } else if (integer >= Integer.MIN_VALUE && integer <= Integer.MAX_VALUE) {
+                return 4;
+            } else if (integer >= -(1L << 47) && integer < (1L << 47)) {
+                return 5;
+            }
+            return 6;
+        } else if (value instanceof Double) {
+            return 7;
+        }
+        return ((byte[]) value).length * 2L + 13;
+    }
+
+    private int writeValue(Object value, long serialType, int offset) {
+        if (value instanceof Long number) {
+            int size = (int) SerialType.getSize(serialType);
+            long integer = number;
+            for (int i = size - 1; i >= 0; i--) {
+                bytes[offset + i] = (byte) integer;
+                integer >>= 8;
+            }
+            return offset + size;
+        } else if (value instanceof Double number) {
+            long bits = Double.doubleToLongBits(number);
+            for (int i = 7; i >= 0; i--) {
+                bytes[offset + i] = (byte) bits;
+                bits >>>= 8;
+            }
+            return offset + 8;
+        } else if (value instanceof byte[] text) {
+            System.arraycopy(text, 0, bytes, offset, text.length);
+            return offset + text.length;
+        }
+        return offset;
+    }
+}
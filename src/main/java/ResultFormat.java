@@ -0,0 +1,12 @@
+public enum ResultFormat {
+    // Values separated by '|', NULL as an empty value, one row per line
+    LIST,
+    // RFC 4180: values separated by ',' and quoted when they hold a ',', '"' or line break; rows end with CRLF
+    CSV,
+    // Like CSV with a tab between values, the form BulkLoader reads back
+    TSV,
+    // One JSON object per row, keyed by the select list
+    JSON,
+    // Column count varint, then per value a RowBuffer tag and its varint, 8-byte REAL, or length-prefixed bytes
+    BINARY
+}
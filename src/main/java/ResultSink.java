@@ -0,0 +1,397 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes rows as UTF-8 bytes into one reusable buffer, flushed a batch at a time
+public class ResultSink {
+    // The buffer goes to the stream once a row ends past this size
+    private static final int FLUSH_SIZE = 1 << 16;
+    private static final int COPY_CHUNK_SIZE = 8192;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Null for a chunk that a parallel scan task fills in memory
+    private OutputStream out;
+    private final ResultFormat format;
+    private byte[] buffer;
+    private int length;
+    // JSON only: '{"name":' before the first value of a row and ',"name":' before each other one
+    private byte[][] keys = new byte[0][];
+    private int column;
+    // A value that needs escaping is copied here before it is written
+    private byte[] value = new byte[256];
+
+    public ResultSink(OutputStream out, ResultFormat format) {
+        this.out = out;
+        this.format = format;
+        this.buffer = new byte[out == null ? 1024 : FLUSH_SIZE + 1024];
+    }
+
+    public ResultFormat getFormat() {
+        return format;
+    }
+
+    // Points a flushed sink at another stream, so its buffer can be reused by the next query
+    void setOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    // Called before the first row of each result with the select list, whose items become the JSON keys
+    public void begin(List<String> columnNames) {
+        keys = new byte[columnNames.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            StringBuilder key = new StringBuilder(i == 0 ? "{" : ",");
+            appendJsonString(key, columnNames.get(i).trim());
+            keys[i] = key.append(':').toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder key, String name) {
+        key.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                key.append('\\').append(c);
+            } else if (c < 0x20) {
+                key.append(String.format("\\u%04x", (int) c));
+            } else {
+                key.append(c);
+            }
+        }
+        key.append('"');
+    }
+
+    // An empty in-memory sink with the same format and keys, for one parallel scan task to fill
+    public ResultSink newChunk() {
+        ResultSink chunk = new ResultSink(null, format);
+        chunk.keys = keys;
+        return chunk;
+    }
+
+    public void writeChunk(ResultSink chunk) throws IOException {
+        if (length + chunk.length <= FLUSH_SIZE) {
+            ensureCapacity(chunk.length);
+            System.arraycopy(chunk.buffer, 0, buffer, length, chunk.length);
+            length += chunk.length;
+            return;
+        }
+        writeBuffer();
+        out.write(chunk.buffer, 0, chunk.length);
+    }
+
+    public void startRow(int columns) {
+        column = 0;
+        if (format == ResultFormat.BINARY) {
+            writeVarInt(columns);
+        }
+    }
+
+    public void endRow() throws IOException {
+        switch (format) {
+            case LIST -> writeBytes(LINE_SEPARATOR);
+            case CSV -> {
+                writeByte('\r');
+                writeByte('\n');
+            }
+            case TSV -> writeByte('\n');
+            case JSON -> {
+                writeByte('}');
+                writeByte('\n');
+            }
+            case BINARY -> {
+            }
+        }
+        if (out != null && length >= FLUSH_SIZE) {
+            writeBuffer();
+        }
+    }
+
+    // Writes what is buffered and flushes the stream; called at the end of each result
+    public void flush() throws IOException {
+        if (out != null) {
+            writeBuffer();
+            out.flush();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    public void putColumn(Record row, int ordinal) throws IOException {
+        if (row.isNull(ordinal)) {
+            putNull();
+        } else if (row.isInteger(ordinal)) {
+            putLong(row.getLong(ordinal));
+        } else if (row.isFloat(ordinal)) {
+            putDouble(row.getDouble(ordinal));
+        } else {
+            putBytes(row, ordinal);
+        }
+    }
+
+    // Writes one RowBuffer-encoded value
+    public void putEncoded(byte[] values, int offset) {
+        switch (values[offset]) {
+            case RowBuffer.NULL -> putNull();
+            case RowBuffer.INTEGER -> putLong(RowBuffer.readLong(values, offset + 1));
+            case RowBuffer.FLOAT -> putDouble(Double.longBitsToDouble(RowBuffer.readLong(values, offset + 1)));
+            default -> putBytes(values, offset + 5, RowBuffer.readInt(values, offset + 1), values[offset] == RowBuffer.TEXT);
+        }
+    }
+
+    // Writes a Long, Double, UTF-8 byte[] (as TEXT) or null
+    public void putValue(Object value) {
+        if (value == null) {
+            putNull();
+        } else if (value instanceof Long number) {
+            putLong(number);
+        } else if (value instanceof Double number) {
+            putDouble(number);
+        } else {
+            byte[] text = (byte[]) value;
+            putBytes(text, 0, text.length, true);
+        }
+    }
+
+    public void putNull() {
+        startValue();
+        if (format == ResultFormat.JSON) {
+            writeBytes(JSON_NULL);
+        } else if (format == ResultFormat.BINARY) {
+            writeByte(RowBuffer.NULL);
+        }
+    }
+
+    public void putLong(long number) {
+        startValue();
+        if (format == ResultFormat.BINARY) {
+            writeByte(RowBuffer.INTEGER);
+            writeVarInt(number);
+            return;
+        }
+        if (number == Long.MIN_VALUE) {
+            writeBytes(LONG_MIN_VALUE);  // The one value whose magnitude does not fit in a long
+            return;
+        }
+        ensureCapacity(20);
+        if (number < 0) {
+            buffer[length++] = '-';
+            number = -number;
+        }
+        int digits = 1;
+        for (long rest = number / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        length += digits;
+        int position = length;
+        do {
+            buffer[--position] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number != 0);
+    }
+
+    public void putDouble(double number) {
+        startValue();
+        if (format == ResultFormat.BINARY) {
+            writeByte(RowBuffer.FLOAT);
+            ensureCapacity(8);
+            RowBuffer.writeLong(buffer, length, Double.doubleToLongBits(number));
+            length += 8;
+        } else if (format == ResultFormat.JSON && Double.isInfinite(number)) {
+            writeAscii(number > 0 ? "9e999" : "-9e999");  // JSON has no infinity; this parses back as one
+        } else {
+            writeAscii(Double.toString(number));
+        }
+    }
+
+    private void putBytes(byte[] bytes, int offset, int size, boolean text) {
+        startValue();
+        switch (format) {
+            case LIST -> writeBytes(bytes, offset, size);
+            case CSV, TSV -> writeDelimited(bytes, offset, size, needsQuotes(bytes, offset, size));
+            case JSON -> {
+                writeByte('"');
+                writeJsonEscaped(bytes, offset, size);
+                writeByte('"');
+            }
+            case BINARY -> {
+                writeByte(text ? RowBuffer.TEXT : RowBuffer.BLOB);
+                writeVarInt(size);
+                writeBytes(bytes, offset, size);
+            }
+        }
+    }
+
+    // An overflowing value is always quoted in CSV and TSV, since it is streamed before all of it is seen
+    private void putBytes(Record row, int ordinal) throws IOException {
+        long size = SerialType.getSize(row.getSerialType(ordinal));
+        boolean text = row.isText(ordinal);
+        boolean escaped = format == ResultFormat.CSV || format == ResultFormat.TSV || format == ResultFormat.JSON;
+        if (size <= COPY_CHUNK_SIZE) {
+            if (!escaped) {
+                ensureCapacity((int) size + 11);
+                int valueStart = length + (format == ResultFormat.BINARY ? 1 + VarInt.getSize(size) : (column > 0 ? 1 : 0));
+                if (row.copyLocalValue(ordinal, buffer, valueStart)) {
+                    startValue();
+                    if (format == ResultFormat.BINARY) {
+                        writeByte(text ? RowBuffer.TEXT : RowBuffer.BLOB);
+                        writeVarInt(size);
+                    }
+                    length += (int) size;
+                    return;
+                }
+            } else if (row.copyLocalValue(ordinal, ensureValueCapacity((int) size), 0)) {
+                putBytes(value, 0, (int) size, text);
+                return;
+            }
+        }
+
+        startValue();
+        if (format == ResultFormat.BINARY) {
+            writeByte(text ? RowBuffer.TEXT : RowBuffer.BLOB);
+            writeVarInt(size);
+        } else if (escaped) {
+            writeByte('"');
+        }
+        byte[] chunk = ensureValueCapacity(COPY_CHUNK_SIZE);
+        try (InputStream stream = row.openValue(ordinal)) {
+            int read;
+            while ((read = stream.read(chunk, 0, COPY_CHUNK_SIZE)) != -1) {
+                if (format == ResultFormat.JSON) {
+                    writeJsonEscaped(chunk, 0, read);
+                } else if (escaped) {
+                    writeQuotedBody(chunk, 0, read);
+                } else {
+                    writeBytes(chunk, 0, read);
+                }
+                if (out != null && length >= FLUSH_SIZE) {
+                    writeBuffer();  // Large values are not held whole in the buffer
+                }
+            }
+        }
+        if (escaped) {
+            writeByte('"');
+        }
+    }
+
+    // Writes the separator, or the JSON key, that comes before the next value of the row
+    private void startValue() {
+        switch (format) {
+            case LIST -> writeSeparator('|');
+            case CSV -> writeSeparator(',');
+            case TSV -> writeSeparator('\t');
+            case JSON -> writeBytes(keys[column]);
+            case BINARY -> {
+            }
+        }
+        column++;
+    }
+
+    private void writeSeparator(char separator) {
+        if (column > 0) {
+            writeByte(separator);
+        }
+    }
+
+    private boolean needsQuotes(byte[] bytes, int offset, int size) {
+        byte delimiter = (byte) (format == ResultFormat.TSV ? '\t' : ',');
+        for (int i = offset; i < offset + size; i++) {
+            byte b = bytes[i];
+            if (b == delimiter || b == '"' || b == '\n' || b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeDelimited(byte[] bytes, int offset, int size, boolean quoted) {
+        if (!quoted) {
+            writeBytes(bytes, offset, size);
+            return;
+        }
+        writeByte('"');
+        writeQuotedBody(bytes, offset, size);
+        writeByte('"');
+    }
+
+    // Doubles each quote. The bytes of a multi-byte UTF-8 character are never ASCII, so any chunk boundary is safe.
+    private void writeQuotedBody(byte[] bytes, int offset, int size) {
+        ensureCapacity(2 * size);
+        for (int i = offset; i < offset + size; i++) {
+            if (bytes[i] == '"') {
+                buffer[length++] = '"';
+            }
+            buffer[length++] = bytes[i];
+        }
+    }
+
+    private void writeJsonEscaped(byte[] bytes, int offset, int size) {
+        ensureCapacity(6 * size);
+        for (int i = offset; i < offset + size; i++) {
+            byte b = bytes[i];
+            if (b == '"' || b == '\\') {
+                buffer[length++] = '\\';
+                buffer[length++] = b;
+            } else if (b == '\n') {
+                buffer[length++] = '\\';
+                buffer[length++] = 'n';
+            } else if (b >= 0 && b < 0x20) {
+                buffer[length++] = '\\';
+                buffer[length++] = 'u';
+                buffer[length++] = '0';
+                buffer[length++] = '0';
+                buffer[length++] = HEX_DIGITS[b >> 4];
+                buffer[length++] = HEX_DIGITS[b & 0xF];
+            } else {
+                buffer[length++] = b;
+            }
+        }
+    }
+
+    private void writeVarInt(long number) {
+        ensureCapacity(9);
+        length += VarInt.write(buffer, length, number);
+    }
+
+    private void writeAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int size) {
+        ensureCapacity(size);
+        System.arraycopy(bytes, offset, buffer, length, size);
+        length += size;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (length + needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+        }
+    }
+
+    private byte[] ensureValueCapacity(int size) {
+        if (value.length < size) {
+            value = new byte[Math.max(value.length * 2, size)];
+        }
+        return value;
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Tagged values in which equal values always encode to equal bytes
+public class RowBuffer {
+    static final byte NULL = 0;
+    static final byte INTEGER = 1;
+    static final byte FLOAT = 2;
+    static final byte TEXT = 3;
+    static final byte BLOB = 4;
+    // Length written after the last entry of a spill file
+    private static final int END_OF_ENTRIES = -1;
+
+    byte[] bytes = new byte[256];
+    int length;
+
+    public void clear() {
+        length = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    public void putColumn(Record row, int column) {
+        if (row.isNull(column)) {
+            putNull();
+        } else if (row.isInteger(column)) {
+            putNumber(INTEGER, row.getLong(column));
+        } else if (row.isFloat(column)) {
+            putNumber(FLOAT, Double.doubleToLongBits(row.getDouble(column)));
+        } else {
+            ByteBuffer value = row.getValue(column);
+            int valueLength = value.remaining();
+            ensureCapacity(length + 5 + valueLength);
+            bytes[length] = row.isText(column) ? TEXT : BLOB;
+            writeInt(bytes, length + 1, valueLength);
+            value.get(value.position(), bytes, length + 5, valueLength);
+            length += 5 + valueLength;
+        }
+    }
+
+    // Appends a Long, Double, UTF-8 byte[] (as TEXT) or null, the value types decode returns
+    public void putValue(Object value) {
+        if (value == null) {
+            putNull();
+        } else if (value instanceof Long number) {
+            putNumber(INTEGER, number);
+        } else if (value instanceof Double number) {
+            putNumber(FLOAT, Double.doubleToLongBits(number));
+        } else {
+            byte[] text = (byte[]) value;
+            ensureCapacity(length + 5 + text.length);
+            bytes[length] = TEXT;
+            writeInt(bytes, length + 1, text.length);
+            System.arraycopy(text, 0, bytes, length + 5, text.length);
+            length += 5 + text.length;
+        }
+    }
+
+    private void putNull() {
+        ensureCapacity(length + 1);
+        bytes[length++] = NULL;
+    }
+
+    private void putNumber(byte tag, long bits) {
+        ensureCapacity(length + 9);
+        bytes[length] = tag;
+        writeLong(bytes, length + 1, bits);
+        length += 9;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, capacity));
+        }
+    }
+
+    // Spill format: the length followed by the encoded values
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+    }
+
+    // Returns false instead of reading when the stream is at the end marker written by writeEnd
+    public boolean readFrom(DataInputStream in) throws IOException {
+        int entryLength = in.readInt();
+        if (entryLength == END_OF_ENTRIES) {
+            return false;
+        }
+        length = entryLength;
+        ensureCapacity(length);
+        in.readFully(bytes, 0, length);
+        return true;
+    }
+
+    public static void writeEnd(DataOutputStream out) throws IOException {
+        out.writeInt(END_OF_ENTRIES);
+    }
+
+    // Appends one already encoded value
+    public void putEncoded(byte[] values, int offset) {
+        int valueLength = getEncodedLength(values, offset);
+        ensureCapacity(length + valueLength);
+        System.arraycopy(values, offset, bytes, length, valueLength);
+        length += valueLength;
+    }
+
+    // Seeded so that each level of a recursive spill splits its partition differently
+    static int hash(byte[] bytes, int length, int seed) {
+        int hash = 0x9E3779B9 * (seed + 1);
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the bits so both the low bits (table slots) and the high bits (partitions) vary
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+
+    static int getEncodedLength(byte[] values, int offset) {
+        return switch (values[offset]) {
+            case NULL -> 1;
+            case INTEGER, FLOAT -> 9;
+            default -> 5 + readInt(values, offset + 1);
+        };
+    }
+
+    // Offset just past the given number of values starting at offset
+    static int skip(byte[] values, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            offset += getEncodedLength(values, offset);
+        }
+        return offset;
+    }
+
+    static Object decode(byte[] values, int offset) {
+        return switch (values[offset]) {
+            case NULL -> null;
+            case INTEGER -> readLong(values, offset + 1);
+            case FLOAT -> Double.longBitsToDouble(readLong(values, offset + 1));
+            default -> Arrays.copyOfRange(values, offset + 5, offset + 5 + readInt(values, offset + 1));
+        };
+    }
+
+    // SQLite's order for values of any type: NULL, then numbers, then TEXT and BLOB compared byte-wise
+    static int compare(byte[] left, int leftOffset, byte[] right, int rightOffset) {
+        byte leftTag = left[leftOffset];
+        byte rightTag = right[rightOffset];
+        int rankDifference = getRank(leftTag) - getRank(rightTag);
+        if (rankDifference != 0 || leftTag == NULL) {
+            return rankDifference;
+        }
+        if (leftTag == INTEGER && rightTag == INTEGER) {
+            return Long.compare(readLong(left, leftOffset + 1), readLong(right, rightOffset + 1));
+        } else if (leftTag == INTEGER || leftTag == FLOAT) {
+            return Double.compare(toDouble(left, leftOffset), toDouble(right, rightOffset));
+        }
+        return Arrays.compareUnsigned(left, leftOffset + 5, leftOffset + 5 + readInt(left, leftOffset + 1),
+                right, rightOffset + 5, rightOffset + 5 + readInt(right, rightOffset + 1));
+    }
+
+    static int getRank(byte tag) {
+        return switch (tag) {
+            case INTEGER, FLOAT -> 1;
+            case TEXT -> 2;
+            case BLOB -> 3;
+            default -> 0;
+        };
+    }
+
+    // Numeric value of an INTEGER or FLOAT; TEXT and BLOB count as the number they spell, or 0
+    static double toDouble(byte[] values, int offset) {
+        return switch (values[offset]) {
+            case NULL -> 0;
+            case INTEGER -> readLong(values, offset + 1);
+            case FLOAT -> Double.longBitsToDouble(readLong(values, offset + 1));
+            default -> {
+                String text = new String(values, offset + 5, readInt(values, offset + 1), StandardCharsets.UTF_8);
+                try {
+                    yield Double.parseDouble(text.trim());
+                } catch (NumberFormatException e) {
+                    yield 0;
+                }
+            }
+        };
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    static void writeLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | Byte.toUnsignedInt(buffer[offset + i]);
+        }
+        return value;
+    }
+
+    static long readLong(byte[] buffer, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | Byte.toUnsignedInt(buffer[offset + i]);
+        }
+        return value;
+    }
+}
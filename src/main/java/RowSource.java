@@ -0,0 +1,41 @@
+import java.io.IOException;
+import java.util.function.Predicate;
+
+// One stage of the pull-based query pipeline: each call hands over the next row, or null when there are no more
+@FunctionalInterface
+public interface RowSource {
+    Record nextRow() throws IOException;
+
+    static RowSource filter(RowSource source, Predicate<Record> predicate) {
+        return () -> {
+            Record row;
+            while ((row = source.nextRow()) != null) {
+                if (predicate.test(row)) {
+                    return row;
+                }
+            }
+            return null;
+        };
+    }
+
+    // Skips the first offset rows and stops pulling from the source once limit rows were returned
+    static RowSource limit(RowSource source, long offset, long limit) {
+        long[] counts = new long[2];  // rows skipped, rows returned
+        return () -> {
+            while (counts[0] < offset) {
+                if (source.nextRow() == null) {
+                    return null;
+                }
+                counts[0]++;
+            }
+            if (counts[1] >= limit) {
+                return null;
+            }
+            Record row = source.nextRow();
+            if (row != null) {
+                counts[1]++;
+            }
+            return row;
+        };
+    }
+}
@@ -1,39 +1,79 @@
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class SQLQueryParser {
+    // Patterns for reading CREATE TABLE / CREATE INDEX statements from sqlite_schema, compiled once
+    private static final Pattern TABLE_COLUMNS_PATTERN = Pattern.compile("\\((.*)\\)", Pattern.DOTALL);
+    private static final Pattern COLUMN_NAME_PATTERN = Pattern.compile("^\\s*([a-zA-Z0-9_]+)");
+    private static final Pattern TABLE_CONSTRAINT_PATTERN = Pattern.compile("(?i)^\\s*(CONSTRAINT|PRIMARY\\s+KEY|UNIQUE|CHECK|FOREIGN\\s+KEY)\\b");
+    private static final Pattern DECLARED_TYPE_PATTERN = Pattern.compile("(?i)^\\s*(.*?)\\s*(\\b(CONSTRAINT|PRIMARY|NOT|NULL|UNIQUE|CHECK|DEFAULT|COLLATE|REFERENCES|GENERATED|AS)\\b.*)?$", Pattern.DOTALL);
+    private static final Pattern ORDER_BY_TERM_PATTERN = Pattern.compile("(?i)^(.*?)(\\s+(ASC|DESC))?$", Pattern.DOTALL);
+    private static final Pattern INDEX_COLUMNS_PATTERN = Pattern.compile("\\((.*?)\\)", Pattern.DOTALL);
+    // SELECT queries, including an optional inner JOIN, WHERE, GROUP BY, ORDER BY, LIMIT, and OFFSET
+    private static final Pattern SELECT_PATTERN = Pattern.compile("(?i)SELECT\\s+(.+)\\s+FROM\\s+([a-zA-Z0-9_]+)"
+            + "(?:\\s+(?:AS\\s+)?(?!(?:INNER|JOIN|WHERE|GROUP|ORDER|LIMIT|OFFSET)\\b)([a-zA-Z0-9_]+))?"
+            + "(?:\\s+(?:INNER\\s+)?JOIN\\s+([a-zA-Z0-9_]+)(?:\\s+(?:AS\\s+)?(?!ON\\b)([a-zA-Z0-9_]+))?\\s+ON\\s+(.+?))?\\s*"
+            + "(WHERE\\s+(.+?))?\\s*" + "(GROUP\\s+BY\\s+(.+?))?\\s*" + "(ORDER\\s+BY\\s+(.+?))?\\s*" + "(LIMIT\\s+(\\d+|\\?))?\\s*"
+            + "(OFFSET\\s+(\\d+|\\?))?;?");
 
     List<String> columns;
     String commandType;
     List<String> tableNames;
+    // Alias of each table in tableNames, or its name when it has none
+    List<String> tableAliases;
+    // ON clause of a JOIN, empty for a single table query
+    String joinCondition;
     String whereClause;
+    // whereClause parsed into conditions, or null when there is none
+    WhereFilter.Node where;
+    // ? placeholders in the WHERE clause, LIMIT and OFFSET
+    int parameterCount;
     String orderByClause;
     String groupByClause;
     String limitClause;
     String offsetClause;
     String[] tableColumns;
+    // Declared type of each column in tableColumns, empty when the column has none
+    String[] tableColumnTypes;
     // get the Primary key name from the table
     String primaryKey;
+    private List<OrderByTerm> orderByTerms;
+    private List<String> groupByColumns;
 
     public SQLQueryParser() {
         columns = new ArrayList<>();
+        joinCondition = "";
         whereClause = "";
         orderByClause = "";
         groupByClause = "";
         limitClause = "";
         offsetClause = "";
+        orderByTerms = new ArrayList<>();
+        groupByColumns = new ArrayList<>();
     }
 
-    public boolean parse(String query) {
-        // Regex for parsing SELECT queries, including WHERE, ORDER BY, GROUP BY, LIMIT, and OFFSET
-        String selectRegex = "(?i)SELECT\\s+(.+)\\s+FROM\\s+([a-zA-Z0-9_]+)\\s*" + "(WHERE\\s+(.+?))?\\s*" + "(ORDER\\s+BY\\s+(.+?))?\\s*" + "(GROUP\\s+BY\\s+(.+?))?\\s*" + "(LIMIT\\s+(\\d+))?\\s*" + "(OFFSET\\s+(\\d+))?;?";
+    // Shares everything parse produced; the table fields are left for the caller to fill in
+    private SQLQueryParser(SQLQueryParser parsed) {
+        columns = parsed.columns;
+        commandType = parsed.commandType;
+        tableNames = parsed.tableNames;
+        tableAliases = parsed.tableAliases;
+        joinCondition = parsed.joinCondition;
+        whereClause = parsed.whereClause;
+        where = parsed.where;
+        parameterCount = parsed.parameterCount;
+        orderByClause = parsed.orderByClause;
+        groupByClause = parsed.groupByClause;
+        limitClause = parsed.limitClause;
+        offsetClause = parsed.offsetClause;
+        orderByTerms = parsed.orderByTerms;
+        groupByColumns = parsed.groupByColumns;
+    }
 
-        Pattern pattern = Pattern.compile(selectRegex);
-        Matcher matcher = pattern.matcher(query);
+    public boolean parse(String query) {
+        Matcher matcher = SELECT_PATTERN.matcher(query);
 
         if (matcher.matches()) {
             // Extract command type
@@ -43,39 +83,117 @@ public class SQLQueryParser {
             String columnPart = matcher.group(1).trim();
             columns.addAll(parseColumns(columnPart));
 
-            // Extract table Names
+            // Extract table Names, with the name each one is referred to by: its alias, or the table name itself
             tableNames = parseColumns(matcher.group(2).trim());
-            // Optional WHERE clause
+            tableAliases = new ArrayList<>();
+            tableAliases.add(matcher.group(3) != null ? matcher.group(3) : tableNames.getFirst());
+
+            // Optional JOIN of a second table
             if (matcher.group(4) != null) {
-                whereClause = matcher.group(4).trim();
+                tableNames.add(matcher.group(4));
+                tableAliases.add(matcher.group(5) != null ? matcher.group(5) : matcher.group(4));
+                joinCondition = matcher.group(6).trim();
             }
 
-            // Optional ORDER BY clause
-            if (matcher.group(6) != null) {
-                orderByClause = matcher.group(6).trim();
+            // Optional WHERE clause
+            if (matcher.group(8) != null) {
+                whereClause = matcher.group(8).trim();
             }
 
-            // Optional GROUP BY clause
-            if (matcher.group(8) != null) {
-                groupByClause = matcher.group(8).trim();
+            // Optional GROUP BY clause, which SQL puts before ORDER BY
+            if (matcher.group(10) != null) {
+                groupByClause = matcher.group(10).trim();
+            }
+
+            // Optional ORDER BY clause
+            if (matcher.group(12) != null) {
+                orderByClause = matcher.group(12).trim();
             }
 
             // Optional LIMIT clause
-            if (matcher.group(10) != null) {
-                limitClause = matcher.group(10).trim();
+            if (matcher.group(14) != null) {
+                limitClause = checkCount("LIMIT", matcher.group(14).trim());
             }
 
             // Optional OFFSET clause
-            if (matcher.group(12) != null) {
-                offsetClause = matcher.group(12).trim();
+            if (matcher.group(16) != null) {
+                offsetClause = checkCount("OFFSET", matcher.group(16).trim());
             }
 
+            // The clauses are split up here once, so running the statement again never re-reads the text
+            WhereFilter whereFilter = new WhereFilter();
+            where = whereFilter.parse(whereClause);
+            parameterCount = whereFilter.getParameterCount() + (limitClause.equals("?") ? 1 : 0) + (offsetClause.equals("?") ? 1 : 0);
+            groupByColumns = groupByClause.isEmpty() ? new ArrayList<>() : parseColumns(groupByClause);
+            orderByTerms = parseOrderByTerms();
+
             return true;  // Successfully parsed the query
         }
 
         return false;  // Failed to parse
     }
 
+    // A copy for one execution with each ? replaced by its parameter, in the order the placeholders appear
+    public SQLQueryParser bind(Object[] parameters) {
+        if (parameters.length != parameterCount) {
+            throw new IllegalArgumentException("Expected " + parameterCount + " parameters, got " + parameters.length);
+        }
+        SQLQueryParser bound = new SQLQueryParser(this);
+        bound.where = WhereFilter.bind(where, parameters);
+        int next = parameterCount - (limitClause.equals("?") ? 1 : 0) - (offsetClause.equals("?") ? 1 : 0);
+        if (limitClause.equals("?")) {
+            bound.limitClause = bindCount(parameters, next++, "LIMIT");
+        }
+        if (offsetClause.equals("?")) {
+            bound.offsetClause = bindCount(parameters, next, "OFFSET");
+        }
+        return bound;
+    }
+
+    // The pattern only admits digits or ?, but the digits may not fit in a long
+    private static String checkCount(String clause, String value) {
+        if (!value.equals("?")) {
+            try {
+                Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(clause + " must be a whole number from 0 to " + Long.MAX_VALUE);
+            }
+        }
+        return value;
+    }
+
+    private String bindCount(Object[] parameters, int parameter, String clause) {
+        Object value = parameters[parameter];
+        if (!(value instanceof Long || value instanceof Integer) || ((Number) value).longValue() < 0) {
+            throw new IllegalArgumentException(clause + " parameter " + (parameter + 1) + " must be a non-negative Long or Integer");
+        }
+        return value.toString();
+    }
+
+    // The GROUP BY column names, empty when the query has no GROUP BY
+    public List<String> getGroupByColumns() {
+        return groupByColumns;
+    }
+
+    // The ORDER BY terms in priority order, empty when the query has no ORDER BY
+    public List<OrderByTerm> getOrderByTerms() {
+        return orderByTerms;
+    }
+
+    private List<OrderByTerm> parseOrderByTerms() {
+        List<OrderByTerm> terms = new ArrayList<>();
+        if (orderByClause.isEmpty()) {
+            return terms;
+        }
+        for (String term : parseColumns(orderByClause)) {
+            Matcher matcher = ORDER_BY_TERM_PATTERN.matcher(term);
+            if (matcher.matches()) {
+                terms.add(new OrderByTerm(matcher.group(1).trim(), "DESC".equalsIgnoreCase(matcher.group(3))));
+            }
+        }
+        return terms;
+    }
+
     private List<String> parseColumns(String columnPart) {
         List<String> columns = new ArrayList<>();
         String[] parts = columnPart.split(",");
@@ -89,6 +207,7 @@ public class SQLQueryParser {
         System.out.println("Command Type: " + commandType);
         System.out.println("Columns: " + columns);
         System.out.println("Table Names: " + tableNames);
+        System.out.println("Join Condition: " + joinCondition);
         System.out.println("Where Clause: " + whereClause);
         System.out.println("Order By Clause: " + orderByClause);
         System.out.println("Group By Clause: " + groupByClause);
@@ -97,15 +216,8 @@ public class SQLQueryParser {
     }
 
 
-    public void parseTableColumns(Map<String, byte[]> tableInfoOfRootPage) {
-        // Get the SQL string from the byte array
-        byte[] sql = tableInfoOfRootPage.get("sql");
-        String sqlString = new String(sql, StandardCharsets.UTF_8);
-
-        // Define a regex pattern to extract columns from the CREATE TABLE statement
-        String columnRegex = "\\((.*?)\\)";
-        Pattern pattern = Pattern.compile(columnRegex, Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(sqlString);
+    public void parseTableColumns(String createTableSql) {
+        Matcher matcher = TABLE_COLUMNS_PATTERN.matcher(createTableSql);
 
         if (matcher.find()) {
             // Extract the content inside parentheses (column definitions)
@@ -115,25 +227,59 @@ public class SQLQueryParser {
             String[] columnDefinitions = columnsString.split(",\\s*(?![^()]*\\))"); // avoid splitting on commas inside parentheses
 
             // Extract just the column names from each definition and check for PRIMARY KEY
-            String[] tableColumnsArray = new String[columnDefinitions.length];
-            for (int i = 0; i < columnDefinitions.length; i++) {
+            List<String> tableColumnsList = new ArrayList<>();
+            List<String> tableColumnTypesList = new ArrayList<>();
+            for (String columnDefinition : columnDefinitions) {
                 // Match the column name (first word) before any spaces
-                String columnNameRegex = "^\\s*([a-zA-Z0-9_]+)";
-                Pattern columnNamePattern = Pattern.compile(columnNameRegex);
-                Matcher columnNameMatcher = columnNamePattern.matcher(columnDefinitions[i]);
+                Matcher columnNameMatcher = COLUMN_NAME_PATTERN.matcher(columnDefinition);
 
-                if (columnNameMatcher.find()) {
+                if (columnNameMatcher.find() && !TABLE_CONSTRAINT_PATTERN.matcher(columnDefinition).find()) {
                     String columnName = columnNameMatcher.group(1);  // Get the column name
-                    tableColumnsArray[i] = columnName;
+                    String declaredType = parseDeclaredType(columnDefinition.substring(columnNameMatcher.end()));
+                    tableColumnsList.add(columnName);
+                    tableColumnTypesList.add(declaredType);
 
-                    // Check if this column definition contains "PRIMARY KEY"
-                    if (columnDefinitions[i].toUpperCase().contains("PRIMARY KEY")) {
+                    // Only an INTEGER PRIMARY KEY column is an alias for the rowid
+                    if (columnDefinition.toUpperCase().contains("PRIMARY KEY") && declaredType.equalsIgnoreCase("INTEGER")) {
                         primaryKey = columnName;  // Set this column as the primary key
                     }
                 }
             }
 
-            tableColumns = tableColumnsArray;
+            tableColumns = tableColumnsList.toArray(new String[0]);
+            tableColumnTypes = tableColumnTypesList.toArray(new String[0]);
+        }
+    }
+
+    // The declared type is every word after the column name up to the first column constraint
+    private String parseDeclaredType(String definitionAfterName) {
+        Matcher typeMatcher = DECLARED_TYPE_PATTERN.matcher(definitionAfterName);
+        return typeMatcher.matches() ? typeMatcher.group(1) : "";
+    }
+
+    // Returns the indexed column names of a CREATE INDEX statement from sqlite_schema, in key order
+    public List<String> parseIndexColumns(String createIndexSql) {
+        List<String> indexColumns = new ArrayList<>();
+        if (createIndexSql == null || createIndexSql.isEmpty()) {
+            return indexColumns;  // Automatic indexes have no SQL
+        }
+        Matcher matcher = INDEX_COLUMNS_PATTERN.matcher(createIndexSql);
+        if (matcher.find()) {
+            for (String indexedColumn : parseColumns(matcher.group(1))) {
+                indexColumns.add(indexedColumn.split("\\s+")[0]);
+            }
+        }
+        return indexColumns;
+    }
+
+    static class OrderByTerm {
+        // A column name, an aggregate call, or a 1-based position in the select list
+        final String expression;
+        final boolean descending;
+
+        OrderByTerm(String expression, boolean descending) {
+            this.expression = expression;
+            this.descending = descending;
         }
     }
 }
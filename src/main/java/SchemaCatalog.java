@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Valid as long as the file change counter is unchanged
+public class SchemaCatalog {
+    private static final int CHANGE_COUNTER_OFFSET = 24;
+    private static final int SCHEMA_ROOT_PAGE = 1;
+
+    private final int changeCounter;
+    private final Map<String, TableInfo> tables = new HashMap<>();
+    // tbl_name of every sqlite_schema entry, in schema order
+    private final List<String> entryTableNames = new ArrayList<>();
+
+    private SchemaCatalog(int changeCounter) {
+        this.changeCounter = changeCounter;
+    }
+
+    static int readChangeCounter(PageSource pageSource) throws IOException {
+        return pageSource.getPage(1).getInt(CHANGE_COUNTER_OFFSET);
+    }
+
+    public static SchemaCatalog load(PageSource pageSource) throws IOException {
+        SchemaCatalog catalog = new SchemaCatalog(readChangeCounter(pageSource));
+        List<IndexInfo> indexes = new ArrayList<>();
+        BTreeCursor cursor = new BTreeCursor(pageSource, SCHEMA_ROOT_PAGE, null);
+        // sqlite_schema columns: type, name, tbl_name, rootpage, sql
+        Record entry = new Record(-1, 5);
+        while (cursor.next()) {
+            entry.reset(cursor);
+            String type = entry.getText(0);
+            String name = entry.getText(1);
+            String tableName = entry.getText(2);
+            int rootPage = (int) entry.getLong(3);
+            String sql = entry.getText(4);
+            catalog.entryTableNames.add(tableName);
+            if (type.equals("table")) {
+                catalog.tables.put(tableName.toLowerCase(), new TableInfo(name, rootPage, sql));
+            } else if (type.equals("index")) {
+                indexes.add(new IndexInfo(name, tableName, rootPage, sql));
+            }
+        }
+        for (IndexInfo index : indexes) {
+            TableInfo table = catalog.getTable(index.tableName);
+            if (table != null) {
+                table.indexes.add(index);
+            }
+        }
+        return catalog;
+    }
+
+    public int getChangeCounter() {
+        return changeCounter;
+    }
+
+    public boolean isCurrent(PageSource pageSource) throws IOException {
+        return readChangeCounter(pageSource) == changeCounter;
+    }
+
+    // Case-insensitive like SQLite table names; null when there is no such table
+    public TableInfo getTable(String tableName) {
+        return tables.get(tableName.toLowerCase());
+    }
+
+    public Collection<TableInfo> getTables() {
+        return tables.values();
+    }
+
+    public List<String> getEntryTableNames() {
+        return entryTableNames;
+    }
+
+    public int getNumberOfEntries() {
+        return entryTableNames.size();
+    }
+
+    static class TableInfo {
+        String name;
+        int rootPage;
+        String sql;
+        String[] columns;
+        // Declared type of each column, empty when the column has none
+        String[] columnTypes;
+        // INTEGER PRIMARY KEY column aliasing the rowid, or null
+        String primaryKey;
+        int rowidColumn;
+        Map<String, Integer> ordinals = new HashMap<>();
+        List<IndexInfo> indexes = new ArrayList<>();
+
+        TableInfo(String name, int rootPage, String sql) {
+            this.name = name;
+            this.rootPage = rootPage;
+            this.sql = sql;
+            SQLQueryParser parser = new SQLQueryParser();
+            parser.parseTableColumns(sql);
+            columns = parser.tableColumns;
+            columnTypes = parser.tableColumnTypes;
+            primaryKey = parser.primaryKey;
+            for (int i = 0; i < columns.length; i++) {
+                ordinals.put(columns[i].toLowerCase(), i);
+            }
+            rowidColumn = primaryKey == null ? -1 : getOrdinal(primaryKey);
+        }
+
+        // Case-insensitive column lookup; -1 when the table has no such column
+        int getOrdinal(String column) {
+            return ordinals.getOrDefault(column.trim().toLowerCase(), -1);
+        }
+    }
+
+    static class IndexInfo {
+        String name;
+        String tableName;
+        int rootPage;
+        // Indexed columns in key order; empty for automatic indexes, which have no SQL
+        List<String> columns;
+        // Partial indexes (CREATE INDEX ... WHERE) do not hold every row
+        boolean partial;
+
+        IndexInfo(String name, String tableName, int rootPage, String sql) {
+            this.name = name;
+            this.tableName = tableName;
+            this.rootPage = rootPage;
+            this.columns = new SQLQueryParser().parseIndexColumns(sql);
+            this.partial = sql != null && sql.toUpperCase().contains(" WHERE ");
+        }
+    }
+}
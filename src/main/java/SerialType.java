@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Decoding and comparison of values stored with SQLite record serial types
+public final class SerialType {
+    private SerialType() {
+    }
+
+    static long getSize(long serialType) {
+        if (serialType >= 0 && serialType <= 4) {
+            return serialType;
+        } else if (serialType == 5) {
+            return 6;
+        } else if (serialType == 6 || serialType == 7) {
+            return 8;
+        } else if (serialType >= 13 && serialType % 2 == 1) {
+            return (serialType - 13) / 2;  // Text type size
+        } else if (serialType >= 12) {
+            return (serialType - 12) / 2;  // Blob type size
+        } else {
+            return 0;
+        }
+    }
+
+    static boolean isInteger(long serialType) {
+        return (serialType >= 1 && serialType <= 6) || serialType == 8 || serialType == 9;
+    }
+
+    static boolean isFloat(long serialType) {
+        return serialType == 7;
+    }
+
+    static boolean isText(long serialType) {
+        return serialType >= 13 && serialType % 2 == 1;
+    }
+
+    // Storage classes in SQLite sort order: NULL < INTEGER/REAL < TEXT < BLOB
+    private static int getStorageClassRank(long serialType) {
+        if (serialType == 0) {
+            return 0;
+        } else if (isInteger(serialType) || isFloat(serialType)) {
+            return 1;
+        } else if (isText(serialType)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static int getLiteralRank(Object literal) {
+        if (literal == null) {
+            return 0;
+        } else if (literal instanceof Number) {
+            return 1;
+        }
+        return 2;
+    }
+
+    static long readInteger(ByteBuffer page, int offset, long serialType) {
+        if (serialType == 8) {
+            return 0;
+        } else if (serialType == 9) {
+            return 1;
+        }
+        int size = (int) getSize(serialType);
+        long value = page.get(offset);  // The first byte carries the sign
+        for (int i = 1; i < size; i++) {
+            value = (value << 8) | Byte.toUnsignedInt(page.get(offset + i));
+        }
+        return value;
+    }
+
+    static double readFloat(ByteBuffer page, int offset) {
+        return page.getDouble(offset);
+    }
+
+    // Compares the stored value at offset with a literal produced by toLiteral
+    static int compare(ByteBuffer page, int offset, long serialType, Object literal) {
+        int storedRank = getStorageClassRank(serialType);
+        int literalRank = getLiteralRank(literal);
+        if (storedRank != literalRank) {
+            return Integer.compare(storedRank, literalRank);
+        }
+        if (storedRank == 0) {
+            return 0;
+        }
+        if (storedRank == 1) {
+            if (isInteger(serialType) && literal instanceof Long) {
+                return Long.compare(readInteger(page, offset, serialType), (Long) literal);
+            }
+            double stored = isFloat(serialType) ? readFloat(page, offset) : readInteger(page, offset, serialType);
+            return Double.compare(stored, ((Number) literal).doubleValue());
+        }
+        byte[] literalBytes = (byte[]) literal;
+        int size = (int) getSize(serialType);
+        int length = Math.min(size, literalBytes.length);
+        for (int i = 0; i < length; i++) {
+            int difference = Byte.toUnsignedInt(page.get(offset + i)) - Byte.toUnsignedInt(literalBytes[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return Integer.compare(size, literalBytes.length);
+    }
+
+    // Same ordering as compare, for a value read from a stream such as a TEXT or BLOB on overflow pages
+    static int compare(InputStream value, long serialType, Object literal) throws IOException {
+        int storedRank = getStorageClassRank(serialType);
+        int literalRank = getLiteralRank(literal);
+        if (storedRank != literalRank) {
+            return Integer.compare(storedRank, literalRank);
+        }
+        byte[] literalBytes = (byte[]) literal;
+        long size = getSize(serialType);
+        int length = (int) Math.min(size, literalBytes.length);
+        for (int i = 0; i < length; i++) {
+            int difference = value.read() - Byte.toUnsignedInt(literalBytes[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return Long.compare(size, literalBytes.length);
+    }
+
+    // Compares an integer such as a rowid with a literal produced by toLiteral
+    static int compareInteger(long value, Object literal) {
+        if (literal instanceof Long) {
+            return Long.compare(value, (Long) literal);
+        } else if (literal instanceof Double) {
+            return Double.compare(value, (Double) literal);
+        }
+        return literal == null ? 1 : -1;  // Integers sort after NULL and before TEXT
+    }
+
+    // Orders two literals produced by toLiteral the way SQLite orders the values they stand for
+    static int compareLiterals(Object left, Object right) {
+        int rankComparison = Integer.compare(getLiteralRank(left), getLiteralRank(right));
+        if (rankComparison != 0 || left == null) {
+            return rankComparison;
+        }
+        if (left instanceof Long leftLong && right instanceof Long rightLong) {
+            return Long.compare(leftLong, rightLong);
+        } else if (left instanceof Number leftNumber) {
+            return Double.compare(leftNumber.doubleValue(), ((Number) right).doubleValue());
+        }
+        return Arrays.compareUnsigned((byte[]) left, (byte[]) right);
+    }
+
+    // Converts a WHERE literal to a Long, Double or UTF-8 byte[] following the column's type affinity
+    static Object toLiteral(String value, boolean quoted, String affinity) {
+        boolean numericAffinity = affinity.equals("INTEGER") || affinity.equals("REAL") || affinity.equals("NUMERIC");
+        if (!affinity.equals("TEXT") && (numericAffinity || !quoted)) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException ignored) {
+                    // Not a number, fall through to TEXT
+                }
+            }
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Column affinity rules from https://www.sqlite.org/datatype3.html#determination_of_column_affinity
+    static String getAffinity(String declaredType) {
+        String type = declaredType == null ? "" : declaredType.toUpperCase();
+        if (type.contains("INT")) {
+            return "INTEGER";
+        } else if (type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT")) {
+            return "TEXT";
+        } else if (type.isEmpty() || type.contains("BLOB")) {
+            return "BLOB";
+        } else if (type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB")) {
+            return "REAL";
+        }
+        return "NUMERIC";
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// ORDER BY: a bounded heap with a LIMIT, otherwise sorted runs spilled past the budget and merged
+public class Sorter {
+    // Runs merged at once; more runs are merged in several passes
+    private static final int MAX_MERGE_FAN_IN = 64;
+    // Array header and list reference of each buffered entry
+    private static final int ENTRY_OVERHEAD = 24;
+    private static final int END_OF_RUN = -1;
+
+    private final Comparator<byte[]> order;
+    private final long keep;
+    private final long memoryBudget;
+
+    // Max-heap on the order, so the worst kept entry is the one replaced; null once the sort is unbounded
+    private PriorityQueue<byte[]> topEntries;
+    private List<byte[]> entries = new ArrayList<>();
+    private long bufferedBytes;
+    private final List<Path> runs = new ArrayList<>();
+
+    // descending[i] gives the direction of sort key i; keep is offset + limit, or Long.MAX_VALUE without a LIMIT
+    public Sorter(boolean[] descending, long keep, long memoryBudget) {
+        this.order = (left, right) -> {
+            int leftOffset = 0;
+            int rightOffset = 0;
+            for (boolean descendingKey : descending) {
+                int comparison = RowBuffer.compare(left, leftOffset, right, rightOffset);
+                if (comparison != 0) {
+                    return descendingKey ? -comparison : comparison;
+                }
+                leftOffset += RowBuffer.getEncodedLength(left, leftOffset);
+                rightOffset += RowBuffer.getEncodedLength(right, rightOffset);
+            }
+            return 0;
+        };
+        this.keep = keep;
+        this.memoryBudget = memoryBudget;
+        if (keep != Long.MAX_VALUE) {
+            topEntries = new PriorityQueue<>(order.reversed());
+        }
+    }
+
+    public void add(RowBuffer entry) throws IOException {
+        if (keep == 0) {
+            return;
+        }
+        if (topEntries != null) {
+            if (topEntries.size() == keep) {
+                byte[] worst = topEntries.peek();
+                // Only an entry that beats the worst kept one is copied
+                if (order.compare(entry.bytes, worst) >= 0) {
+                    return;
+                }
+                topEntries.poll();
+                bufferedBytes -= worst.length + ENTRY_OVERHEAD;
+            }
+            topEntries.add(entry.toByteArray());
+            bufferedBytes += entry.length + ENTRY_OVERHEAD;
+            if (bufferedBytes > memoryBudget) {
+                // A limit too large for memory is served by the external sort, cutting the output at keep entries
+                entries.addAll(topEntries);
+                topEntries = null;
+                spillRun();
+            }
+            return;
+        }
+        entries.add(entry.toByteArray());
+        bufferedBytes += entry.length + ENTRY_OVERHEAD;
+        if (bufferedBytes > memoryBudget) {
+            spillRun();
+        }
+    }
+
+    // Hands the entries to the consumer in order, at most keep of them
+    public void finish(EntryConsumer consumer) throws IOException {
+        try {
+            if (topEntries != null) {
+                entries.addAll(topEntries);
+                topEntries = null;
+            }
+            if (runs.isEmpty()) {
+                entries.sort(order);
+                long emitted = 0;
+                for (byte[] entry : entries) {
+                    if (emitted++ == keep) {
+                        break;
+                    }
+                    consumer.accept(entry);
+                }
+                return;
+            }
+            if (!entries.isEmpty()) {
+                spillRun();
+            }
+            entries = null;
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+                List<Path> pass = new ArrayList<>(runs.subList(0, MAX_MERGE_FAN_IN));
+                runs.subList(0, MAX_MERGE_FAN_IN).clear();
+                Path merged = Files.createTempFile("mini-sqlite-sort-", ".run");
+                runs.add(merged);
+                try (DataOutputStream out = openRun(merged)) {
+                    merge(pass, Long.MAX_VALUE, entry -> writeEntry(out, entry));
+                    out.writeInt(END_OF_RUN);
+                }
+            }
+            merge(new ArrayList<>(runs), keep, consumer);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+        }
+    }
+
+    private void spillRun() throws IOException {
+        entries.sort(order);
+        Path run = Files.createTempFile("mini-sqlite-sort-", ".run");
+        runs.add(run);
+        try (DataOutputStream out = openRun(run)) {
+            for (byte[] entry : entries) {
+                writeEntry(out, entry);
+            }
+            out.writeInt(END_OF_RUN);
+        }
+        entries.clear();
+        bufferedBytes = 0;
+    }
+
+    // K-way merge of sorted runs, deleting each run once it has been read
+    private void merge(List<Path> mergeRuns, long limit, EntryConsumer consumer) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        PriorityQueue<RunReader> heads = new PriorityQueue<>((left, right) -> order.compare(left.head, right.head));
+        try {
+            for (Path run : mergeRuns) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.advance()) {
+                    heads.add(reader);
+                }
+            }
+            long emitted = 0;
+            while (!heads.isEmpty() && emitted++ < limit) {
+                RunReader reader = heads.poll();
+                consumer.accept(reader.head);
+                if (reader.advance()) {
+                    heads.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+            for (Path run : mergeRuns) {
+                Files.deleteIfExists(run);
+                runs.remove(run);
+            }
+        }
+    }
+
+    // Runs are length-prefixed entries followed by END_OF_RUN
+    private static void writeEntry(DataOutputStream out, byte[] entry) throws IOException {
+        out.writeInt(entry.length);
+        out.write(entry);
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)));
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(byte[] entry) throws IOException;
+    }
+
+    private static class RunReader {
+        final DataInputStream in;
+        byte[] head;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+        }
+
+        boolean advance() throws IOException {
+            int length = in.readInt();
+            if (length == END_OF_RUN) {
+                return false;
+            }
+            head = new byte[length];
+            in.readFully(head);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// ANALYZE results, kept in "<database>.stats" and ignored once the file's change counter moves
+public class Statistics {
+    private static final int MAGIC = 0x4D534153;  // "MSAS"
+    private static final int VERSION = 1;
+    private static final String FILE_SUFFIX = ".stats";
+    private static final int HISTOGRAM_BUCKETS = 32;
+    // Rows sampled per table for the histograms
+    private static final int SAMPLE_SIZE = 4096;
+    // TEXT and BLOB bounds are cut to this many bytes, which keeps the file small and still orders them
+    private static final int MAX_BOUND_LENGTH = 64;
+    private static final byte LONG_BOUND = 0;
+    private static final byte DOUBLE_BOUND = 1;
+    private static final byte BYTES_BOUND = 2;
+
+    private final int changeCounter;
+    // By lower-case table or index name
+    private final Map<String, TreeStatistics> trees = new HashMap<>();
+
+    private Statistics(int changeCounter) {
+        this.changeCounter = changeCounter;
+    }
+
+    static Path getPath(String databaseFilePath) {
+        return Path.of(databaseFilePath + FILE_SUFFIX);
+    }
+
+    // Null when there is no sidecar file, it cannot be read, or it was written for another state of the database
+    static Statistics load(String databaseFilePath, int changeCounter) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getPath(databaseFilePath))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != changeCounter) {
+                return null;
+            }
+            Statistics statistics = new Statistics(changeCounter);
+            int treeCount = in.readInt();
+            for (int i = 0; i < treeCount; i++) {
+                String name = in.readUTF();
+                long entries = in.readLong();
+                long leafPages = in.readLong();
+                int depth = in.readInt();
+                ColumnStatistics[] columns = new ColumnStatistics[in.readInt()];
+                for (int column = 0; column < columns.length; column++) {
+                    long nullCount = in.readLong();
+                    long distinctCount = in.readLong();
+                    Object[] bounds = new Object[in.readInt()];
+                    for (int bound = 0; bound < bounds.length; bound++) {
+                        bounds[bound] = readBound(in);
+                    }
+                    columns[column] = new ColumnStatistics(nullCount, distinctCount, bounds);
+                }
+                statistics.trees.put(name, new TreeStatistics(entries, leafPages, depth, columns));
+            }
+            return statistics;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;  // A damaged file is treated as missing; the next ANALYZE replaces it
+        }
+    }
+
+    // Writes a temporary file and moves it over the old one, so readers never see half a file
+    void save(String databaseFilePath) throws IOException {
+        Path path = getPath(databaseFilePath);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(changeCounter);
+            out.writeInt(trees.size());
+            for (Map.Entry<String, TreeStatistics> entry : trees.entrySet()) {
+                TreeStatistics tree = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(tree.entries);
+                out.writeLong(tree.leafPages);
+                out.writeInt(tree.depth);
+                out.writeInt(tree.columns.length);
+                for (ColumnStatistics column : tree.columns) {
+                    out.writeLong(column.nullCount);
+                    out.writeLong(column.distinctCount);
+                    out.writeInt(column.bounds.length);
+                    for (Object bound : column.bounds) {
+                        writeBound(out, bound);
+                    }
+                }
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Bounds are also how ZoneMap stores its smallest and largest values
+    static Object readBound(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case LONG_BOUND -> in.readLong();
+            case DOUBLE_BOUND -> in.readDouble();
+            case BYTES_BOUND -> in.readNBytes(in.readUnsignedShort());
+            default -> throw new IOException("Unknown bound type " + type);
+        };
+    }
+
+    static void writeBound(DataOutputStream out, Object bound) throws IOException {
+        if (bound instanceof Long value) {
+            out.writeByte(LONG_BOUND);
+            out.writeLong(value);
+        } else if (bound instanceof Double value) {
+            out.writeByte(DOUBLE_BOUND);
+            out.writeDouble(value);
+        } else {
+            byte[] value = (byte[]) bound;
+            out.writeByte(BYTES_BOUND);
+            out.writeShort(value.length);
+            out.write(value);
+        }
+    }
+
+    // Other tables' statistics are kept from previous when it describes the same state of the file
+    static Statistics analyze(PageSource pageSource, List<SchemaCatalog.TableInfo> tables, Statistics previous) throws IOException {
+        Statistics statistics = new Statistics(SchemaCatalog.readChangeCounter(pageSource));
+        if (previous != null && previous.changeCounter == statistics.changeCounter) {
+            statistics.trees.putAll(previous.trees);
+        }
+        for (SchemaCatalog.TableInfo table : tables) {
+            statistics.trees.put(table.name.toLowerCase(), analyzeTable(pageSource, table));
+            for (SchemaCatalog.IndexInfo index : table.indexes) {
+                long entries = 0;
+                BTreeCursor cursor = new BTreeCursor(pageSource, index.rootPage, null);
+                while (cursor.next()) {
+                    entries++;
+                }
+                statistics.trees.put(index.name.toLowerCase(), new TreeStatistics(entries,
+                        BTreePage.countLeafPages(pageSource, index.rootPage), BTreePage.getDepth(pageSource, index.rootPage),
+                        new ColumnStatistics[0]));
+            }
+        }
+        return statistics;
+    }
+
+    // Every value goes into the column's HyperLogLog; a reservoir sample of whole rows feeds the histograms
+    private static TreeStatistics analyzeTable(PageSource pageSource, SchemaCatalog.TableInfo table) throws IOException {
+        int columnCount = table.columns.length;
+        HyperLogLog[] distinctValues = new HyperLogLog[columnCount];
+        long[] nullCounts = new long[columnCount];
+        Object[][] samples = new Object[columnCount][SAMPLE_SIZE];
+        for (int column = 0; column < columnCount; column++) {
+            distinctValues[column] = new HyperLogLog();
+        }
+        Random random = new Random(table.rootPage);  // Seeded, so analysing the same file gives the same statistics
+        Record row = new Record(table.rowidColumn, columnCount);
+        BTreeCursor cursor = new BTreeCursor(pageSource, table.rootPage, null);
+        long rows = 0;
+        while (cursor.next()) {
+            row.reset(cursor);
+            rows++;
+            long slot = rows <= SAMPLE_SIZE ? rows - 1 : random.nextLong(rows);
+            boolean sampled = slot < SAMPLE_SIZE;
+            for (int column = 0; column < columnCount; column++) {
+                Object value = null;
+                if (row.isNull(column)) {
+                    nullCounts[column]++;
+                } else if (row.isInteger(column)) {
+                    long integer = row.getLong(column);
+                    distinctValues[column].addLong(integer);
+                    value = sampled ? integer : null;
+                } else if (row.isFloat(column)) {
+                    double real = row.getDouble(column);
+                    distinctValues[column].addDouble(real);
+                    value = sampled ? real : null;
+                } else {
+                    ByteBuffer bytes = row.getValue(column);
+                    distinctValues[column].addBytes(bytes);
+                    if (sampled) {
+                        byte[] bound = new byte[Math.min(bytes.remaining(), MAX_BOUND_LENGTH)];
+                        bytes.get(bytes.position(), bound);
+                        value = bound;
+                    }
+                }
+                if (sampled) {
+                    samples[column][(int) slot] = value;
+                }
+            }
+        }
+        ColumnStatistics[] columns = new ColumnStatistics[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            long nonNullRows = rows - nullCounts[column];
+            long distinctCount = Math.min(distinctValues[column].estimate(), nonNullRows);
+            columns[column] = new ColumnStatistics(nullCounts[column], distinctCount, getBounds(samples[column]));
+        }
+        return new TreeStatistics(rows, BTreePage.countLeafPages(pageSource, table.rootPage),
+                BTreePage.getDepth(pageSource, table.rootPage), columns);
+    }
+
+    // Equi-depth: the sample's values at HISTOGRAM_BUCKETS + 1 evenly spaced positions
+    private static Object[] getBounds(Object[] sample) {
+        Object[] values = Arrays.stream(sample).filter(value -> value != null).sorted(SerialType::compareLiterals).toArray();
+        if (values.length <= 1) {
+            return values;
+        }
+        int buckets = Math.min(HISTOGRAM_BUCKETS, values.length - 1);
+        Object[] bounds = new Object[buckets + 1];
+        for (int i = 0; i <= buckets; i++) {
+            bounds[i] = values[(int) ((long) i * (values.length - 1) / buckets)];
+        }
+        return bounds;
+    }
+
+    // Null when the table or index has not been analysed
+    TreeStatistics getTree(String name) {
+        return trees.get(name.toLowerCase());
+    }
+
+    // Columns are taken to be independent; -1 when the table has not been analysed
+    double getSelectivity(SchemaCatalog.TableInfo table, List<WhereFilter.Condition> conditions) {
+        TreeStatistics tree = getTree(table.name);
+        if (tree == null) {
+            return -1;
+        }
+        double selectivity = 1;
+        // Each column is estimated once, from all the conditions on it
+        Set<Integer> estimatedColumns = new HashSet<>();
+        for (WhereFilter.Condition condition : conditions) {
+            int ordinal = table.getOrdinal(condition.column);
+            if (ordinal == -1 || ordinal >= tree.columns.length || !estimatedColumns.add(ordinal)) {
+                continue;
+            }
+            String affinity = SerialType.getAffinity(table.columnTypes[ordinal]);
+            selectivity *= tree.columns[ordinal].getSelectivity(tree.entries, conditions, table.columns[ordinal], affinity);
+        }
+        return selectivity;
+    }
+
+    static class TreeStatistics {
+        final long entries;
+        final long leafPages;
+        // Levels from the root to the leaves, 1 when the root is a leaf
+        final int depth;
+        // One per table column; none for an index, whose keys are described by its table's columns
+        final ColumnStatistics[] columns;
+
+        TreeStatistics(long entries, long leafPages, int depth, ColumnStatistics[] columns) {
+            this.entries = entries;
+            this.leafPages = leafPages;
+            this.depth = depth;
+            this.columns = columns;
+        }
+    }
+
+    static class ColumnStatistics {
+        final long nullCount;
+        // HyperLogLog estimate over the non-NULL values
+        final long distinctCount;
+        // Equi-depth histogram bounds in SQLite order, as SerialType.toLiteral values
+        final Object[] bounds;
+
+        ColumnStatistics(long nullCount, long distinctCount, Object[] bounds) {
+            this.nullCount = nullCount;
+            this.distinctCount = distinctCount;
+            this.bounds = bounds;
+        }
+
+        // Share of the rows whose value meets all the conditions on the named column; NULL never does
+        double getSelectivity(long rows, List<WhereFilter.Condition> conditions, String column, String affinity) {
+            if (rows == 0 || bounds.length == 0) {
+                return 0;
+            }
+            double selectivity = (double) (rows - nullCount) / rows;
+            KeyRange range = KeyRange.fromConditions(conditions, column, affinity);
+            if (range != null) {
+                selectivity *= range.isEquality() ? getEqualShare(range.lowerBound) : getRangeShare(range);
+            }
+            for (WhereFilter.Condition condition : conditions) {
+                if (condition.column.equalsIgnoreCase(column) && (condition.operator.equals("<>") || condition.operator.equals("!="))) {
+                    selectivity *= 1 - getEqualShare(SerialType.toLiteral(condition.value, condition.quoted, affinity));
+                }
+            }
+            return selectivity;
+        }
+
+        // More than one distinct value's share for a value filling several histogram buckets
+        private double getEqualShare(Object literal) {
+            if (SerialType.compareLiterals(literal, bounds[0]) < 0 || SerialType.compareLiterals(literal, bounds[bounds.length - 1]) > 0) {
+                return 0;
+            }
+            int equalBounds = 0;
+            for (Object bound : bounds) {
+                if (SerialType.compareLiterals(bound, literal) == 0) {
+                    equalBounds++;
+                }
+            }
+            double bucketShare = bounds.length == 1 ? 1 : (double) (equalBounds - 1) / (bounds.length - 1);
+            return Math.max(1.0 / Math.max(distinctCount, 1), bucketShare);
+        }
+
+        private double getRangeShare(KeyRange range) {
+            double below = range.lowerBound == null ? 0
+                    : getShareBelow(range.lowerBound) + (range.lowerInclusive ? 0 : getEqualShare(range.lowerBound));
+            double upTo = range.upperBound == null ? 1
+                    : getShareBelow(range.upperBound) + (range.upperInclusive ? getEqualShare(range.upperBound) : 0);
+            return Math.max(0, Math.min(1, upTo) - below);
+        }
+
+        // Share of the non-NULL values below the literal, interpolated within the bucket it falls in
+        private double getShareBelow(Object literal) {
+            int low = 0;
+            int high = bounds.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (SerialType.compareLiterals(bounds[middle], literal) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            // bounds[low - 1] < literal <= bounds[low]
+            if (low == 0) {
+                return 0;
+            } else if (low == bounds.length) {
+                return 1;
+            }
+            return (low - 1 + interpolate(bounds[low - 1], bounds[low], literal)) / (bounds.length - 1);
+        }
+
+        private static double interpolate(Object lower, Object upper, Object literal) {
+            if (lower instanceof Number low && upper instanceof Number high && literal instanceof Number value) {
+                double width = high.doubleValue() - low.doubleValue();
+                return width <= 0 ? 0.5 : Math.min(1, Math.max(0, (value.doubleValue() - low.doubleValue()) / width));
+            }
+            return 0.5;
+        }
+    }
+}
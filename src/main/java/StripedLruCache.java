@@ -0,0 +1,68 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Bounded map split into locked LRU stripes; locks are never held while a value is loaded
+public class StripedLruCache<K, V> {
+    private final Map<K, V>[] stripes;
+    private final int stripeShift;
+
+    public StripedLruCache(int capacity) {
+        this(capacity, key -> {
+        });
+    }
+
+    // onEvict is called with the key of each evicted entry, under its stripe's lock
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedLruCache(int capacity, Consumer<K> onEvict) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        }
+        // About four stripes per core, but never more stripes than entries
+        int stripeCount = Integer.highestOneBit(Math.min(capacity, 4 * Runtime.getRuntime().availableProcessors()));
+        int stripeCapacity = (capacity + stripeCount - 1) / stripeCount;
+        stripes = new Map[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    if (size() <= stripeCapacity) {
+                        return false;
+                    }
+                    onEvict.accept(eldest.getKey());
+                    return true;
+                }
+            };
+        }
+        stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    public V get(K key) {
+        Map<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    // Unlike get, does not count as a use of the entry
+    public boolean containsKey(K key) {
+        Map<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.containsKey(key);
+        }
+    }
+
+    // Adds the value unless another thread added one for the key first; returns the value now cached
+    public V putIfAbsent(K key, V value) {
+        Map<K, V> stripe = getStripe(key);
+        synchronized (stripe) {
+            V existing = stripe.putIfAbsent(key, value);
+            return existing != null ? existing : value;
+        }
+    }
+
+    // Fibonacci hashing, so consecutive page numbers land on different stripes
+    private Map<K, V> getStripe(K key) {
+        return stripeShift == 32 ? stripes[0] : stripes[(key.hashCode() * 0x9E3779B9) >>> stripeShift];
+    }
+}
@@ -1,30 +1,63 @@
-import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
-public class VarInt {
-    long value;
-    int sizeInBytes;
-
-     VarInt(int sizeInBytes, long value) {
-        this.sizeInBytes = sizeInBytes;
-        this.value = value;
+// A ninth byte contributes all 8 of its bits
+public final class VarInt {
+    private VarInt() {
     }
 
-    public static VarInt readVarInt(RandomAccessFile dbFile) throws IOException {
-        long value = 0;
-        int numBytes = 0;
-
-        for (int i = 0; i < 9; i++) {
-            int b = dbFile.readUnsignedByte();
-            value = (value << 7) | (b & 0x7F);  // Mask out the MSB and shift in 7 bits
+    // Value of the varint starting at offset
+    static long read(ByteBuffer buffer, int offset) {
+        int b = buffer.get(offset);
+        if (b >= 0) {
+            return b;  // One byte, the common case for serial types and small sizes
+        }
+        long value = b & 0x7F;
+        for (int i = 1; i < 8; i++) {
+            b = buffer.get(offset + i);
+            value = (value << 7) | (b & 0x7F);
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return (value << 8) | Byte.toUnsignedInt(buffer.get(offset + 8));
+    }
 
-            numBytes++;
-            if ((b & 0x80) == 0) {
-                break;  // VarInt ends when the MSB is not set
+    // Number of bytes of the varint starting at offset
+    static int getLength(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < 8; i++) {
+            if (buffer.get(offset + i) >= 0) {
+                return i + 1;
             }
         }
+        return 9;
+    }
 
-        return new VarInt(numBytes, value);
+    // Bytes needed to encode value: 7 bits per byte, with all 8 bits of a ninth byte for the largest values
+    static int getSize(long value) {
+        for (int size = 1; size < 9; size++) {
+            if (value >>> (7 * size) == 0) {
+                return size;
+            }
+        }
+        return 9;
     }
 
+    // Writes value at offset and returns the number of bytes written
+    static int write(byte[] buffer, int offset, long value) {
+        int size = getSize(value);
+        if (size == 9) {
+            buffer[offset + 8] = (byte) value;
+            value >>>= 8;
+            for (int i = 7; i >= 0; i--) {
+                buffer[offset + i] = (byte) (0x80 | (value & 0x7F));
+                value >>>= 7;
+            }
+            return size;
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            buffer[offset + i] = (byte) ((i == size - 1 ? 0 : 0x80) | (value & 0x7F));
+            value >>>= 7;
+        }
+        return size;
+    }
 }
@@ -1,118 +1,209 @@
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 
 public class WhereFilter {
+    private static final Pattern BETWEEN_PATTERN = Pattern.compile("(?i)([a-zA-Z0-9_]+)\\s+BETWEEN\\s+('[^']*'|\\S+)\\s+AND\\s+('[^']*'|\\S+)");
 
-    private static Condition getCondition(String whereClause) {
+    // Placeholders numbered so far by parse
+    private int parameterCount;
+
+    private Condition getCondition(String whereClause) {
         String column = "";
         String operator = "";
         String value = "";
-        for (String op : new String[]{"<=", ">=", "=", "<", ">", "<>"}) {
-            if (whereClause.contains(op)) {
-                String[] parts = whereClause.split(op);
-                column = parts[0].trim();
+        boolean quoted = false;
+        // The first operator in the text; at the same position "<>" and "!=" win over "<" and "="
+        int at = -1;
+        for (String op : new String[]{"<=", ">=", "<>", "!=", "=", "<", ">"}) {
+            int index = whereClause.indexOf(op);
+            if (index != -1 && (at == -1 || index < at)) {
+                at = index;
                 operator = op;
-                value = parts[1].trim();
-                if (value.charAt(0) == '\'') {
-                    value = value.substring(1, value.length() - 1);
-                } else {
-                    value = parts[1].trim();
+            }
+        }
+        if (at != -1) {
+            column = whereClause.substring(0, at).trim();
+            value = whereClause.substring(at + operator.length()).trim();
+            if (value.startsWith("'")) {
+                if (value.length() < 2 || !value.endsWith("'")) {
+                    throw new IllegalArgumentException("Unterminated string literal in where clause: " + whereClause);
                 }
-                break;
+                value = value.substring(1, value.length() - 1);
+                quoted = true;
             }
         }
-        if (column.isEmpty() || operator.isEmpty() || value.isEmpty()) {
+        if (column.isEmpty() || operator.isEmpty() || (value.isEmpty() && !quoted)) {
             throw new IllegalArgumentException("Invalid where clause: " + whereClause);
         }
-        return new Condition(column, operator, value);
-    }
-
-    public void filter(String whereClause, String[] tableColumnsArray, List<Map<String, byte[]>> rows) {
-        if (whereClause == null || whereClause.isEmpty() || rows.isEmpty()) {
-            return;
+        Condition condition = new Condition(column, operator, value, quoted);
+        // An unquoted ? is a placeholder, numbered in the order it appears
+        if (!quoted && value.equals("?")) {
+            condition.parameter = parameterCount++;
         }
+        return condition;
+    }
 
-        // Step 1: Parse the whereClause into a binary tree
-        Node root = parseWhereClause(whereClause);
+    // Null when the clause is empty
+    public Node parse(String whereClause) {
+        return parseWhereClause(whereClause);
+    }
 
-        // Step 2: Filter rows based on the whereClause
-        for (int i = 0; i < rows.size(); i++) {
-            Map<String, byte[]> row = rows.get(i);
-            if (!evaluate(root, row, tableColumnsArray)) {
-                rows.remove(i);
-                i--;
-            }
+    // Number of ? placeholders parse has found
+    public int getParameterCount() {
+        return parameterCount;
+    }
 
+    // Conditions without a placeholder are shared with the original
+    static Node bind(Node node, Object[] parameters) {
+        if (node == null) {
+            return null;
+        }
+        if (node.type != NodeType.CONDITION) {
+            Node bound = new Node(node.type);
+            bound.left = bind(node.left, parameters);
+            bound.right = bind(node.right, parameters);
+            return bound;
         }
+        Condition condition = node.condition;
+        if (condition.parameter == -1) {
+            return node;
+        }
+        Object value = parameters[condition.parameter];
+        if (!(value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Double)) {
+            throw new IllegalArgumentException("Parameter " + (condition.parameter + 1) + " must be a String, Long, Integer or Double");
+        }
+        return new Node(NodeType.CONDITION, new Condition(condition.column, condition.operator, value.toString(), value instanceof String));
     }
 
-    private boolean evaluate(Node node, Map<String, byte[]> row, String[] tableColumnsArray) {
-        if (node == null) {
-            return true;
+    // The conditions joined by AND, or null when there are none
+    static Node and(List<Condition> conditions) {
+        Node root = null;
+        for (Condition condition : conditions) {
+            Node node = new Node(NodeType.CONDITION, condition);
+            if (root != null) {
+                Node and = new Node(NodeType.AND);
+                and.left = root;
+                and.right = node;
+                node = and;
+            }
+            root = node;
         }
+        return root;
+    }
+
+    // Evaluating a row builds no String: TEXT compares byte-wise as UTF-8
+    public Predicate<Record> compile(String whereClause, String[] tableColumnsArray, String[] tableColumnTypes) {
+        return compile(parseWhereClause(whereClause), tableColumnsArray, tableColumnTypes);
+    }
+
+    // Compiles a tree from parse, after bind has filled in its placeholders
+    public Predicate<Record> compile(Node root, String[] tableColumnsArray, String[] tableColumnTypes) {
+        return root == null ? row -> true : compileNode(root, tableColumnsArray, tableColumnTypes);
+    }
+
+    private Predicate<Record> compileNode(Node node, String[] tableColumnsArray, String[] tableColumnTypes) {
         return switch (node.type) {
-            case AND -> evaluate(node.left, row, tableColumnsArray) && evaluate(node.right, row, tableColumnsArray);
-            case OR -> evaluate(node.left, row, tableColumnsArray) || evaluate(node.right, row, tableColumnsArray);
-            case CONDITION -> evaluateCondition(node.condition, row, tableColumnsArray);
+            case AND -> {
+                Predicate<Record> left = compileNode(node.left, tableColumnsArray, tableColumnTypes);
+                Predicate<Record> right = compileNode(node.right, tableColumnsArray, tableColumnTypes);
+                yield row -> left.test(row) && right.test(row);
+            }
+            case OR -> {
+                Predicate<Record> left = compileNode(node.left, tableColumnsArray, tableColumnTypes);
+                Predicate<Record> right = compileNode(node.right, tableColumnsArray, tableColumnTypes);
+                yield row -> left.test(row) || right.test(row);
+            }
+            case CONDITION -> compileCondition(node.condition, tableColumnsArray, tableColumnTypes);
         };
     }
 
-    private boolean evaluateCondition(Condition condition, Map<String, byte[]> row, String[] tableColumnsArray) {
-        String column = condition.column;
-        String operator = condition.operator;
-        String value = condition.value;
-
-        byte[] columnValue = row.get(column);
-        if (columnValue == null) {
-            throw new IllegalArgumentException("Column not found: " + column);
+    private Predicate<Record> compileCondition(Condition condition, String[] tableColumnsArray, String[] tableColumnTypes) {
+        // Resolved here rather than stored in the condition, which a cached statement shares between executions
+        int columnIndex = findColumn(condition.column, tableColumnsArray);
+        if (columnIndex == -1) {
+            throw new IllegalArgumentException("Column " + condition.column + " does not exist");
+        }
+        if (condition.parameter != -1) {
+            throw new IllegalArgumentException("No value bound to parameter " + (condition.parameter + 1));
         }
+        Object literal = SerialType.toLiteral(condition.value, condition.quoted, SerialType.getAffinity(tableColumnTypes[columnIndex]));
+        IntPredicate comparison = switch (condition.operator) {
+            case "<=" -> result -> result <= 0;
+            case ">=" -> result -> result >= 0;
+            case "!=", "<>" -> result -> result != 0;
+            case "=" -> result -> result == 0;
+            case "<" -> result -> result < 0;
+            case ">" -> result -> result > 0;
+            default -> throw new IllegalArgumentException("Invalid operator: " + condition.operator);
+        };
+        // A comparison with NULL is never true
+        return row -> !row.isNull(columnIndex) && comparison.test(row.compare(columnIndex, literal));
+    }
 
-        // Convert the byte[] value to a string
-        String columnValueStr = new String(columnValue);
+    // The first column the tree names that the table does not have, or null
+    static String findUnknownColumn(Node node, String[] tableColumnsArray) {
+        if (node == null) {
+            return null;
+        }
+        if (node.type == NodeType.CONDITION) {
+            return findColumn(node.condition.column, tableColumnsArray) == -1 ? node.condition.column : null;
+        }
+        String unknown = findUnknownColumn(node.left, tableColumnsArray);
+        return unknown != null ? unknown : findUnknownColumn(node.right, tableColumnsArray);
+    }
 
-        // Get the index of the column in the tableColumnsArray
-        int columnIndex = -1;
+    private static int findColumn(String column, String[] tableColumnsArray) {
         for (int i = 0; i < tableColumnsArray.length; i++) {
-            if (tableColumnsArray[i].equals(column)) {
-                columnIndex = i;
-                break;
+            if (tableColumnsArray[i].equalsIgnoreCase(column)) {
+                return i;
             }
         }
+        return -1;
+    }
 
-        if (columnIndex == -1) {
-            throw new IllegalArgumentException("Column not found in table columns: " + column);
-        }
-
-        // Compare the column value with the condition value based on the operator
-        return switch (operator) {
-            case "<=" -> columnValueStr.compareTo(value) <= 0;
-            case ">=" -> columnValueStr.compareTo(value) >= 0;
-            case "!=", "<>" -> !columnValueStr.equals(value);
-            case "=" -> columnValueStr.equals(value);
-            case "<" -> columnValueStr.compareTo(value) < 0;
-            case ">" -> columnValueStr.compareTo(value) > 0;
-            default -> throw new IllegalArgumentException("Invalid operator: " + operator);
+    // Returns the conditions of a WHERE clause made only of ANDs, or an empty list if it contains an OR
+    List<Condition> getAndConditions(Node root) {
+        List<Condition> conditions = new ArrayList<>();
+        if (root == null || !collectAndConditions(root, conditions)) {
+            return new ArrayList<>();
+        }
+        return conditions;
+    }
+
+    private boolean collectAndConditions(Node node, List<Condition> conditions) {
+        if (node == null) {
+            return true;
+        }
+        return switch (node.type) {
+            case AND -> collectAndConditions(node.left, conditions) && collectAndConditions(node.right, conditions);
+            case OR -> false;
+            case CONDITION -> conditions.add(node.condition);
         };
     }
 
     private Node parseWhereClause(String whereClause) {
         // Remove leading and trailing whitespaces
         whereClause = whereClause.trim();
+        // Rewrite "x BETWEEN a AND b" as "x >= a AND x <= b" before splitting on AND
+        whereClause = BETWEEN_PATTERN.matcher(whereClause).replaceAll("$1 >= $2 AND $1 <= $3");
 
         if (whereClause.isEmpty()) {
             return null;
         }
         if (whereClause.contains(" OR ")) {
             Node node = new Node(NodeType.OR);
-            String[] parts = whereClause.split(" OR ", 1);
+            String[] parts = whereClause.split(" OR ", 2);
             node.left = parseWhereClause(parts[0]);
             node.right = parseWhereClause(parts[1]);
             return node;
         }
         if (whereClause.contains(" AND ")) {
             Node node = new Node(NodeType.AND);
-            String[] parts = whereClause.split(" AND ", 1);
+            String[] parts = whereClause.split(" AND ", 2);
             node.left = parseWhereClause(parts[0]);
             node.right = parseWhereClause(parts[1]);
             return node;
@@ -145,13 +236,16 @@ public class WhereFilter {
         String column;
         String operator;
         String value;
+        // Whether the value was written as a quoted string literal
+        boolean quoted;
+        // Number of the ? placeholder the value comes from, or -1 for a literal
+        int parameter = -1;
 
-        Condition(String column, String operator, String value) {
+        Condition(String column, String operator, String value, boolean quoted) {
             this.column = column;
             this.operator = operator;
             this.value = value;
+            this.quoted = quoted;
         }
     }
-
-    // Step 1: Parse the whereClause into a binary tree
 }
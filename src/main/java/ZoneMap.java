@@ -0,0 +1,402 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+// Per-page min/max and per-leaf bloom filters, kept in "<database>.zonemap" for one change counter
+public class ZoneMap {
+    private static final int MAGIC = 0x4D535A4D;  // "MSZM"
+    private static final int VERSION = 1;
+    private static final String FILE_SUFFIX = ".zonemap";
+    // Longer TEXT values keep a prefix as their bound; a prefix still bounds from below, but not from above
+    private static final int MAX_VALUE_LENGTH = 64;
+    // About 1% false positives at 10 bits and 7 hashes per value
+    private static final int BLOOM_BITS_PER_VALUE = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int MAX_BLOOM_WORDS = 64;
+    private static final byte UNKNOWN = 1;
+    private static final byte HAS_BLOBS = 2;
+    private static final byte HAS_VALUES = 4;
+    private static final byte MAX_OPEN = 8;
+
+    private final int changeCounter;
+    // Decoded the first time a scan asks for the table
+    private final Map<String, byte[]> encodedTables = new HashMap<>();
+    private final Map<String, TableZones> tables = new ConcurrentHashMap<>();
+
+    private ZoneMap(int changeCounter) {
+        this.changeCounter = changeCounter;
+    }
+
+    static Path getPath(String databaseFilePath) {
+        return Path.of(databaseFilePath + FILE_SUFFIX);
+    }
+
+    // Null when there is no sidecar file, it cannot be read, or it was written for another state of the database
+    static ZoneMap load(String databaseFilePath, int changeCounter) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getPath(databaseFilePath))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != changeCounter) {
+                return null;
+            }
+            ZoneMap zoneMap = new ZoneMap(changeCounter);
+            int tableCount = in.readInt();
+            for (int i = 0; i < tableCount; i++) {
+                String name = in.readUTF();
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                zoneMap.encodedTables.put(name, encoded);
+            }
+            return zoneMap;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;  // A damaged file is treated as missing; the next .zonemap replaces it
+        }
+    }
+
+    // Writes a temporary file and moves it over the old one, so readers never see half a file
+    void save(String databaseFilePath) throws IOException {
+        Path path = getPath(databaseFilePath);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(changeCounter);
+            out.writeInt(encodedTables.size());
+            for (Map.Entry<String, byte[]> entry : encodedTables.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // One walk of the B-tree; previous supplies the other tables while the change counter matches
+    static ZoneMap build(PageSource pageSource, SchemaCatalog.TableInfo table, int[] columns, ZoneMap previous) throws IOException {
+        ZoneMap zoneMap = new ZoneMap(SchemaCatalog.readChangeCounter(pageSource));
+        if (previous != null && previous.changeCounter == zoneMap.changeCounter) {
+            zoneMap.encodedTables.putAll(previous.encodedTables);
+            zoneMap.tables.putAll(previous.tables);
+        }
+        Map<Integer, Zone[]> pages = new HashMap<>();
+        summarize(pageSource, table, columns, table.rootPage, pages);
+        TableZones zones = new TableZones(columns, pages);
+        zoneMap.encodedTables.put(table.name.toLowerCase(), zones.encode());
+        zoneMap.tables.put(table.name.toLowerCase(), zones);
+        return zoneMap;
+    }
+
+    private static Zone[] summarize(PageSource pageSource, SchemaCatalog.TableInfo table, int[] columns, int pageNumber,
+                                    Map<Integer, Zone[]> pages) throws IOException {
+        ByteBuffer page = pageSource.getPage(pageNumber);
+        int headerOffset = BTreePage.getHeaderOffset(pageNumber);
+        byte pageType = BTreePage.getPageType(page, headerOffset);
+        int numberOfCells = BTreePage.getNumberOfCells(page, headerOffset);
+        Zone[] zones = new Zone[columns.length];
+        if (pageType == BTreePage.LEAF_TABLE) {
+            int bloomWords = Math.max(1, Math.min(MAX_BLOOM_WORDS, (numberOfCells * BLOOM_BITS_PER_VALUE + 63) / 64));
+            for (int column = 0; column < columns.length; column++) {
+                zones[column] = new Zone(new long[bloomWords]);
+            }
+            Record row = new Record(table.rowidColumn, table.columns.length);
+            BTreeCursor cursor = new BTreeCursor(pageSource, pageNumber, null);
+            while (cursor.next()) {
+                row.reset(cursor);
+                for (int column = 0; column < columns.length; column++) {
+                    zones[column].add(row, columns[column]);
+                }
+            }
+        } else if (pageType == BTreePage.INTERIOR_TABLE) {
+            for (int column = 0; column < columns.length; column++) {
+                zones[column] = new Zone(null);  // Unions of the children's blooms would be too full to rule anything out
+            }
+            List<Integer> children = new ArrayList<>();
+            for (int cellPointer : BTreePage.getCellPointers(page, headerOffset, pageType, numberOfCells)) {
+                children.add(page.getInt(cellPointer));
+            }
+            children.add(BTreePage.getRightMostPointer(page, headerOffset));
+            for (int child : children) {
+                Zone[] childZones = summarize(pageSource, table, columns, child, pages);
+                for (int column = 0; column < columns.length; column++) {
+                    zones[column].merge(childZones[column]);
+                }
+            }
+        } else {
+            throw new IOException("Page " + pageNumber + " is not a table B-tree page");
+        }
+        pages.put(pageNumber, zones);
+        return zones;
+    }
+
+    // Null when the table has no zone map, or its zones cannot be decoded
+    TableZones getTable(String name) {
+        String key = name.toLowerCase();
+        byte[] encoded = encodedTables.get(key);
+        return encoded == null ? null : tables.computeIfAbsent(key, ignored -> TableZones.decode(encoded));
+    }
+
+    static class TableZones {
+        // Ordinals of the columns with zones, in the order of each page's zones
+        final int[] columns;
+        // By page number, for every page of the table's B-tree
+        final Map<Integer, Zone[]> pages;
+
+        TableZones(int[] columns, Map<Integer, Zone[]> pages) {
+            this.columns = columns;
+            this.pages = pages;
+        }
+
+        // Null when the bytes are damaged
+        private static TableZones decode(byte[] encoded) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+                int[] columns = new int[in.readInt()];
+                for (int column = 0; column < columns.length; column++) {
+                    columns[column] = in.readInt();
+                }
+                int pageCount = in.readInt();
+                Map<Integer, Zone[]> pages = new HashMap<>(pageCount * 2);
+                for (int page = 0; page < pageCount; page++) {
+                    int pageNumber = in.readInt();
+                    Zone[] zones = new Zone[columns.length];
+                    for (int column = 0; column < columns.length; column++) {
+                        zones[column] = Zone.read(in);
+                    }
+                    pages.put(pageNumber, zones);
+                }
+                return new TableZones(columns, pages);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        private byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(columns.length);
+                for (int column : columns) {
+                    out.writeInt(column);
+                }
+                out.writeInt(pages.size());
+                for (Map.Entry<Integer, Zone[]> page : pages.entrySet()) {
+                    out.writeInt(page.getKey());
+                    for (Zone zone : page.getValue()) {
+                        zone.write(out);
+                    }
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        // Null when no condition is on a column with zones
+        IntPredicate getPageFilter(SchemaCatalog.TableInfo table, List<WhereFilter.Condition> conditions) {
+            List<Integer> zoneIndexes = new ArrayList<>();
+            List<String> operators = new ArrayList<>();
+            List<Object> literals = new ArrayList<>();
+            for (WhereFilter.Condition condition : conditions) {
+                int ordinal = table.getOrdinal(condition.column);
+                int zoneIndex = indexOf(ordinal);
+                if (ordinal == -1 || zoneIndex == -1 || condition.parameter != -1) {
+                    continue;  // The filter reports unknown columns and unbound parameters
+                }
+                zoneIndexes.add(zoneIndex);
+                operators.add(condition.operator);
+                literals.add(SerialType.toLiteral(condition.value, condition.quoted, SerialType.getAffinity(table.columnTypes[ordinal])));
+            }
+            if (zoneIndexes.isEmpty()) {
+                return null;
+            }
+            return pageNumber -> {
+                Zone[] zones = pages.get(pageNumber);
+                if (zones == null) {
+                    return true;
+                }
+                for (int i = 0; i < zoneIndexes.size(); i++) {
+                    if (!zones[zoneIndexes.get(i)].mayMatch(operators.get(i), literals.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+        }
+
+        private int indexOf(int ordinal) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] == ordinal) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // NULLs and BLOBs are left out; an integer beyond 2^53 makes the zone unknown, as REALs compare by rounding
+    static class Zone {
+        boolean unknown;
+        boolean hasBlobs;
+        // Smallest and largest value as SerialType.toLiteral values, both null when there are none
+        Object min;
+        Object max;
+        // Set when max is the prefix of a longer TEXT value, which bounds nothing from above
+        boolean maxOpen;
+        // Set bits for the hashes of the values of a leaf; null on interior pages
+        final long[] bloom;
+
+        Zone(long[] bloom) {
+            this.bloom = bloom;
+        }
+
+        void add(Record row, int column) {
+            if (row.isNull(column)) {
+                return;
+            }
+            if (row.isInteger(column)) {
+                long value = row.getLong(column);
+                unknown |= !isExact(value);
+                include(value, false);
+                addHash(HyperLogLog.hashLong(value));
+            } else if (row.isFloat(column)) {
+                double value = row.getDouble(column);
+                unknown |= !isExact(value);
+                include(value, false);
+                addHash(HyperLogLog.hashDouble(value));
+            } else if (row.isText(column)) {
+                ByteBuffer value = row.getValue(column);
+                byte[] bound = new byte[Math.min(value.remaining(), MAX_VALUE_LENGTH)];
+                value.get(value.position(), bound);
+                include(bound, value.remaining() > MAX_VALUE_LENGTH);
+                addHash(HyperLogLog.hashBytes(value));
+            } else {
+                hasBlobs = true;
+            }
+        }
+
+        void merge(Zone child) {
+            unknown |= child.unknown;
+            hasBlobs |= child.hasBlobs;
+            if (child.min != null) {
+                include(child.min, false);
+                include(child.max, child.maxOpen);
+            }
+        }
+
+        // A prefix is never above its value, and two full-length prefixes order like their values
+        private void include(Object value, boolean open) {
+            if (min == null || SerialType.compareLiterals(value, min) < 0) {
+                min = value;
+            }
+            int comparison = max == null ? 1 : SerialType.compareLiterals(value, max);
+            if (comparison > 0) {
+                max = value;
+                maxOpen = open;
+            } else if (comparison == 0) {
+                maxOpen |= open;
+            }
+        }
+
+        private void addHash(long hash) {
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = getBloomBit(hash, i);
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        // Double hashing: the i-th probe steps i times the odd upper half of the hash from the hash itself
+        private int getBloomBit(long hash, int i) {
+            return (int) Math.floorMod(hash + i * ((hash >>> 32) | 1), bloom.length * 64L);
+        }
+
+        private boolean mayContain(Object literal) {
+            if (bloom == null || (literal instanceof Number && !isExact(literal))) {
+                return true;
+            }
+            long hash = literal instanceof Long value ? HyperLogLog.hashLong(value)
+                    : literal instanceof Double value ? HyperLogLog.hashDouble(value)
+                    : HyperLogLog.hashBytes(ByteBuffer.wrap((byte[]) literal));
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = getBloomBit(hash, i);
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // False only when no value below the page can meet "column operator literal", as WhereFilter compares them
+        boolean mayMatch(String operator, Object literal) {
+            boolean blobsMatch = operator.equals(">") || operator.equals(">=") || operator.equals("!=") || operator.equals("<>");
+            if (unknown || (hasBlobs && blobsMatch)) {
+                return true;
+            } else if (min == null) {
+                return false;
+            }
+            return switch (operator) {
+                case "=" -> SerialType.compareLiterals(literal, min) >= 0 && (maxOpen || SerialType.compareLiterals(literal, max) <= 0)
+                        && mayContain(literal);
+                case "<" -> SerialType.compareLiterals(min, literal) < 0;
+                case "<=" -> SerialType.compareLiterals(min, literal) <= 0;
+                case ">" -> maxOpen || SerialType.compareLiterals(max, literal) > 0;
+                case ">=" -> maxOpen || SerialType.compareLiterals(max, literal) >= 0;
+                case "!=", "<>" -> maxOpen || SerialType.compareLiterals(min, max) != 0 || SerialType.compareLiterals(min, literal) != 0;
+                default -> true;
+            };
+        }
+
+        private static boolean isExact(Object number) {
+            return number instanceof Long value ? value > -0x1p53 && value < 0x1p53 : Math.abs(((Number) number).doubleValue()) < 0x1p53;
+        }
+
+        private static Zone read(DataInputStream in) throws IOException {
+            byte flags = in.readByte();
+            Object min = null;
+            Object max = null;
+            if ((flags & HAS_VALUES) != 0) {
+                min = Statistics.readBound(in);
+                max = Statistics.readBound(in);
+            }
+            long[] bloom = null;
+            int bloomWords = in.readInt();
+            if (bloomWords > 0) {
+                bloom = new long[bloomWords];
+                for (int i = 0; i < bloomWords; i++) {
+                    bloom[i] = in.readLong();
+                }
+            }
+            Zone zone = new Zone(bloom);
+            zone.unknown = (flags & UNKNOWN) != 0;
+            zone.hasBlobs = (flags & HAS_BLOBS) != 0;
+            zone.maxOpen = (flags & MAX_OPEN) != 0;
+            zone.min = min;
+            zone.max = max;
+            return zone;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeByte((unknown ? UNKNOWN : 0) | (hasBlobs ? HAS_BLOBS : 0) | (min != null ? HAS_VALUES : 0) | (maxOpen ? MAX_OPEN : 0));
+            if (min != null) {
+                Statistics.writeBound(out, min);
+                Statistics.writeBound(out, max);
+            }
+            out.writeInt(bloom == null ? 0 : bloom.length);
+            if (bloom != null) {
+                for (long word : bloom) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Files written by the bulk loader must pass SQLite's own integrity check and read back the same through SQLite and
+// through our reader, for trees several levels deep, values on overflow pages, quoted fields and partly full pages
+class BulkLoaderTest {
+    private static final int ROWS = 20_000;
+
+    @TempDir
+    Path directory;
+
+    // Header and rows of the CSV, and the rows as both readers should print them
+    private static final String HEADER = "id integer primary key,k integer,score real,name text,note\n";
+    private static final List<String> expected = new ArrayList<>();
+
+    private static String csv() {
+        expected.clear();
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int id = 1; id <= ROWS; id++) {
+            long k = (long) id * 7919 % 1000 - 500;
+            String name = switch (id % 5) {
+                case 0 -> "plain " + id;
+                case 1 -> "comma, and \"quote\" " + id;
+                case 2 -> "line\nbreak " + id;
+                case 3 -> "long " + "x".repeat(id % 7 == 0 ? 6000 : 10) + id;
+                default -> "";
+            };
+            // A numeric column keeps text that is not a number as text
+            String score = id % 11 == 0 ? "n/a" : (id / 4.0) + "";
+            csv.append(id).append(',').append(k).append(',').append(score).append(",\"")
+                    .append(name.replace("\"", "\"\"")).append("\",").append(id % 3 == 0 ? "12" : "t" + id).append('\n');
+            expected.add(id + "|" + k + "|" + score + "|" + name + "|" + (id % 3 == 0 ? "12" : "t" + id));
+        }
+        return csv.toString();
+    }
+
+    private void checkLoad(double fillFactor) throws Exception {
+        Path input = directory.resolve("input.csv");
+        Files.writeString(input, csv());
+        Path file = directory.resolve("loaded.db");
+        long rows = new BulkLoader(1 << 20, fillFactor, BulkLoader.DEFAULT_PAGE_SIZE)
+                .load(file, "t", input, List.of(List.of("k"), List.of("name", "k")));
+        assertEquals(ROWS, rows);
+        String path = file.toString();
+
+        assertEquals(List.of("ok"), TestDatabase.querySqlite(path, "PRAGMA integrity_check"));
+        String all = "SELECT id, k, score, name, note FROM t";
+        assertEquals(expected, TestDatabase.querySqlite(path, all));
+        try (Database database = new Database()) {
+            // Rows with line breaks print over several lines
+            assertEquals(String.join("\n", expected), String.join("\n", TestDatabase.query(database, path, all)));
+            String byIndex = "SELECT id FROM t WHERE k = 7";
+            assertEquals(TestDatabase.querySqlite(path, byIndex + " ORDER BY id"), TestDatabase.query(database, path, byIndex));
+            assertEquals(TestDatabase.querySqlite(path, "SELECT count(*) FROM t INDEXED BY idx_t_name_k WHERE name >= 'long'"),
+                    TestDatabase.query(database, path, "SELECT count(*) FROM t WHERE name >= 'long'"));
+        }
+    }
+
+    @Test
+    void fullPagesPassTheIntegrityCheck() throws Exception {
+        checkLoad(1);
+    }
+
+    @Test
+    void partlyFullPagesPassTheIntegrityCheck() throws Exception {
+        checkLoad(0.6);
+    }
+}
@@ -0,0 +1,73 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+// Many threads running a mix of statements through one Database must each get exactly what the statement gives when
+// run alone. A 16-page cache keeps pages being evicted and re-read while other threads use them.
+class ConcurrentQueryTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+    private static final String[] QUERIES = {
+            "SELECT name, size FROM companies WHERE id = ?",
+            "SELECT id, name FROM companies WHERE size >= ? AND size < ?",
+            "SELECT count(*) FROM m WHERE a < ?",
+            "SELECT a, count(*) FROM m WHERE id > ? GROUP BY a ORDER BY a",
+            "SELECT id, a FROM m WHERE a >= ? ORDER BY a DESC, id LIMIT 50",
+            "SELECT c.name, m.a FROM companies c JOIN m ON c.id = m.id WHERE c.id > ?",
+    };
+
+    private static Object[] parameters(int query, int round) {
+        return switch (query) {
+            case 1 -> new Object[]{round * 300, round * 300 + 2000};
+            case 2, 3, 4, 5 -> new Object[]{round * 37 - 300};
+            default -> new Object[]{round * 41 % 1000 + 1};
+        };
+    }
+
+    @ParameterizedTest
+    @EnumSource(PageSourceType.class)
+    void concurrentQueriesMatchSerialOnes(PageSourceType pageSourceType) throws Exception {
+        String path = TestDatabase.resource("ranges.db");
+        List<List<String>> serial = new ArrayList<>();
+        try (Database database = new Database()) {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int query = 0; query < QUERIES.length; query++) {
+                    serial.add(TestDatabase.query(database, path, QUERIES[query], parameters(query, round)));
+                }
+            }
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try (Database database = new Database(pageSourceType, 16)) {
+            database.openSession(path);
+            database.setParallelism(2, true);
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int start = thread;
+                results.add(threads.submit(() -> {
+                    // Each thread walks the statements from a different place, so different ones overlap
+                    for (int i = 0; i < serial.size(); i++) {
+                        int next = (start * 7 + i) % serial.size();
+                        int round = next / QUERIES.length;
+                        int query = next % QUERIES.length;
+                        assertEquals(serial.get(next), TestDatabase.query(database, path, QUERIES[query], parameters(query, round)),
+                                QUERIES[query]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+// COUNT(*) answered from cursor positions alone must match the count of rows the WHERE clause keeps. Expected counts
+// come from SQLite on ranges.db: m(a) has an index on a and every fourth a is NULL, companies has rowids 1 to 1000,
+// each with size = 10 * id and an index on size.
+class CountRowsTest {
+    private static String count(String sql) throws Exception {
+        String path = Path.of(CountRowsTest.class.getResource("/ranges.db").toURI()).toString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Database database = new Database()) {
+            database.executeTo(out, path, database.prepare(sql));
+        }
+        return out.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    // An index range with only an upper bound must start after the NULL keys
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "SELECT count(*) FROM m WHERE a < 0|350",
+            "SELECT count(*) FROM m WHERE a <= 100|451",
+            "SELECT count(*) FROM m WHERE a >= -300|1125",
+    })
+    void indexRangeSkipsNullKeys(String sql, String expected) throws Exception {
+        assertEquals(expected, count(sql));
+    }
+
+    // Repeated bounds on one side of a rowid or index range keep the tightest
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "SELECT count(*) FROM companies WHERE id < 50 AND id < 100|49",
+            "SELECT count(*) FROM companies WHERE id > 10 AND id >= 10 AND id < 20|9",
+            "SELECT count(*) FROM companies WHERE size > 9000 AND size > 10|100",
+            "SELECT count(*) FROM companies WHERE size < 100 AND size <= 100|9",
+            "SELECT count(*) FROM companies WHERE size >= 500 AND size > 500 AND size <= 600|10",
+    })
+    void repeatedBoundsKeepTheTightest(String sql, String expected) throws Exception {
+        assertEquals(expected, count(sql));
+    }
+
+    @Test
+    void rowsMatchTheCount() throws Exception {
+        String rows = count("SELECT id FROM m WHERE a < 0");
+        assertEquals(350, rows.lines().count());
+    }
+}
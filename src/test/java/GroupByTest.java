@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// 200000 rows in 60000 groups: far more state than a 1 MB memory budget holds, so the aggregator spills partitions
+// to temp files and must still give the same groups as with everything in memory
+class GroupByTest {
+    private static final int ROWS = 200_000;
+    private static final int GROUPS = 60_000;
+    private static final long SPILL_BUDGET = 1 << 20;
+
+    @TempDir
+    static Path directory;
+    private static String path;
+    // count, sum, min and max of v by g
+    private static final TreeMap<Long, long[]> expected = new TreeMap<>();
+
+    @BeforeAll
+    static void load() throws Exception {
+        StringBuilder csv = new StringBuilder("id integer primary key,g integer,name text,v integer\n");
+        for (long id = 1; id <= ROWS; id++) {
+            long g = id * 7919 % GROUPS;
+            long v = id % 1000 - 500;
+            csv.append(id).append(',').append(g).append(",k").append(g).append(',').append(v).append('\n');
+            long[] group = expected.computeIfAbsent(g, key -> new long[]{0, 0, Long.MAX_VALUE, Long.MIN_VALUE});
+            group[0]++;
+            group[1] += v;
+            group[2] = Math.min(group[2], v);
+            group[3] = Math.max(group[3], v);
+        }
+        path = TestDatabase.load(directory.resolve("groups.db"), "t", csv.toString());
+    }
+
+    private static List<String> query(long memoryBudget, String sql) throws Exception {
+        try (Database database = new Database()) {
+            database.setMemoryBudget(memoryBudget);
+            return TestDatabase.query(database, path, sql);
+        }
+    }
+
+    @Test
+    void spilledGroupsMatchTheExpectedAggregates() throws Exception {
+        List<String> rows = new ArrayList<>();
+        expected.forEach((g, group) -> rows.add(g + "|" + group[0] + "|" + group[1] + "|" + group[2] + "|" + group[3]));
+        assertEquals(rows, query(SPILL_BUDGET, "SELECT g, count(*), sum(v), min(v), max(v) FROM t GROUP BY g ORDER BY g"));
+    }
+
+    @Test
+    void spillingDoesNotChangeTheGroups() throws Exception {
+        String sql = "SELECT name, count(*), max(v) FROM t WHERE v >= 0 GROUP BY name";
+        List<String> inMemory = query(Database.DEFAULT_MEMORY_BUDGET, sql);
+        // g fixes id % 1000 and so v, which is not negative in half of the groups
+        assertEquals(GROUPS / 2, inMemory.size());
+        assertEquals(inMemory.stream().sorted().toList(), query(SPILL_BUDGET, sql).stream().sorted().toList());
+    }
+
+    @Test
+    void orderedAndLimitedGroupsAfterASpill() throws Exception {
+        List<String> rows = new ArrayList<>();
+        expected.descendingMap().entrySet().stream().limit(15).skip(5)
+                .forEach(entry -> rows.add(entry.getKey() + "|" + entry.getValue()[0]));
+        assertEquals(rows, query(SPILL_BUDGET, "SELECT g, count(*) FROM t GROUP BY g ORDER BY g DESC LIMIT 10 OFFSET 5"));
+    }
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Self-joins of t(id, k, name), where every k from 1 to 50000 is held by two rows. Without an index on k the join
+// builds a hash table several times a 1 MB memory budget and spills it; with one, or through the rowid, each row of
+// one side is looked up in the other.
+class JoinTest {
+    private static final int ROWS = 100_000;
+    private static final int KEYS = 50_000;
+    private static final long SPILL_BUDGET = 1 << 20;
+
+    @TempDir
+    static Path directory;
+    private static String plainPath;
+    private static String indexedPath;
+    private static final long[] keys = new long[ROWS + 1];
+
+    @BeforeAll
+    static void load() throws Exception {
+        StringBuilder csv = new StringBuilder("id integer primary key,k integer,name text\n");
+        for (int id = 1; id <= ROWS; id++) {
+            keys[id] = (long) id * 7919 % KEYS + 1;
+            csv.append(id).append(',').append(keys[id]).append(",n").append(id).append('\n');
+        }
+        plainPath = TestDatabase.load(directory.resolve("plain.db"), "t", csv.toString());
+        indexedPath = TestDatabase.load(directory.resolve("indexed.db"), "t", csv.toString(), "k");
+    }
+
+    private static List<String> query(String path, String sql) throws Exception {
+        try (Database database = new Database()) {
+            database.setMemoryBudget(SPILL_BUDGET);
+            return TestDatabase.query(database, path, sql);
+        }
+    }
+
+    private static List<String> plan(String path, String sql) throws Exception {
+        try (Database database = new Database()) {
+            database.setMemoryBudget(SPILL_BUDGET);
+            return TestDatabase.printed(database, path, "EXPLAIN ANALYZE " + sql).stream().filter(line -> line.startsWith("plan: ")).toList();
+        }
+    }
+
+    // a.id|b.id for every pair of rows with the same k and a.id at most maxId
+    private static List<String> pairsWithEqualKeys(int maxId) {
+        List<String> pairs = new ArrayList<>();
+        for (int a = 1; a <= maxId; a++) {
+            // The other row with the same k is 50000 ids away
+            int other = a > KEYS ? a - KEYS : a + KEYS;
+            pairs.add(a + "|" + a);
+            pairs.add(a + "|" + other);
+        }
+        return pairs.stream().sorted().toList();
+    }
+
+    @Test
+    void graceHashJoinMatchesEveryPair() throws Exception {
+        String sql = "SELECT a.id, b.id FROM t a JOIN t b ON a.k = b.k";
+        assertTrue(plan(plainPath, sql).stream().anyMatch(step -> step.contains("HASH JOIN")));
+        assertEquals(pairsWithEqualKeys(ROWS), query(plainPath, sql).stream().sorted().toList());
+    }
+
+    @Test
+    void graceHashJoinWithOrderByAndLimit() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (int a = ROWS; a > ROWS - 5; a--) {
+            expected.add(a + "|" + (a - KEYS) + "|n" + (a - KEYS));
+        }
+        assertEquals(expected, query(plainPath, "SELECT a.id, b.id, b.name FROM t a JOIN t b ON a.k = b.k WHERE b.id <= 50000 ORDER BY a.id DESC LIMIT 5"));
+    }
+
+    @Test
+    void indexNestedLoopJoinThroughTheRowid() throws Exception {
+        String sql = "SELECT a.id, b.name FROM t a JOIN t b ON a.k = b.id WHERE a.id <= 1000";
+        assertEquals(List.of("plan: INDEX NESTED-LOOP JOIN t USING ROWID"), plan(plainPath, sql).stream()
+                .filter(step -> step.contains("JOIN")).toList());
+        List<String> expected = new ArrayList<>();
+        for (int a = 1; a <= 1000; a++) {
+            expected.add(a + "|n" + keys[a]);
+        }
+        assertEquals(expected.stream().sorted().toList(), query(plainPath, sql).stream().sorted().toList());
+    }
+
+    @Test
+    void indexNestedLoopJoinThroughAnIndex() throws Exception {
+        String sql = "SELECT a.id, b.id FROM t a JOIN t b ON a.k = b.k WHERE a.id <= 100";
+        assertTrue(plan(indexedPath, sql).stream().anyMatch(step -> step.startsWith("plan: INDEX NESTED-LOOP JOIN t USING INDEX")));
+        assertEquals(pairsWithEqualKeys(100), query(indexedPath, sql).stream().sorted().toList());
+    }
+}
@@ -0,0 +1,23 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+class MappedPageSourceTest {
+    @Test
+    void pagePastTheEndOfTheLastRegionIsAnIOException() throws Exception {
+        Path path = Path.of(MappedPageSourceTest.class.getResource("/ranges.db").toURI());
+        try (FileChannel channel = FileChannel.open(path)) {
+            int pageSize = 1024;
+            int pages = (int) (channel.size() / pageSize);
+            MappedPageSource source = new MappedPageSource(channel, pageSize);
+            assertEquals(pageSize, source.getPage(pages).remaining());
+            assertThrows(IOException.class, () -> source.getPage(pages + 1));
+            assertThrows(IOException.class, () -> source.getPage(0));
+        }
+    }
+}
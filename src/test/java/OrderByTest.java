@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// 200000 sort entries are several times a 1 MB memory budget, so the sorter writes sorted runs to temp files and
+// merges them; the order must be the one computed here, with ties broken by the later terms
+class OrderByTest {
+    private static final int ROWS = 200_000;
+    private static final long SPILL_BUDGET = 1 << 20;
+
+    @TempDir
+    static Path directory;
+    private static String path;
+    // id, v and name of each row
+    private static final List<Object[]> rows = new ArrayList<>();
+
+    @BeforeAll
+    static void load() throws Exception {
+        StringBuilder csv = new StringBuilder("id integer primary key,v integer,name text\n");
+        for (long id = 1; id <= ROWS; id++) {
+            long v = id * 7919 % 5000;
+            String name = "n" + (id * 104729 % 100_003);
+            csv.append(id).append(',').append(v).append(',').append(name).append('\n');
+            rows.add(new Object[]{id, v, name});
+        }
+        path = TestDatabase.load(directory.resolve("sort.db"), "t", csv.toString());
+    }
+
+    private static List<String> query(String sql) throws Exception {
+        try (Database database = new Database()) {
+            database.setMemoryBudget(SPILL_BUDGET);
+            return TestDatabase.query(database, path, sql);
+        }
+    }
+
+    @Test
+    void externalSortOnSeveralKeys() throws Exception {
+        List<String> expected = rows.stream()
+                .sorted(Comparator.comparing((Object[] row) -> (Long) row[1]).reversed().thenComparing(row -> (Long) row[0]))
+                .map(row -> row[0] + "|" + row[1]).toList();
+        assertEquals(expected, query("SELECT id, v FROM t ORDER BY v DESC, id"));
+    }
+
+    @Test
+    void externalSortOnTextByPosition() throws Exception {
+        List<String> expected = rows.stream()
+                .sorted(Comparator.comparing((Object[] row) -> (String) row[2]).thenComparing(row -> (Long) row[0], Comparator.reverseOrder()))
+                .map(row -> row[2] + "|" + row[0]).toList();
+        assertEquals(expected, query("SELECT name, id FROM t WHERE v < 4000 OR v >= 4000 ORDER BY 1, id DESC"));
+    }
+
+    @Test
+    void topNPastTheBudget() throws Exception {
+        List<String> expected = rows.stream()
+                .sorted(Comparator.comparing((Object[] row) -> (String) row[2]).thenComparing(row -> (Long) row[0]))
+                .skip(150_000).limit(20).map(row -> row[0] + "|" + row[2]).toList();
+        assertEquals(expected, query("SELECT id, name FROM t ORDER BY name, id LIMIT 20 OFFSET 150000"));
+    }
+}
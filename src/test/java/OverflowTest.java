@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// overflow.db has 1024-byte pages and docs(id integer primary key, title text, body text, data blob). Row 2's body
+// just spills onto one overflow page, row 3's body and data run over chains of many pages, row 4's body is 5000
+// two-byte characters, so characters straddle page boundaries, and row 5's body is NULL.
+class OverflowTest {
+    private static final String BODY_2 = "abcdefghij".repeat(100);
+    private static final String BODY_3 = "row3:" + "0123456789".repeat(3000);
+    private static final String BODY_4 = "é".repeat(5000);
+
+    private static List<String> query(String sql) throws Exception {
+        try (Database database = new Database()) {
+            return TestDatabase.query(database, TestDatabase.resource("overflow.db"), sql);
+        }
+    }
+
+    @Test
+    void valuesOnOverflowChainsAreReadWhole() throws Exception {
+        assertEquals(List.of("1|tiny", "2|" + BODY_2, "3|" + BODY_3, "4|" + BODY_4, "5|"), query("SELECT id, body FROM docs"));
+    }
+
+    @Test
+    void blobOnAnOverflowChainIsCopiedByteForByte() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 40; i++) {
+            for (int b = 0; b < 256; b++) {
+                expected.write(b);
+            }
+        }
+        expected.writeBytes(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+        try (Database database = new Database()) {
+            assertArrayEquals(expected.toByteArray(),
+                    TestDatabase.queryBytes(database, TestDatabase.resource("overflow.db"), "SELECT data FROM docs WHERE id = 3"));
+        }
+    }
+
+    @Test
+    void filtersCompareValuesOnOverflowChains() throws Exception {
+        assertEquals(List.of("2"), query("SELECT id FROM docs WHERE body = '" + BODY_2 + "'"));
+        assertEquals(List.of("1", "4"), query("SELECT id FROM docs WHERE body > 'row3:1'"));
+        assertEquals(List.of("3"), query("SELECT id FROM docs WHERE body > 'row3:0' AND body < 'row3:1'"));
+    }
+
+    @Test
+    void unselectedColumnsSkipTheirOverflowChains() throws Exception {
+        try (Database database = new Database()) {
+            String path = TestDatabase.resource("overflow.db");
+            assertTrue(TestDatabase.printed(database, path, "EXPLAIN ANALYZE SELECT title FROM docs").stream()
+                    .anyMatch(line -> line.startsWith("pages read:") && line.endsWith("overflow 0)")));
+            assertTrue(TestDatabase.printed(database, path, "EXPLAIN ANALYZE SELECT body FROM docs WHERE id = 3").stream()
+                    .anyMatch(line -> line.startsWith("pages read:") && !line.endsWith("overflow 0)")));
+        }
+    }
+}
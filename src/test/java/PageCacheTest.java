@@ -0,0 +1,48 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+class PageCacheTest {
+    private static FileChannel open() throws Exception {
+        return FileChannel.open(Path.of(PageCacheTest.class.getResource("/ranges.db").toURI()));
+    }
+
+    // The prefetch counter moves once the page is cached
+    private static void awaitPrefetches(PageCache cache, long count) {
+        while (cache.getPrefetches() < count) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    void pageReadAheadIsAPrefetchNotAMiss() throws Exception {
+        try (FileChannel channel = open()) {
+            PageCache cache = new PageCache(channel, 1024, 16, 1);
+            cache.prefetch(2);
+            awaitPrefetches(cache, 1);
+            cache.getPage(2);
+            cache.getPage(2);
+            assertEquals(2, cache.getHits());
+            assertEquals(0, cache.getMisses());
+            assertEquals(1, cache.getPrefetchHits());
+        }
+    }
+
+    @Test
+    void evictedPrefetchIsNotCountedWhenReadAgain() throws Exception {
+        try (FileChannel channel = open()) {
+            PageCache cache = new PageCache(channel, 1024, 1, 1);
+            cache.prefetch(2);
+            awaitPrefetches(cache, 1);
+            cache.getPage(3);  // Evicts page 2 unused
+            cache.getPage(2);
+            cache.getPage(2);
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            assertEquals(0, cache.getPrefetchHits());
+        }
+    }
+}
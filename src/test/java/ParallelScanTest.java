@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelScanTest {
+    private static List<String> query(Database database, String sql) throws Exception {
+        String path = Path.of(ParallelScanTest.class.getResource("/ranges.db").toURI()).toString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        database.executeTo(out, path, database.prepare(sql));
+        return out.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    @Test
+    void parallelScansMatchTheSerialScan() throws Exception {
+        String sql = "SELECT id, name FROM companies WHERE size > 100";
+        List<String> serial;
+        try (Database database = new Database()) {
+            serial = query(database, sql);
+        }
+        try (Database database = new Database()) {
+            database.setParallelism(4, true);
+            assertEquals(serial, query(database, sql));
+            // The same workers serve every statement
+            assertEquals(serial, query(database, sql));
+            database.setParallelism(3, false);
+            assertEquals(serial.stream().sorted().toList(), query(database, sql).stream().sorted().toList());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Placeholders in ranges.db's companies(id, name, size), where row id has name "co" + id and size 10 * id
+class PreparedQueryTest {
+    private static final String RANGE = "SELECT id FROM companies WHERE size >= ? AND size < ? ORDER BY id LIMIT ? OFFSET ?";
+
+    @Test
+    void placeholdersAreCountedInOrder() throws Exception {
+        try (Database database = new Database()) {
+            assertEquals(4, database.prepare(RANGE).getParameterCount());
+            assertEquals(0, database.prepare("SELECT id FROM companies WHERE name = '?'").getParameterCount());
+            String path = TestDatabase.resource("ranges.db");
+            assertEquals(List.of("13", "14"), TestDatabase.query(database, path, RANGE, 100, 200L, 2, 3L));
+        }
+    }
+
+    @Test
+    void valuesAreBoundWithTheColumnAffinity() throws Exception {
+        try (Database database = new Database()) {
+            String path = TestDatabase.resource("ranges.db");
+            String byId = "SELECT name FROM companies WHERE id = ?";
+            assertEquals(List.of("co7"), TestDatabase.query(database, path, byId, 7));
+            assertEquals(List.of("co7"), TestDatabase.query(database, path, byId, 7L));
+            assertEquals(List.of("co7"), TestDatabase.query(database, path, byId, "7"));
+            assertEquals(List.of("co7"), TestDatabase.query(database, path, byId, 7.0));
+            assertEquals(List.of("8"), TestDatabase.query(database, path, "SELECT id FROM companies WHERE name = ?", "co8"));
+            // A bound string is a value, never SQL
+            assertEquals(List.of(), TestDatabase.query(database, path, "SELECT id FROM companies WHERE name = ?", "co8' OR id > '0"));
+        }
+    }
+
+    @Test
+    void wrongParameterCountIsRejected() throws Exception {
+        try (Database database = new Database()) {
+            String path = TestDatabase.resource("ranges.db");
+            PreparedQuery query = database.prepare(RANGE);
+            IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> database.execute(path, query, 1, 2, 3));
+            assertEquals("Expected 4 parameters, got 3", error.getMessage());
+            assertThrows(IllegalArgumentException.class, () -> database.execute(path, query, 1, 2, 3, 4, 5));
+            PreparedQuery noPlaceholders = database.prepare("SELECT id FROM companies");
+            assertThrows(IllegalArgumentException.class, () -> database.execute(path, noPlaceholders, 1));
+        }
+    }
+
+    @Test
+    void wrongParameterTypeIsRejected() throws Exception {
+        try (Database database = new Database()) {
+            String path = TestDatabase.resource("ranges.db");
+            PreparedQuery query = database.prepare(RANGE);
+            assertEquals("Parameter 1 must be a String, Long, Integer or Double",
+                    assertThrows(IllegalArgumentException.class, () -> database.execute(path, query, true, 1, 1, 0)).getMessage());
+            assertThrows(IllegalArgumentException.class, () -> database.execute(path, query, 1, null, 1, 0));
+            assertEquals("LIMIT parameter 3 must be a non-negative Long or Integer",
+                    assertThrows(IllegalArgumentException.class, () -> database.execute(path, query, 1, 2, "1", 0)).getMessage());
+            assertEquals("OFFSET parameter 4 must be a non-negative Long or Integer",
+                    assertThrows(IllegalArgumentException.class, () -> database.execute(path, query, 1, 2, 1, -1)).getMessage());
+        }
+    }
+
+    @Test
+    void statementsDifferingOnlyInLayoutShareACachedPlan() throws Exception {
+        try (Database database = new Database()) {
+            PreparedQuery query = database.prepare(RANGE);
+            assertSame(query, database.prepare(RANGE));
+            assertSame(query, database.prepare("  " + RANGE.replace(" AND ", "\n  AND\t") + " ;"));
+            assertNotSame(query, database.prepare(RANGE.replace("size <", "size <=")));
+            // A quoted string keeps its spaces, so it is part of the cache key as written
+            assertNotSame(database.prepare("SELECT id FROM companies WHERE name = 'a b'"),
+                    database.prepare("SELECT id FROM companies WHERE name = 'a  b'"));
+        }
+    }
+
+    // Running a cached statement binds a copy, so one execution's values never leak into the next
+    @Test
+    void cachedPlanIsReusedWithNewValues() throws Exception {
+        try (Database database = new Database()) {
+            String path = TestDatabase.resource("ranges.db");
+            for (int id = 1; id <= 50; id++) {
+                assertEquals(List.of("co" + id), TestDatabase.query(database, path, "SELECT name FROM companies WHERE id = ?", id));
+            }
+        }
+    }
+}
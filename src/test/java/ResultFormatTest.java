@@ -0,0 +1,73 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+// formats.db holds v(id integer primary key, t text, n) with the values each format has to escape: separators,
+// quotes, tabs, line breaks, control characters, NULLs and a value long enough to be streamed off its overflow chain
+class ResultFormatTest {
+    private static final String BIG = "big," + "y".repeat(20000);
+    private static final String SQL = "SELECT id, t, n FROM v";
+
+    private static String query(ResultFormat format, String sql) throws Exception {
+        try (Database database = new Database()) {
+            database.setResultFormat(format);
+            return new String(TestDatabase.queryBytes(database, TestDatabase.resource("formats.db"), sql), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void csvQuotesFieldsWithSeparatorsQuotesAndLineBreaks() throws Exception {
+        assertEquals("1,plain,1\r\n"
+                + "2,\"comma, here\",-2\r\n"
+                + "3,\"quote \"\" here\",\r\n"
+                + "4,tab\there,2.5\r\n"
+                + "5,\"line\nbreak\",0\r\n"
+                + "6,\"cr\r\nlf\",\r\n"
+                + "7,,-0.25\r\n"
+                + "8,back\\slash \u0001 é,7\r\n"
+                + "9,\"" + BIG + "\",\r\n", query(ResultFormat.CSV, SQL));
+    }
+
+    // A value streamed off overflow pages is always quoted, since it is written before all of it has been seen
+    @Test
+    void tsvQuotesFieldsWithTabsQuotesAndLineBreaks() throws Exception {
+        assertEquals("1\tplain\t1\n"
+                + "2\tcomma, here\t-2\n"
+                + "3\t\"quote \"\" here\"\t\n"
+                + "4\t\"tab\there\"\t2.5\n"
+                + "5\t\"line\nbreak\"\t0\n"
+                + "6\t\"cr\r\nlf\"\t\n"
+                + "7\t\t-0.25\n"
+                + "8\tback\\slash \u0001 é\t7\n"
+                + "9\t\"" + BIG + "\"\t\n", query(ResultFormat.TSV, SQL));
+    }
+
+    @Test
+    void jsonEscapesStringsAndWritesNull() throws Exception {
+        assertEquals("{\"id\":1,\"t\":\"plain\",\"n\":1}\n"
+                + "{\"id\":2,\"t\":\"comma, here\",\"n\":-2}\n"
+                + "{\"id\":3,\"t\":\"quote \\\" here\",\"n\":null}\n"
+                + "{\"id\":4,\"t\":\"tab\\u0009here\",\"n\":2.5}\n"
+                + "{\"id\":5,\"t\":\"line\\nbreak\",\"n\":0}\n"
+                + "{\"id\":6,\"t\":\"cr\\u000d\\nlf\",\"n\":null}\n"
+                + "{\"id\":7,\"t\":null,\"n\":-0.25}\n"
+                + "{\"id\":8,\"t\":\"back\\\\slash \\u0001 é\",\"n\":7}\n"
+                + "{\"id\":9,\"t\":\"" + BIG + "\",\"n\":null}\n", query(ResultFormat.JSON, SQL));
+    }
+
+    @Test
+    void jsonKeysComeFromTheSelectList() throws Exception {
+        assertEquals("{\"n\":null,\"id\":3}\n", query(ResultFormat.JSON, "SELECT n, id FROM v WHERE id = 3"));
+        assertEquals("{\"count(*)\":9}\n", query(ResultFormat.JSON, "SELECT count(*) FROM v"));
+    }
+
+    @Test
+    void rejectedQueryWritesNothing() throws Exception {
+        for (ResultFormat format : ResultFormat.values()) {
+            assertEquals("", query(format, "SELECT id, nosuch FROM v"));
+            assertEquals("", query(format, "SELECT id FROM v ORDER BY nosuch"));
+        }
+    }
+}
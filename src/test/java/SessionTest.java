@@ -0,0 +1,42 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SessionTest {
+    // Each bad statement is reported on its own and the session goes on to the next one
+    @Test
+    void badStatementsDoNotEndTheSession() throws Exception {
+        String path = Path.of(SessionTest.class.getResource("/ranges.db").toURI()).toString();
+        String script = """
+                SELECT * FROM companies WHERE nosuch = 1;
+                SELECT * FROM companies WHERE name =;
+                SELECT * FROM companies WHERE name = ';
+                SELECT * FROM companies LIMIT 99999999999999999999;
+                SELECT id FROM companies LIMIT 1 OFFSET 99999999999999999999;
+                SELECT count(*) FROM companies;
+                """;
+        PrintStream standardOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            Main.runSession(new Database(), path, new BufferedReader(new StringReader(script)));
+        } finally {
+            System.setOut(standardOut);
+        }
+        assertEquals(List.of(
+                "Error: Column nosuch does not exist",
+                "Error: Invalid where clause: name =",
+                "Error: Unterminated string literal in where clause: name = '",
+                "Error: LIMIT must be a whole number from 0 to 9223372036854775807",
+                "Error: OFFSET must be a whole number from 0 to 9223372036854775807",
+                "1000"), out.toString(StandardCharsets.UTF_8).lines().toList());
+    }
+}
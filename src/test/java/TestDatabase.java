@@ -0,0 +1,85 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Database files and query helpers shared by the tests. Fixtures in src/test/resources were written by SQLite;
+// generated tables are bulk loaded into a temp directory.
+final class TestDatabase {
+    private TestDatabase() {
+    }
+
+    static String resource(String name) throws Exception {
+        return Path.of(TestDatabase.class.getResource("/" + name).toURI()).toString();
+    }
+
+    // Loads the CSV text, whose first line is the header, as the only table of a new database file. Each index is
+    // a comma-separated list of columns.
+    static String load(Path file, String table, String csv, String... indexes) throws IOException {
+        Path input = Path.of(file + ".csv");
+        Files.writeString(input, csv);
+        List<List<String>> indexColumns = Arrays.stream(indexes).map(index -> List.of(index.split(","))).toList();
+        new BulkLoader(Database.DEFAULT_MEMORY_BUDGET, 1, BulkLoader.DEFAULT_PAGE_SIZE).load(file, table, input, indexColumns);
+        return file.toString();
+    }
+
+    static byte[] queryBytes(Database database, String path, String sql, Object... parameters) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        database.executeTo(out, path, database.prepare(sql), parameters);
+        return out.toByteArray();
+    }
+
+    static List<String> query(Database database, String path, String sql, Object... parameters) {
+        return new String(queryBytes(database, path, sql, parameters), StandardCharsets.UTF_8).lines().toList();
+    }
+
+    // Standard output of a command, where errors and EXPLAIN ANALYZE plans go
+    static List<String> printed(Database database, String path, String command) {
+        PrintStream standardOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            database.executeQuery(path, command);
+        } finally {
+            System.setOut(standardOut);
+        }
+        return out.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    // Rows as SQLite itself reads them, printed like the LIST format
+    static List<String> querySqlite(String path, String sql) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            int columns = result.getMetaData().getColumnCount();
+            while (result.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    String value = result.getString(i);
+                    row.append(i == 1 ? "" : "|").append(value == null ? "" : value);
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    static void updateWithSqlite(String path, String... statements) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+             Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class WhereFilterTest {
+    private static String query(String sql) throws Exception {
+        String path = Path.of(WhereFilterTest.class.getResource("/ranges.db").toURI()).toString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Database database = new Database()) {
+            database.executeTo(out, path, database.prepare(sql));
+        }
+        return out.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"name =", "name = '", "name = 'abc", "= 1", "name"})
+    void malformedConditionsAreRejected(String whereClause) {
+        assertThrows(IllegalArgumentException.class, () -> new WhereFilter().parse(whereClause));
+    }
+
+    @Test
+    void operatorInsideAQuotedValueIsPartOfTheValue() {
+        WhereFilter.Node node = new WhereFilter().parse("name < 'a=b'");
+        assertEquals("<", node.condition.operator);
+        assertEquals("a=b", node.condition.value);
+    }
+
+    @Test
+    void columnNamesIgnoreCase() throws Exception {
+        assertEquals("co7", query("SELECT name FROM companies WHERE ID = 7"));
+        assertEquals("co7", query("SELECT name FROM companies WHERE Size = 70"));
+    }
+
+    @Test
+    void unknownColumnIsAQueryError() throws Exception {
+        PrintStream standardOut = System.out;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try {
+            assertEquals("", query("SELECT name FROM companies WHERE nosuch = 1"));
+        } finally {
+            System.setOut(standardOut);
+        }
+        assertEquals("Error: Column nosuch does not exist", errors.toString(StandardCharsets.UTF_8).trim());
+    }
+}
@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A scan that skips pages by the zone map must return exactly the rows SQLite returns, and a zone map left behind
+// by a change to the file must not be used, neither by a new handle nor by a session opened before the change
+class ZoneMapTest {
+    private static final int ROWS = 50_000;
+    private static final String[] QUERIES = {
+            "SELECT id FROM t WHERE v = 1234",
+            "SELECT id FROM t WHERE v = '1234'",
+            "SELECT id, name FROM t WHERE v >= 2000 AND v < 2010",
+            "SELECT id FROM t WHERE v BETWEEN 100 AND 102",
+            "SELECT id FROM t WHERE v < 5 OR v > 4998",
+            "SELECT id FROM t WHERE name = 'n77'",
+            "SELECT id FROM t WHERE name = 'nothing'",
+            "SELECT id FROM t WHERE name > 'n999'",
+            "SELECT id FROM t WHERE f = 12.5 AND v < 300",
+            "SELECT count(*) FROM t WHERE v > 4990",
+    };
+
+    @TempDir
+    Path directory;
+
+    private static void assertMatchesSqlite(Database database, String path) throws Exception {
+        for (String sql : QUERIES) {
+            assertEquals(TestDatabase.querySqlite(path, sql), TestDatabase.query(database, path, sql), sql);
+        }
+    }
+
+    private static List<String> plan(Database database, String path, String sql) {
+        return TestDatabase.printed(database, path, "EXPLAIN ANALYZE " + sql);
+    }
+
+    private static boolean usesZoneMap(Database database, String path) {
+        List<String> plan = plan(database, path, QUERIES[0]);
+        return plan.stream().anyMatch(line -> line.startsWith("plan: ") && line.contains("ZONE MAP"));
+    }
+
+    @Test
+    void zoneMapScansMatchFullScansBeforeAndAfterTheFileChanges() throws Exception {
+        // v and name rise with id, so their pages have narrow ranges; f repeats across the whole table
+        StringBuilder csv = new StringBuilder("id integer primary key,v integer,name text,f real\n");
+        for (int id = 1; id <= ROWS; id++) {
+            csv.append(id).append(',').append(id / 10).append(",n").append(id / 50).append(',').append(id % 1000 / 8.0).append('\n');
+        }
+        String path = TestDatabase.load(directory.resolve("zones.db"), "t", csv.toString());
+
+        try (Database database = new Database()) {
+            database.openSession(path);
+            assertMatchesSqlite(database, path);
+            assertFalse(usesZoneMap(database, path));
+
+            database.buildZoneMap(path, "t", List.of());
+            assertTrue(usesZoneMap(database, path));
+            assertTrue(plan(database, path, QUERIES[0]).stream()
+                    .anyMatch(line -> line.startsWith("zone map: ") && !line.startsWith("zone map: 0 ")));
+            assertMatchesSqlite(database, path);
+
+            // Each change moves a value outside the range its page had when the zone map was built
+            TestDatabase.updateWithSqlite(path,
+                    "UPDATE t SET v = 1234 WHERE id = 7",
+                    "UPDATE t SET name = 'n77' WHERE id = 40000",
+                    "UPDATE t SET name = NULL, f = 12.5 WHERE id = 3855",
+                    "DELETE FROM t WHERE id = 12340",
+                    "INSERT INTO t VALUES (60000, 1234, 'n77', 0.5)");
+            assertFalse(usesZoneMap(database, path));
+            assertMatchesSqlite(database, path);
+        }
+
+        try (Database database = new Database()) {
+            assertFalse(usesZoneMap(database, path));
+            assertMatchesSqlite(database, path);
+            database.buildZoneMap(path, "t", List.of("v", "name", "f"));
+            assertTrue(usesZoneMap(database, path));
+            assertMatchesSqlite(database, path);
+        }
+    }
+}